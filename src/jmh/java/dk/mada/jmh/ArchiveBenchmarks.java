@@ -0,0 +1,164 @@
+package dk.mada.jmh;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.mada.mjtar.CompressedArchives;
+import dk.mada.mjtar.CompressionOptions;
+import dk.mada.mjtar.TarInputStream;
+import dk.mada.mjtar.TarOutputStream;
+
+/// End-to-end archive and extract benchmarks.
+///
+/// Each invocation writes or reads a complete synthetic archive.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ArchiveBenchmarks {
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    /// Where the archive is read from or written to.
+    public enum Source {
+        /// A plain archive file.
+        FILE,
+        /// A plain archive through a pipe, which cannot seek.
+        PIPE,
+        /// A gzipped archive file.
+        GZIP
+    }
+
+    /// How the archive is opened.
+    public enum Api {
+        /// Using the stream based constructors, as the original library.
+        STREAM,
+        /// Using the channel based factories.
+        CHANNEL
+    }
+
+    @Param
+    public EntryDistribution distribution;
+    @Param
+    public Source source;
+    @Param
+    public Api api;
+
+    private Path dir;
+    private Path archive;
+    private Path target;
+    private final byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+
+    @Setup(Level.Trial)
+    public void createArchive() throws IOException {
+        dir = Files.createTempDirectory("mjtar-jmh");
+        archive = dir.resolve(source == Source.GZIP ? "source.tar.gz" : "source.tar");
+        target = dir.resolve("target.tar");
+        try (TarOutputStream tos = source == Source.GZIP
+                ? CompressedArchives.newGzipOutputStream(archive)
+                : new TarOutputStream(archive)) {
+            SyntheticArchives.writeEntries(tos, distribution);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteArchive() throws IOException {
+        Files.deleteIfExists(archive);
+        Files.deleteIfExists(target);
+        Files.deleteIfExists(dir);
+    }
+
+    /// Reads all entries and their data.
+    ///
+    /// @return the number of data bytes read
+    /// @throws IOException if there is an IO error
+    @Benchmark
+    public long extract() throws IOException {
+        long total = 0;
+        try (TarInputStream tis = openInput()) {
+            while (tis.getNextEntry() != null) {
+                int count;
+                while ((count = tis.read(buffer)) > 0) {
+                    total += count;
+                }
+            }
+        }
+        return total;
+    }
+
+    /// Writes all entries.
+    ///
+    /// @return the number of data bytes written
+    /// @throws IOException if there is an IO error
+    @Benchmark
+    public long create() throws IOException {
+        if (source == Source.PIPE) {
+            Pipe pipe = SyntheticArchives.discardingPipe();
+            OutputStream out = api == Api.STREAM
+                    ? new BufferedOutputStream(Channels.newOutputStream(pipe.sink()), STREAM_BUFFER_SIZE)
+                    : Channels.newOutputStream(pipe.sink());
+            try (var tos = new TarOutputStream(out)) {
+                return SyntheticArchives.writeEntries(tos, distribution);
+            }
+        }
+        try (TarOutputStream tos = openOutput()) {
+            return SyntheticArchives.writeEntries(tos, distribution);
+        }
+    }
+
+    private TarInputStream openInput() throws IOException {
+        if (api == Api.CHANNEL) {
+            ReadableByteChannel channel = source == Source.PIPE
+                    ? SyntheticArchives.pipe(archive)
+                    : FileChannel.open(archive, StandardOpenOption.READ);
+            return CompressedArchives.newInputStream(channel, CompressionOptions.DEFAULT);
+        }
+        InputStream in = switch (source) {
+            case FILE -> new BufferedInputStream(Files.newInputStream(archive), STREAM_BUFFER_SIZE);
+            case PIPE -> new BufferedInputStream(Channels.newInputStream(SyntheticArchives.pipe(archive)), STREAM_BUFFER_SIZE);
+            case GZIP -> new GZIPInputStream(Files.newInputStream(archive), STREAM_BUFFER_SIZE);
+        };
+        return new TarInputStream(in);
+    }
+
+    private TarOutputStream openOutput() throws IOException {
+        if (api == Api.CHANNEL) {
+            return source == Source.GZIP
+                    ? CompressedArchives.newGzipOutputStream(target)
+                    : new TarOutputStream(target, false);
+        }
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(target), STREAM_BUFFER_SIZE);
+        if (source == Source.GZIP) {
+            out = new GZIPOutputStream(out, STREAM_BUFFER_SIZE);
+        }
+        return new TarOutputStream(out);
+    }
+}
@@ -0,0 +1,50 @@
+package dk.mada.jmh;
+
+import java.util.Random;
+
+/// Entry size distributions of synthetic benchmark archives.
+///
+/// All distributions hold 20-60 MiB of entry data, so an invocation of
+/// a benchmark takes a few seconds at most, also with compression.
+public enum EntryDistribution {
+    /// Many tiny files, 0-2 KiB.
+    TINY(20_000) {
+        @Override
+        long size(Random random) {
+            return random.nextInt(2048);
+        }
+    },
+    /// Few huge files, 16 MiB each.
+    HUGE(3) {
+        @Override
+        long size(Random random) {
+            return 16L * 1024 * 1024;
+        }
+    },
+    /// Mostly small files with some large files, like a source tree with build output.
+    MIXED(1_000) {
+        @Override
+        long size(Random random) {
+            return random.nextInt(10) == 0 ? random.nextInt(1024 * 1024) : random.nextInt(8 * 1024);
+        }
+    };
+
+    private final int entries;
+
+    EntryDistribution(int entries) {
+        this.entries = entries;
+    }
+
+    /// Returns the number of entries.
+    ///
+    /// @return the number of entries
+    int entries() {
+        return entries;
+    }
+
+    /// Returns the size of the next entry.
+    ///
+    /// @param random the random source, seeded for repeatable archives
+    /// @return the entry size
+    abstract long size(Random random);
+}
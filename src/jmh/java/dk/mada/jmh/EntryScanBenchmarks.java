@@ -0,0 +1,66 @@
+package dk.mada.jmh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.mada.mjtar.TarInputStream;
+import dk.mada.mjtar.TarOutputStream;
+
+/// Benchmarks of `TarInputStream.getNextEntry`, skipping entry data.
+///
+/// The archive is held in memory, so only the stream overhead is measured.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntryScanBenchmarks {
+    @Param({ "TINY", "MIXED" })
+    public EntryDistribution distribution;
+    /// Use the skip of the underlying stream, instead of reading the skipped data.
+    @Param({ "false", "true" })
+    public boolean defaultSkip;
+
+    private byte[] archive;
+
+    @Setup(Level.Trial)
+    public void createArchive() throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var tos = new TarOutputStream(bytes)) {
+            SyntheticArchives.writeEntries(tos, distribution);
+        }
+        archive = bytes.toByteArray();
+    }
+
+    /// Lists all entries, skipping their data.
+    ///
+    /// @return the number of entries
+    /// @throws IOException if there is an IO error
+    @Benchmark
+    public int listEntries() throws IOException {
+        int count = 0;
+        try (var tis = new TarInputStream(new ByteArrayInputStream(archive))) {
+            tis.setDefaultSkip(defaultSkip);
+            while (tis.getNextEntry() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,58 @@
+package dk.mada.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.mada.mjtar.Octal;
+import dk.mada.mjtar.TarConstants;
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarHeader;
+
+/// Benchmarks of header encoding and decoding.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderBenchmarks {
+    private final TarEntry entry = new TarEntry(
+            TarHeader.createHeader("some/directory/with/a/file-name.txt", 123_456_789L, 1_700_000_000L, false, 0644));
+    private final byte[] header = new byte[TarConstants.HEADER_BLOCK];
+    private final byte[] output = new byte[TarConstants.HEADER_BLOCK];
+    private long size = 123_456_789L;
+
+    public HeaderBenchmarks() {
+        entry.writeEntryHeader(header);
+    }
+
+    @Benchmark
+    public long parseOctal() {
+        return Octal.parseOctal(header, TarHeader.SIZE_OFFSET, TarHeader.SIZELEN);
+    }
+
+    @Benchmark
+    public int writeOctal() {
+        return Octal.writeLongOctalBytes(size++, output, TarHeader.SIZE_OFFSET, TarHeader.SIZELEN);
+    }
+
+    @Benchmark
+    public byte[] writeEntryHeader() {
+        entry.writeEntryHeader(output);
+        return output;
+    }
+
+    @Benchmark
+    public TarEntry parseHeader() {
+        return new TarEntry(header);
+    }
+}
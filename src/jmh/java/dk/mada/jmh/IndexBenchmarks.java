@@ -0,0 +1,69 @@
+package dk.mada.jmh;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.mada.mjtar.TarIndex;
+import dk.mada.mjtar.TarOutputStream;
+
+/// Benchmarks of building the index of an archive file, serially and in parallel.
+///
+/// The archive file will usually be in the page cache, so this measures the
+/// CPU cost of the scans rather than the storage.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexBenchmarks {
+    @Param({ "TINY", "MIXED" })
+    public EntryDistribution distribution;
+    /// The number of workers, 0 for the serial scan.
+    @Param({ "0", "1", "4" })
+    public int parallelism;
+
+    private Path archive;
+
+    @Setup(Level.Trial)
+    public void createArchive() throws IOException {
+        archive = Files.createTempFile("mjtar-index", ".tar");
+        try (var tos = new TarOutputStream(archive, false)) {
+            SyntheticArchives.writeEntries(tos, distribution);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteArchive() throws IOException {
+        Files.deleteIfExists(archive);
+    }
+
+    /// Builds the index.
+    ///
+    /// @return the number of entries
+    /// @throws IOException if there is an IO error
+    @Benchmark
+    public int buildIndex() throws IOException {
+        try (FileChannel channel = FileChannel.open(archive)) {
+            TarIndex index = parallelism == 0 ? TarIndex.scan(channel) : TarIndex.scanParallel(channel, parallelism);
+            return index.size();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package dk.mada.jmh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarInputStream;
+import dk.mada.mjtar.TarOutputStream;
+
+/// Benchmark of the recovery mode scan over a damaged region.
+///
+/// The archive is 64 MiB of garbage followed by a single valid entry, so
+/// the time is dominated by the scan for the next plausible header.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecoveryBenchmarks {
+    private static final int DAMAGED_SIZE = 64 * 1024 * 1024;
+
+    private byte[] archive = new byte[0];
+
+    @Setup
+    public void setup() throws IOException {
+        var out = new ByteArrayOutputStream();
+        byte[] garbage = new byte[DAMAGED_SIZE];
+        new Random(1).nextBytes(garbage);
+        out.write(garbage);
+        try (var tos = new TarOutputStream(out)) {
+            tos.putNextEntry(new TarEntry(TarHeader.createHeader("survivor.txt", 10, 1_700_000_000L, false, 0644)));
+            tos.write(new byte[10]);
+        }
+        archive = out.toByteArray();
+    }
+
+    @Benchmark
+    public long scanDamagedRegion() throws IOException {
+        long[] lost = new long[1];
+        try (var tis = new TarInputStream(new ByteArrayInputStream(archive))) {
+            tis.setRecoveryListener((offset, length, reason) -> lost[0] += length);
+            while (tis.getNextEntry() != null) {
+                // only scanning
+            }
+        }
+        return lost[0];
+    }
+}
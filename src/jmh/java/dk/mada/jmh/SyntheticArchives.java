@@ -0,0 +1,108 @@
+package dk.mada.jmh;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarOutputStream;
+
+/// Generates synthetic archives for the benchmarks.
+///
+/// Archives are generated from a fixed seed, so the same distribution always
+/// gives the same archive. The entry data is random text from a small
+/// alphabet, so it compresses somewhat like real files.
+final class SyntheticArchives {
+    private static final long SEED = 0x6d6a_7461_72L;
+    private static final long MOD_TIME = 1_700_000_000L;
+    private static final int DATA_SIZE = 1024 * 1024;
+    private static final byte[] DATA = createData();
+
+    /// Prevents instantiation.
+    private SyntheticArchives() {
+        // empty
+    }
+
+    /// Writes the entries of a distribution to an archive stream.
+    ///
+    /// @param tos          the stream to write to
+    /// @param distribution the entry size distribution
+    /// @return the number of entry data bytes written
+    /// @throws IOException if there is an IO error
+    static long writeEntries(TarOutputStream tos, EntryDistribution distribution) throws IOException {
+        Random random = new Random(SEED);
+        long total = 0;
+        for (int i = 0; i < distribution.entries(); i++) {
+            long size = distribution.size(random);
+            String name = "dir-" + (i / 100) + "/file-" + i + ".txt";
+            tos.putNextEntry(new TarEntry(TarHeader.createHeader(name, size, MOD_TIME, false, 0644)));
+            long left = size;
+            while (left > 0) {
+                int count = (int) Math.min(left, DATA_SIZE);
+                tos.write(DATA, (int) ((i * 4099L) % (DATA_SIZE - count + 1)), count);
+                left -= count;
+            }
+            total += size;
+        }
+        return total;
+    }
+
+    /// Provides the content of a file through a pipe, fed by a virtual thread.
+    ///
+    /// Used to benchmark reading from a non-seekable source.
+    ///
+    /// @param file the file to provide
+    /// @return the source channel of the pipe
+    /// @throws IOException if the pipe cannot be opened
+    static ReadableByteChannel pipe(Path file) throws IOException {
+        Pipe pipe = Pipe.open();
+        Thread.ofVirtual().start(() -> {
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ); Pipe.SinkChannel sink = pipe.sink()) {
+                long pos = 0;
+                long size = in.size();
+                while (pos < size) {
+                    pos += in.transferTo(pos, size - pos, sink);
+                }
+            } catch (IOException e) {
+                // reader sees a truncated archive
+            }
+        });
+        return pipe.source();
+    }
+
+    /// Opens a pipe with a virtual thread discarding everything written to it.
+    ///
+    /// Used to benchmark writing to a non-seekable target.
+    ///
+    /// @return the pipe
+    /// @throws IOException if the pipe cannot be opened
+    static Pipe discardingPipe() throws IOException {
+        Pipe pipe = Pipe.open();
+        Thread.ofVirtual().start(() -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            try (Pipe.SourceChannel source = pipe.source()) {
+                while (source.read(buffer.clear()) >= 0) {
+                    // discard
+                }
+            } catch (IOException e) {
+                // writer fails on closed pipe
+            }
+        });
+        return pipe;
+    }
+
+    private static byte[] createData() {
+        Random random = new Random(SEED);
+        byte[] data = new byte[DATA_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(16));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,49 @@
+package dk.mada.mjtar;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/// Positional channel IO helpers.
+final class ChannelIo {
+    /// Prevents instantiation.
+    private ChannelIo() {
+        // empty
+    }
+
+    /// Reads from a channel position until the buffer is full.
+    ///
+    /// Does not change the channel position, so it is safe for concurrent use.
+    ///
+    /// @param channel  the channel to read from
+    /// @param buf      the buffer to fill
+    /// @param position the channel position to read from
+    /// @throws EOFException if the channel ends before the buffer is full
+    /// @throws IOException if there is an IO error
+    static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        long pos = position;
+        while (buf.hasRemaining()) {
+            int res = channel.read(buf, pos);
+            if (res < 0) {
+                throw new EOFException("Unexpected end of file at offset " + pos);
+            }
+            pos += res;
+        }
+    }
+
+    /// Writes the buffer to a channel position.
+    ///
+    /// Does not change the channel position.
+    ///
+    /// @param channel  the channel to write to
+    /// @param buf      the buffer to write
+    /// @param position the channel position to write at
+    /// @throws IOException if there is an IO error
+    static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        long pos = position;
+        while (buf.hasRemaining()) {
+            pos += channel.write(buf, pos);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package dk.mada.mjtar;
+
+/// How often an archive being written is checkpointed.
+///
+/// A checkpoint is taken after a completed entry when either interval has
+/// been reached. Each checkpoint forces the archive data to storage, so
+/// frequent checkpoints are expensive; see [TarOutputStream#getCheckpointStats()].
+///
+/// @param entryInterval the number of entries between checkpoints, 0 to disable
+/// @param byteInterval  the number of archive bytes between checkpoints, 0 to disable
+public record CheckpointPolicy(int entryInterval, long byteInterval) {
+    /// Validates the policy.
+    public CheckpointPolicy {
+        if (entryInterval < 0 || byteInterval < 0) {
+            throw new IllegalArgumentException("Intervals must not be negative, was " + entryInterval + "/" + byteInterval);
+        }
+        if (entryInterval == 0 && byteInterval == 0) {
+            throw new IllegalArgumentException("At least one interval must be set");
+        }
+    }
+
+    /// Creates a policy checkpointing after a number of entries.
+    ///
+    /// @param entries the number of entries between checkpoints
+    /// @return the policy
+    public static CheckpointPolicy everyEntries(int entries) {
+        return new CheckpointPolicy(entries, 0);
+    }
+
+    /// Creates a policy checkpointing after a number of archive bytes.
+    ///
+    /// @param bytes the number of archive bytes between checkpoints
+    /// @return the policy
+    public static CheckpointPolicy everyBytes(long bytes) {
+        return new CheckpointPolicy(0, bytes);
+    }
+
+    /// Checks if a checkpoint is due.
+    ///
+    /// @param entries the number of entries completed since the last checkpoint
+    /// @param bytes   the number of bytes written since the last checkpoint
+    /// @return true if a checkpoint should be taken
+    boolean isDue(long entries, long bytes) {
+        return (entryInterval > 0 && entries >= entryInterval)
+                || (byteInterval > 0 && bytes >= byteInterval);
+    }
+}
@@ -0,0 +1,112 @@
+package dk.mada.mjtar;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/// Opens archives that may be gzip compressed.
+///
+/// The gzip handling uses direct buffers for inflating and deflating, see
+/// [GzipChannelInputStream] and [GzipChannelOutputStream].
+public final class CompressedArchives {
+    /// Prevents instantiation.
+    private CompressedArchives() {
+        // empty
+    }
+
+    /// Opens an archive for reading, decompressing it if it is gzipped.
+    ///
+    /// @param archive the archive to read
+    /// @return the tar input stream
+    /// @throws IOException if there is an IO error
+    public static TarInputStream newInputStream(Path archive) throws IOException {
+        return newInputStream(archive, CompressionOptions.DEFAULT);
+    }
+
+    /// Opens an archive for reading, decompressing it if it is gzipped.
+    ///
+    /// @param archive the archive to read
+    /// @param options the buffer options
+    /// @return the tar input stream
+    /// @throws IOException if there is an IO error
+    public static TarInputStream newInputStream(Path archive, CompressionOptions options) throws IOException {
+        return newInputStream(FileChannel.open(archive, StandardOpenOption.READ), options);
+    }
+
+    /// Opens an archive channel for reading, decompressing it if it is gzipped.
+    ///
+    /// Compression is detected by the gzip magic bytes at the start of the data.
+    ///
+    /// @param channel the channel to read the archive from, will be closed with the returned stream
+    /// @param options the buffer options
+    /// @return the tar input stream
+    /// @throws IOException if there is an IO error
+    public static TarInputStream newInputStream(ReadableByteChannel channel, CompressionOptions options) throws IOException {
+        try {
+            return new TarInputStream(decompressingStream(channel, options));
+        } catch (IOException | RuntimeException | Error e) {
+            try {
+                channel.close();
+            } catch (IOException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
+    }
+
+    /// Creates a new gzipped archive with default options.
+    ///
+    /// @param archive the archive file to write
+    /// @return the tar output stream
+    /// @throws IOException if there is an IO error
+    public static TarOutputStream newGzipOutputStream(Path archive) throws IOException {
+        return newGzipOutputStream(archive, CompressionOptions.DEFAULT);
+    }
+
+    /// Creates a new gzipped archive.
+    ///
+    /// @param archive the archive file to write
+    /// @param options the buffer and compression options
+    /// @return the tar output stream
+    /// @throws IOException if there is an IO error
+    public static TarOutputStream newGzipOutputStream(Path archive, CompressionOptions options) throws IOException {
+        FileChannel channel = FileChannel.open(archive,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            // Small buffer in front to avoid per-call overhead of single byte writes
+            var gzip = new GzipChannelOutputStream(channel, options);
+            return new TarOutputStream(new BufferedOutputStream(gzip, TarConstants.HEADER_BLOCK));
+        } catch (RuntimeException | Error e) {
+            try {
+                channel.close();
+            } catch (IOException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
+    }
+
+    private static InputStream decompressingStream(ReadableByteChannel channel, CompressionOptions options) throws IOException {
+        ByteBuffer prefetch = ByteBuffer.allocateDirect(options.bufferSize());
+        while (prefetch.position() < 2 && channel.read(prefetch) >= 0) {
+            // read until magic is available
+        }
+        prefetch.flip();
+
+        if (GzipChannelInputStream.hasGzipMagic(prefetch)) {
+            return new GzipChannelInputStream(channel, prefetch, options);
+        }
+
+        byte[] prefix = new byte[prefetch.remaining()];
+        prefetch.get(prefix);
+        return new SequenceInputStream(new ByteArrayInputStream(prefix), Channels.newInputStream(channel));
+    }
+}
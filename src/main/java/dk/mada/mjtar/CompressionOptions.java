@@ -0,0 +1,53 @@
+package dk.mada.mjtar;
+
+import java.util.zip.Deflater;
+
+/// Tunables for compressed archives.
+///
+/// @param bufferSize the size of the direct buffers used for compressed and uncompressed data
+/// @param level      the deflate compression level, see [Deflater#setLevel(int)]
+/// @param strategy   the deflate strategy, see [Deflater#setStrategy(int)]
+public record CompressionOptions(int bufferSize, int level, int strategy) {
+    /// Default size of the direct buffers.
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    /// Default options.
+    public static final CompressionOptions DEFAULT =
+            new CompressionOptions(DEFAULT_BUFFER_SIZE, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+
+    /// Validates the options.
+    public CompressionOptions {
+        if (bufferSize < TarConstants.DATA_BLOCK) {
+            throw new IllegalArgumentException("Buffer size must be at least " + TarConstants.DATA_BLOCK + ", was " + bufferSize);
+        }
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        if (strategy != Deflater.DEFAULT_STRATEGY && strategy != Deflater.FILTERED && strategy != Deflater.HUFFMAN_ONLY) {
+            throw new IllegalArgumentException("Invalid compression strategy " + strategy);
+        }
+    }
+
+    /// Creates a copy of these options with a new buffer size.
+    ///
+    /// @param newBufferSize the new buffer size
+    /// @return the new options
+    public CompressionOptions withBufferSize(int newBufferSize) {
+        return new CompressionOptions(newBufferSize, level, strategy);
+    }
+
+    /// Creates a copy of these options with a new compression level.
+    ///
+    /// @param newLevel the new compression level
+    /// @return the new options
+    public CompressionOptions withLevel(int newLevel) {
+        return new CompressionOptions(bufferSize, newLevel, strategy);
+    }
+
+    /// Creates a copy of these options with a new compression strategy.
+    ///
+    /// @param newStrategy the new compression strategy
+    /// @return the new options
+    public CompressionOptions withStrategy(int newStrategy) {
+        return new CompressionOptions(bufferSize, level, newStrategy);
+    }
+}
@@ -0,0 +1,116 @@
+package dk.mada.mjtar;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+
+/// Digest algorithms for entry content digests.
+///
+/// Digests are stored as hex strings in PAX extended attributes with
+/// the key given by [#paxKey()].
+///
+/// @see TarOutputStream#setDigest(DigestAlgorithm)
+/// @see TarInputStream#setVerifyDigests(boolean)
+public enum DigestAlgorithm {
+    /// SHA-256, for verifying content integrity and identity.
+    SHA_256("MJTAR.digest.sha256", 32, true),
+    /// CRC32C, for detecting corruption at low cost.
+    CRC32C("MJTAR.digest.crc32c", 4, false);
+
+    private final String paxKey;
+    private final int length;
+    private final boolean slow;
+
+    DigestAlgorithm(String paxKey, int length, boolean slow) {
+        this.paxKey = paxKey;
+        this.length = length;
+        this.slow = slow;
+    }
+
+    /// Returns the PAX attribute key the digest is stored under.
+    ///
+    /// @return the attribute key
+    public String paxKey() {
+        return paxKey;
+    }
+
+    /// Returns the length of the digest.
+    ///
+    /// @return the digest length in bytes
+    public int length() {
+        return length;
+    }
+
+    /// Returns true if hashing is slow compared to IO.
+    ///
+    /// Large entries are hashed on a helper thread for slow algorithms.
+    ///
+    /// @return true if the algorithm is slow
+    boolean isSlow() {
+        return slow;
+    }
+
+    /// Creates a new hasher.
+    ///
+    /// @return the hasher
+    Hasher newHasher() {
+        return switch (this) {
+            case SHA_256 -> new MessageDigestHasher("SHA-256");
+            case CRC32C -> new Crc32cHasher();
+        };
+    }
+
+    /// Incremental hash computation.
+    interface Hasher {
+        /// Updates the hash.
+        ///
+        /// @param b   the data
+        /// @param off the start offset of the data
+        /// @param len the length of the data
+        void update(byte[] b, int off, int len);
+
+        /// Completes the hash, and resets the hasher.
+        ///
+        /// @return the digest
+        byte[] digest();
+    }
+
+    private static final class MessageDigestHasher implements Hasher {
+        private final MessageDigest digest;
+
+        MessageDigestHasher(String algorithm) {
+            try {
+                this.digest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Digest " + algorithm + " not available", e);
+            }
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            digest.update(b, off, len);
+        }
+
+        @Override
+        public byte[] digest() {
+            return digest.digest();
+        }
+    }
+
+    private static final class Crc32cHasher implements Hasher {
+        private final CRC32C crc = new CRC32C();
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            crc.update(b, off, len);
+        }
+
+        @Override
+        public byte[] digest() {
+            byte[] result = ByteBuffer.allocate(Integer.BYTES).putInt((int) crc.getValue()).array();
+            crc.reset();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package dk.mada.mjtar;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/// Opens archives for bulk IO that bypasses the page cache.
+///
+/// Use for large backups and restores on hosts where the page cache holds
+/// the working set of other processes. The archive is read and written with
+/// direct IO, see [DirectInputStream] and [DirectOutputStream]. Where the
+/// file system does not support direct IO, normal IO is used with hints to
+/// drop the archive data from the page cache.
+public final class DirectArchives {
+    /// Prevents instantiation.
+    private DirectArchives() {
+        // empty
+    }
+
+    /// Opens an archive for reading.
+    ///
+    /// @param archive the archive to read
+    /// @return the tar input stream
+    /// @throws IOException if there is an IO error
+    public static TarInputStream newInputStream(Path archive) throws IOException {
+        return new TarInputStream(new DirectInputStream(archive));
+    }
+
+    /// Creates a new archive.
+    ///
+    /// @param archive the archive file to write, replaced if it exists
+    /// @return the tar output stream
+    /// @throws IOException if there is an IO error
+    public static TarOutputStream newOutputStream(Path archive) throws IOException {
+        return new TarOutputStream(new DirectOutputStream(archive));
+    }
+}
@@ -0,0 +1,155 @@
+package dk.mada.mjtar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.jspecify.annotations.Nullable;
+
+/// Input stream reading a file with direct IO, bypassing the page cache.
+///
+/// The file is read in whole block aligned buffers. Large skips move the
+/// file position in aligned steps without reading the skipped data.
+///
+/// If the file system does not support direct IO, the file is read
+/// normally, and the read data is dropped from the page cache at intervals
+/// (see [PageCacheAdvisor]) when that is supported.
+public final class DirectInputStream extends InputStream {
+    /// Default size of the IO buffer.
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private final FileChannel channel;
+    private final boolean direct;
+    private final @Nullable PageCacheAdvisor advisor;
+    private final ByteBuffer buffer;
+    private final int alignment;
+    private long advised;
+    private boolean eof;
+
+    /// Opens a file for reading with the default buffer size.
+    ///
+    /// @param file the file to read
+    /// @throws IOException if the file cannot be opened
+    public DirectInputStream(Path file) throws IOException {
+        this(file, DEFAULT_BUFFER_SIZE);
+    }
+
+    /// Opens a file for reading.
+    ///
+    /// @param file       the file to read
+    /// @param bufferSize the size of the IO buffer, rounded up to the alignment
+    /// @throws IOException if the file cannot be opened
+    public DirectInputStream(Path file, int bufferSize) throws IOException {
+        this.alignment = DirectIo.alignment(file);
+        FileChannel directChannel = DirectIo.tryOpenDirect(file, StandardOpenOption.READ);
+        if (directChannel != null) {
+            this.channel = directChannel;
+            this.direct = true;
+            this.advisor = null;
+        } else {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.direct = false;
+            this.advisor = PageCacheAdvisor.open(file);
+            if (advisor != null) {
+                advisor.advise(0, 0, PageCacheAdvisor.POSIX_FADV_SEQUENTIAL);
+            }
+        }
+        this.buffer = DirectIo.alignedBuffer(bufferSize, alignment).limit(0);
+    }
+
+    /// Returns true if the file is read with direct IO.
+    ///
+    /// @return true if using direct IO, false if the file system refused it
+    public boolean isDirect() {
+        return direct;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long skipped = Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + (int) skipped);
+
+        if (!eof && n - skipped >= alignment) {
+            long pos = channel.position();
+            long blocks = Math.min(n - skipped, Math.max(0, channel.size() - pos)) / alignment * alignment;
+            channel.position(pos + blocks);
+            skipped += blocks;
+        }
+
+        while (skipped < n && (buffer.hasRemaining() || fill())) {
+            int count = (int) Math.min(n - skipped, buffer.remaining());
+            buffer.position(buffer.position() + count);
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (channel; PageCacheAdvisor _ = advisor) {
+            if (advisor != null) {
+                advisor.advise(0, 0, PageCacheAdvisor.POSIX_FADV_DONTNEED);
+            }
+        }
+    }
+
+    /// Fills the buffer from the file.
+    ///
+    /// @return false if the end of the file was reached
+    /// @throws IOException if there is an IO error
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer);
+            // A short direct read is only possible at the end of the file
+            if (count < 0 || (direct && count % alignment != 0)) {
+                break;
+            }
+        }
+        buffer.flip();
+        eof = buffer.limit() < buffer.capacity();
+
+        if (advisor != null) {
+            long consumed = channel.position() - buffer.limit();
+            if (consumed - advised >= DirectOutputStream.ADVISE_INTERVAL) {
+                advisor.advise(advised, consumed - advised, PageCacheAdvisor.POSIX_FADV_DONTNEED);
+                advised = consumed;
+            }
+        }
+        return buffer.hasRemaining();
+    }
+}
@@ -0,0 +1,87 @@
+package dk.mada.mjtar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.jspecify.annotations.Nullable;
+
+/// Direct IO helpers.
+final class DirectIo {
+    /// Alignment used if the file system block size cannot be determined.
+    private static final int DEFAULT_ALIGNMENT = 4096;
+    /// The JDK's direct IO open option, looked up by name as it is not part of the standard API.
+    private static final @Nullable OpenOption DIRECT = lookupDirectOption();
+
+    /// Prevents instantiation.
+    private DirectIo() {
+        // empty
+    }
+
+    /// Finds the alignment needed for direct IO on a file.
+    ///
+    /// This is the block size of the file system holding the file
+    /// (or the file's directory, if the file does not exist yet).
+    ///
+    /// @param file the file
+    /// @return the alignment in bytes
+    static int alignment(Path file) {
+        Path existing = file.toAbsolutePath();
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        try {
+            long blockSize = existing == null ? DEFAULT_ALIGNMENT : Files.getFileStore(existing).getBlockSize();
+            return (int) Math.max(blockSize, TarConstants.DATA_BLOCK);
+        } catch (IOException | UnsupportedOperationException e) {
+            return DEFAULT_ALIGNMENT;
+        }
+    }
+
+    /// Opens a file channel with direct IO.
+    ///
+    /// @param file    the file to open
+    /// @param options the open options, the direct option is added
+    /// @return the channel, or null if the platform or file system does not support direct IO
+    static @Nullable FileChannel tryOpenDirect(Path file, OpenOption... options) {
+        OpenOption direct = DIRECT;
+        if (direct == null) {
+            return null;
+        }
+        OpenOption[] directOptions = Arrays.copyOf(options, options.length + 1);
+        directOptions[options.length] = direct;
+        try {
+            return FileChannel.open(file, directOptions);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Fall back to normal IO, which reports any other problem with the file
+            return null;
+        }
+    }
+
+    /// Allocates a direct buffer with aligned address and capacity.
+    ///
+    /// @param size      the minimum buffer size
+    /// @param alignment the alignment
+    /// @return the aligned buffer
+    static ByteBuffer alignedBuffer(int size, int alignment) {
+        int alignedSize = Math.max(alignment, (size + alignment - 1) / alignment * alignment);
+        return ByteBuffer.allocateDirect(alignedSize + alignment).alignedSlice(alignment).limit(alignedSize).slice();
+    }
+
+    private static @Nullable OpenOption lookupDirectOption() {
+        try {
+            Class<?> options = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            for (Object option : options.getEnumConstants()) {
+                if (option instanceof OpenOption oo && "DIRECT".equals(oo.toString())) {
+                    return oo;
+                }
+            }
+            return null;
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package dk.mada.mjtar;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.jspecify.annotations.Nullable;
+
+/// Output stream writing a file with direct IO, bypassing the page cache.
+///
+/// Data is collected in a block aligned direct buffer, and written in whole
+/// aligned buffers. The last buffer is padded to the alignment and the file
+/// truncated to the written size when the stream is closed.
+///
+/// If the file system does not support direct IO, the file is written
+/// normally, and the written data is dropped from the page cache at
+/// intervals (see [PageCacheAdvisor]) when that is supported.
+public final class DirectOutputStream extends OutputStream {
+    /// Default size of the IO buffer.
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    /// Number of bytes written between page cache hints, when not using direct IO.
+    static final long ADVISE_INTERVAL = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final boolean direct;
+    private final @Nullable PageCacheAdvisor advisor;
+    private final ByteBuffer buffer;
+    private final int alignment;
+    private long written;
+    private long advised;
+    private boolean closed;
+
+    /// Creates a new file for writing with the default buffer size.
+    ///
+    /// @param file the file to write, replaced if it exists
+    /// @throws IOException if the file cannot be opened
+    public DirectOutputStream(Path file) throws IOException {
+        this(file, DEFAULT_BUFFER_SIZE);
+    }
+
+    /// Creates a new file for writing.
+    ///
+    /// @param file       the file to write, replaced if it exists
+    /// @param bufferSize the size of the IO buffer, rounded up to the alignment
+    /// @throws IOException if the file cannot be opened
+    public DirectOutputStream(Path file, int bufferSize) throws IOException {
+        this.alignment = DirectIo.alignment(file);
+        FileChannel directChannel = DirectIo.tryOpenDirect(file,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        if (directChannel != null) {
+            this.channel = directChannel;
+            this.direct = true;
+            this.advisor = null;
+        } else {
+            this.channel = FileChannel.open(file,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.direct = false;
+            this.advisor = PageCacheAdvisor.open(file);
+        }
+        this.buffer = DirectIo.alignedBuffer(bufferSize, alignment);
+    }
+
+    /// Returns true if the file is written with direct IO.
+    ///
+    /// @return true if using direct IO, false if the file system refused it
+    public boolean isDirect() {
+        return direct;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        buffer.put((byte) b);
+        if (!buffer.hasRemaining()) {
+            writeBuffer();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        int pos = off;
+        int left = len;
+        while (left > 0) {
+            int count = Math.min(left, buffer.remaining());
+            buffer.put(b, pos, count);
+            pos += count;
+            left -= count;
+            if (!buffer.hasRemaining()) {
+                writeBuffer();
+            }
+        }
+    }
+
+    /// Writes the buffered data and closes the file.
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try (channel; PageCacheAdvisor _ = advisor) {
+            int tail = buffer.position();
+            if (direct && tail % alignment != 0) {
+                int padding = alignment - tail % alignment;
+                buffer.put(new byte[padding]);
+                writeBuffer();
+                channel.truncate(written - padding);
+            } else {
+                writeBuffer();
+            }
+            if (advisor != null) {
+                channel.force(false);
+                advisor.advise(0, 0, PageCacheAdvisor.POSIX_FADV_DONTNEED);
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        buffer.clear();
+
+        if (advisor != null && written - advised >= ADVISE_INTERVAL) {
+            // Pages can only be dropped once written back
+            channel.force(false);
+            advisor.advise(advised, written - advised, PageCacheAdvisor.POSIX_FADV_DONTNEED);
+            advised = written;
+        }
+    }
+}
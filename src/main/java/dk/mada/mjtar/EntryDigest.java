@@ -0,0 +1,191 @@
+package dk.mada.mjtar;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.jspecify.annotations.Nullable;
+
+/// Computes the digest of entry data as it passes through an archive stream.
+///
+/// For slow algorithms, large entries are hashed on a helper thread. The
+/// data is copied into a small pool of chunk buffers which the helper thread
+/// hashes while the stream continues, so hashing does not add to the IO time
+/// (as long as there is a core to spare).
+final class EntryDigest implements Closeable {
+    /// Entries at least this large are hashed on the helper thread.
+    static final long ASYNC_THRESHOLD = 1024 * 1024;
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int CHUNKS = 4;
+
+    private final DigestAlgorithm algorithm;
+    private final DigestAlgorithm.Hasher hasher;
+    private final boolean useHelper;
+    private final byte[] single = new byte[1];
+    private @Nullable ExecutorService helper;
+    private @Nullable BlockingQueue<byte[]> freeChunks;
+    private byte @Nullable [] chunk;
+    private int chunkFill;
+    private boolean async;
+    /// True while an entry is being digested.
+    private boolean active;
+
+    /// Creates a new digest.
+    ///
+    /// @param algorithm the digest algorithm
+    EntryDigest(DigestAlgorithm algorithm) {
+        this(algorithm, true);
+    }
+
+    /// Creates a new digest.
+    ///
+    /// @param algorithm the digest algorithm
+    /// @param useHelper false to always hash on the calling thread
+    EntryDigest(DigestAlgorithm algorithm, boolean useHelper) {
+        this.algorithm = algorithm;
+        this.hasher = algorithm.newHasher();
+        this.useHelper = useHelper;
+    }
+
+    /// Returns the digest algorithm.
+    ///
+    /// @return the algorithm
+    DigestAlgorithm algorithm() {
+        return algorithm;
+    }
+
+    /// Starts the digest of an entry.
+    ///
+    /// @param size the size of the entry data
+    /// @throws InterruptedIOException if interrupted while waiting for the helper thread
+    void start(long size) throws InterruptedIOException {
+        if (active) {
+            // Drop the unfinished digest of the previous entry
+            finish();
+        }
+        active = true;
+        async = useHelper && algorithm.isSlow() && size >= ASYNC_THRESHOLD;
+        chunkFill = 0;
+        if (async && helper == null) {
+            helper = Executors.newSingleThreadExecutor(Thread.ofPlatform().daemon().name("mjtar-digest").factory());
+            BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(CHUNKS);
+            for (int i = 0; i < CHUNKS; i++) {
+                free.add(new byte[CHUNK_SIZE]);
+            }
+            freeChunks = free;
+        }
+    }
+
+    /// Updates the digest with a byte.
+    ///
+    /// @param b the byte
+    /// @throws InterruptedIOException if interrupted while waiting for the helper thread
+    void update(int b) throws InterruptedIOException {
+        single[0] = (byte) b;
+        update(single, 0, 1);
+    }
+
+    /// Updates the digest.
+    ///
+    /// @param b   the data
+    /// @param off the start offset of the data
+    /// @param len the length of the data
+    /// @throws InterruptedIOException if interrupted while waiting for the helper thread
+    void update(byte[] b, int off, int len) throws InterruptedIOException {
+        if (!async) {
+            hasher.update(b, off, len);
+            return;
+        }
+        int pos = off;
+        int left = len;
+        while (left > 0) {
+            byte[] current = chunk;
+            if (current == null) {
+                current = takeChunk();
+                chunk = current;
+                chunkFill = 0;
+            }
+            int count = Math.min(left, CHUNK_SIZE - chunkFill);
+            System.arraycopy(b, pos, current, chunkFill, count);
+            chunkFill += count;
+            pos += count;
+            left -= count;
+            if (chunkFill == CHUNK_SIZE) {
+                submitChunk();
+            }
+        }
+    }
+
+    /// Completes the digest of the entry.
+    ///
+    /// @return the digest
+    /// @throws InterruptedIOException if interrupted while waiting for the helper thread
+    byte[] finish() throws InterruptedIOException {
+        active = false;
+        if (!async) {
+            return hasher.digest();
+        }
+        submitChunk();
+        Future<byte[]> result = executor().submit(hasher::digest);
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for digest");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Digest failed", e.getCause());
+        }
+    }
+
+    /// Stops the helper thread.
+    @Override
+    public void close() {
+        if (helper != null) {
+            helper.shutdownNow();
+        }
+    }
+
+    private void submitChunk() {
+        byte[] current = chunk;
+        if (current == null) {
+            return;
+        }
+        int length = chunkFill;
+        BlockingQueue<byte[]> free = freeChunks();
+        chunk = null;
+        chunkFill = 0;
+        executor().execute(() -> {
+            hasher.update(current, 0, length);
+            free.add(current);
+        });
+    }
+
+    private byte[] takeChunk() throws InterruptedIOException {
+        try {
+            return freeChunks().take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for digest");
+        }
+    }
+
+    private ExecutorService executor() {
+        ExecutorService executor = helper;
+        if (executor == null) {
+            throw new IllegalStateException("No helper thread");
+        }
+        return executor;
+    }
+
+    private BlockingQueue<byte[]> freeChunks() {
+        BlockingQueue<byte[]> free = freeChunks;
+        if (free == null) {
+            throw new IllegalStateException("No helper thread");
+        }
+        return free;
+    }
+}
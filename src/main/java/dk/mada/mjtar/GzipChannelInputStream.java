@@ -0,0 +1,273 @@
+package dk.mada.mjtar;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+import org.jspecify.annotations.Nullable;
+
+/// Gzip decompressing input stream reading from a channel.
+///
+/// Compressed data is read from the channel into a direct buffer and inflated
+/// into another direct buffer, so no heap copies are made before the data is
+/// handed to the reader. Concatenated gzip members are supported.
+public final class GzipChannelInputStream extends InputStream {
+    /// First gzip magic byte.
+    static final int GZIP_MAGIC_1 = 0x1f;
+    /// Second gzip magic byte.
+    static final int GZIP_MAGIC_2 = 0x8b;
+    private static final int GZIP_METHOD_DEFLATE = 8;
+    private static final int FLAG_HCRC = 2;
+    private static final int FLAG_EXTRA = 4;
+    private static final int FLAG_NAME = 8;
+    private static final int FLAG_COMMENT = 16;
+    /// Size of fixed header fields following the magic, method and flags.
+    private static final int HEADER_TAIL_SIZE = 6;
+    private static final int TRAILER_SIZE = 8;
+    private static final long UINT_MASK = 0xffff_ffffL;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer input;
+    private final ByteBuffer output;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private boolean eof;
+    private boolean closed;
+
+    /// Creates a new stream reading gzip data from the channel.
+    ///
+    /// @param channel the channel to read compressed data from
+    /// @param options the buffer options
+    /// @throws IOException if the gzip header cannot be read
+    public GzipChannelInputStream(ReadableByteChannel channel, CompressionOptions options) throws IOException {
+        this(channel, ByteBuffer.allocateDirect(options.bufferSize()).flip(), options);
+    }
+
+    /// Creates a new stream with data already read from the channel.
+    ///
+    /// @param channel  the channel to read compressed data from
+    /// @param prefetch direct buffer in read mode containing the first bytes from the channel
+    /// @param options  the buffer options
+    /// @throws IOException if the gzip header cannot be read
+    GzipChannelInputStream(ReadableByteChannel channel, ByteBuffer prefetch, CompressionOptions options) throws IOException {
+        this.channel = channel;
+        this.input = prefetch.order(ByteOrder.LITTLE_ENDIAN);
+        this.output = ByteBuffer.allocateDirect(options.bufferSize()).flip();
+        try {
+            readHeader();
+        } catch (IOException e) {
+            inflater.end();
+            throw e;
+        }
+    }
+
+    /// Checks if a buffer starts with the gzip magic bytes.
+    ///
+    /// @param buf the buffer to check, in read mode
+    /// @return true if the buffer contents look like gzip data
+    static boolean hasGzipMagic(ByteBuffer buf) {
+        return buf.remaining() >= 2
+                && (buf.get(buf.position()) & 0xff) == GZIP_MAGIC_1
+                && (buf.get(buf.position() + 1) & 0xff) == GZIP_MAGIC_2;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillOutput()) {
+            return -1;
+        }
+        return 0xff & output.get();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fillOutput()) {
+            return -1;
+        }
+        int count = Math.min(len, output.remaining());
+        output.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return output.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            inflater.end();
+            channel.close();
+        }
+    }
+
+    /// Makes sure there is inflated data in the output buffer.
+    ///
+    /// @return true if data is available, false on end of stream
+    /// @throws IOException if the compressed data cannot be read or is invalid
+    private boolean fillOutput() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (output.hasRemaining()) {
+            return true;
+        }
+        output.clear();
+        TarEvents.@Nullable CompressionBlock event = null;
+        if (TarEvents.COMPRESSION_BLOCK.isEnabled()) {
+            event = new TarEvents.CompressionBlock();
+            event.begin();
+            event.operation = "inflate";
+        }
+        try {
+            while (!eof && output.position() == 0) {
+                if (inflater.finished()) {
+                    readTrailer();
+                    if (!nextMember()) {
+                        eof = true;
+                    }
+                    continue;
+                }
+                if (inflater.needsInput()) {
+                    if (!ensureInput(1)) {
+                        throw new EOFException("Unexpected end of gzip data");
+                    }
+                    inflater.setInput(input);
+                }
+                int start = output.position();
+                long readBefore = event == null ? 0 : inflater.getBytesRead();
+                int count = inflater.inflate(output);
+                if (event != null) {
+                    event.compressedSize += inflater.getBytesRead() - readBefore;
+                }
+                if (count > 0) {
+                    crc.update(output.slice(start, count));
+                }
+                if (inflater.needsDictionary()) {
+                    throw new ZipException("Gzip data needs a preset dictionary");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid gzip data: " + e.getMessage());
+        } finally {
+            output.flip();
+        }
+        if (event != null && output.hasRemaining()) {
+            event.uncompressedSize = output.remaining();
+            event.commit();
+        }
+        return output.hasRemaining();
+    }
+
+    /// Prepares for reading the next gzip member, if there is one.
+    ///
+    /// Trailing data that is not a gzip member is ignored.
+    ///
+    /// @return true if another member follows
+    /// @throws IOException if the member header is invalid
+    private boolean nextMember() throws IOException {
+        if (!ensureInput(2) || !hasGzipMagic(input)) {
+            return false;
+        }
+        inflater.reset();
+        crc.reset();
+        readHeader();
+        return true;
+    }
+
+    private void readHeader() throws IOException {
+        if (!ensureInput(4)) {
+            throw new EOFException("Truncated gzip header");
+        }
+        if (!hasGzipMagic(input)) {
+            throw new ZipException("Not in gzip format");
+        }
+        input.position(input.position() + 2);
+        if (input.get() != GZIP_METHOD_DEFLATE) {
+            throw new ZipException("Unsupported gzip compression method");
+        }
+        int flags = input.get() & 0xff;
+        skipBytes(HEADER_TAIL_SIZE);
+        if ((flags & FLAG_EXTRA) != 0) {
+            if (!ensureInput(2)) {
+                throw new EOFException("Truncated gzip header");
+            }
+            skipBytes(input.getShort() & 0xffff);
+        }
+        if ((flags & FLAG_NAME) != 0) {
+            skipZeroTerminated();
+        }
+        if ((flags & FLAG_COMMENT) != 0) {
+            skipZeroTerminated();
+        }
+        if ((flags & FLAG_HCRC) != 0) {
+            skipBytes(2);
+        }
+    }
+
+    private void readTrailer() throws IOException {
+        if (!ensureInput(TRAILER_SIZE)) {
+            throw new EOFException("Truncated gzip trailer");
+        }
+        long expectedCrc = input.getInt() & UINT_MASK;
+        long expectedSize = input.getInt() & UINT_MASK;
+        if (expectedCrc != crc.getValue()) {
+            throw new ZipException("Corrupt gzip data, CRC mismatch");
+        }
+        if (expectedSize != (inflater.getBytesWritten() & UINT_MASK)) {
+            throw new ZipException("Corrupt gzip data, size mismatch");
+        }
+    }
+
+    private void skipBytes(int count) throws IOException {
+        int left = count;
+        while (left > 0) {
+            if (!ensureInput(1)) {
+                throw new EOFException("Truncated gzip header");
+            }
+            int skip = Math.min(left, input.remaining());
+            input.position(input.position() + skip);
+            left -= skip;
+        }
+    }
+
+    private void skipZeroTerminated() throws IOException {
+        do {
+            if (!ensureInput(1)) {
+                throw new EOFException("Truncated gzip header");
+            }
+        } while (input.get() != 0);
+    }
+
+    /// Makes sure the input buffer holds at least the given number of bytes.
+    ///
+    /// @param count the number of bytes needed
+    /// @return true if the bytes are available, false if the channel ended first
+    /// @throws IOException if reading the channel fails
+    private boolean ensureInput(int count) throws IOException {
+        while (input.remaining() < count) {
+            input.compact();
+            int res;
+            try {
+                res = channel.read(input);
+            } finally {
+                input.flip();
+            }
+            if (res < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,145 @@
+package dk.mada.mjtar;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import org.jspecify.annotations.Nullable;
+
+/// Gzip compressing output stream writing to a channel.
+///
+/// Written data is collected in a direct buffer and deflated into another
+/// direct buffer which is written to the channel, so compressed data is
+/// never copied onto the heap.
+public final class GzipChannelOutputStream extends OutputStream {
+    private static final byte GZIP_METHOD_DEFLATE = 8;
+    /// Operating system 'unknown' in gzip header.
+    private static final byte GZIP_OS_UNKNOWN = (byte) 255;
+    private static final int HEADER_SIZE = 10;
+    private static final long UINT_MASK = 0xffff_ffffL;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer input;
+    private final ByteBuffer output;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private boolean closed;
+
+    /// Creates a new stream writing gzip data to the channel.
+    ///
+    /// @param channel the channel to write compressed data to
+    /// @param options the buffer and compression options
+    public GzipChannelOutputStream(WritableByteChannel channel, CompressionOptions options) {
+        this.channel = channel;
+        this.input = ByteBuffer.allocateDirect(options.bufferSize());
+        this.output = ByteBuffer.allocateDirect(options.bufferSize()).order(ByteOrder.LITTLE_ENDIAN);
+        this.deflater = new Deflater(options.level(), true);
+        deflater.setStrategy(options.strategy());
+
+        output.put((byte) GzipChannelInputStream.GZIP_MAGIC_1)
+                .put((byte) GzipChannelInputStream.GZIP_MAGIC_2)
+                .put(GZIP_METHOD_DEFLATE)
+                .put(new byte[HEADER_SIZE - 4])
+                .put(GZIP_OS_UNKNOWN);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        input.put((byte) b);
+        if (!input.hasRemaining()) {
+            deflateInput();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        int pos = off;
+        int left = len;
+        while (left > 0) {
+            int count = Math.min(left, input.remaining());
+            input.put(b, pos, count);
+            pos += count;
+            left -= count;
+            if (!input.hasRemaining()) {
+                deflateInput();
+            }
+        }
+    }
+
+    /// Finishes the compressed data, writes the gzip trailer and closes the channel.
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try (channel) {
+            deflateInput();
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflater.deflate(output);
+                if (!output.hasRemaining()) {
+                    drainOutput();
+                }
+            }
+            if (output.remaining() < Long.BYTES) {
+                drainOutput();
+            }
+            output.putInt((int) crc.getValue())
+                    .putInt((int) (deflater.getBytesRead() & UINT_MASK));
+            drainOutput();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /// Deflates all collected input.
+    ///
+    /// @throws IOException if writing to the channel fails
+    private void deflateInput() throws IOException {
+        input.flip();
+        if (input.hasRemaining()) {
+            TarEvents.@Nullable CompressionBlock event = null;
+            long compressedBefore = 0;
+            if (TarEvents.COMPRESSION_BLOCK.isEnabled()) {
+                event = new TarEvents.CompressionBlock();
+                event.begin();
+                event.operation = "deflate";
+                event.uncompressedSize = input.remaining();
+                compressedBefore = deflater.getBytesWritten();
+            }
+            crc.update(input.duplicate());
+            deflater.setInput(input);
+            while (!deflater.needsInput()) {
+                deflater.deflate(output);
+                if (!output.hasRemaining()) {
+                    drainOutput();
+                }
+            }
+            if (event != null) {
+                event.compressedSize = deflater.getBytesWritten() - compressedBefore;
+                event.commit();
+            }
+        }
+        input.clear();
+    }
+
+    private void drainOutput() throws IOException {
+        output.flip();
+        while (output.hasRemaining()) {
+            channel.write(output);
+        }
+        output.clear();
+    }
+}
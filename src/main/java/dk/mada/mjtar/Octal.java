@@ -74,27 +74,9 @@ public final class Octal {
     ///
     /// @return the integer value of the octal bytes
     public static int writeOctalBytes(long value, byte[] buf, int offset, int length) {
-        int idx = length - 1;
-
-        buf[offset + idx] = 0;
-        --idx;
-        buf[offset + idx] = (byte) ' ';
-        --idx;
-
-        if (value == 0) {
-            buf[offset + idx] = (byte) '0';
-            --idx;
-        } else {
-            for (long val = value; idx >= 0 && val > 0; --idx) {
-                buf[offset + idx] = (byte) ((byte) '0' + (byte) (val & OCTAL_MASK));
-                val = val >> OCTAL_SHIFT;
-            }
-        }
-
-        for (; idx >= 0; --idx) {
-            buf[offset + idx] = (byte) '0';
-        }
-
+        writeOctalDigits(value, buf, offset, length - 2);
+        buf[offset + length - 2] = (byte) ' ';
+        buf[offset + length - 1] = 0;
         return offset + length;
     }
 
@@ -106,9 +88,9 @@ public final class Octal {
     /// @param length  the number of header bytes to parse
     /// @return the integer value of the entry's checksum
     public static int writeCheckSumOctalBytes(long value, byte[] buf, int offset, int length) {
-        writeOctalBytes(value, buf, offset, length);
-        buf[offset + length - 1] = (byte) ' ';
+        writeOctalDigits(value, buf, offset, length - 2);
         buf[offset + length - 2] = 0;
+        buf[offset + length - 1] = (byte) ' ';
         return offset + length;
     }
 
@@ -120,9 +102,24 @@ public final class Octal {
     /// @param length  the number of header bytes to parse
     /// @return the long value of the octal bytes
     public static int writeLongOctalBytes(long value, byte[] buf, int offset, int length) {
-        byte[] temp = new byte[length + 1];
-        writeOctalBytes(value, temp, 0, length + 1);
-        System.arraycopy(temp, 0, buf, offset, length);
+        writeOctalDigits(value, buf, offset, length - 1);
+        buf[offset + length - 1] = (byte) ' ';
         return offset + length;
     }
+
+    /// Write zero-padded octal digits, right aligned, into a header buffer.
+    ///
+    /// Digits that do not fit are dropped, negative values are written as zero.
+    ///
+    /// @param value   the value to write
+    /// @param buf     the header buffer to write into
+    /// @param offset  the offset to write from
+    /// @param digits  the number of digits to write
+    private static void writeOctalDigits(long value, byte[] buf, int offset, int digits) {
+        long val = Math.max(value, 0);
+        for (int idx = offset + digits - 1; idx >= offset; --idx) {
+            buf[idx] = (byte) ('0' + (val & OCTAL_MASK));
+            val = val >>> OCTAL_SHIFT;
+        }
+    }
 }
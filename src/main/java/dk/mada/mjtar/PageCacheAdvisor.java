@@ -0,0 +1,116 @@
+package dk.mada.mjtar;
+
+import java.io.Closeable;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Path;
+import java.util.Locale;
+import org.jspecify.annotations.Nullable;
+
+/// Page cache hints for a file, using `posix_fadvise` through the foreign function API.
+///
+/// Used when direct IO is not available, to keep bulk archive IO from evicting
+/// the page cache of other processes. The hints apply to the cached pages of
+/// the file, so they are given through a separate file descriptor opened here.
+///
+/// Only supported on Linux (where the advice constants are known). Note that
+/// the JVM warns about native access unless started with `--enable-native-access`.
+final class PageCacheAdvisor implements Closeable {
+    /// Expect sequential access.
+    static final int POSIX_FADV_SEQUENTIAL = 2;
+    /// Drop cached pages (dirty pages are kept until written).
+    static final int POSIX_FADV_DONTNEED = 4;
+
+    private static final int O_RDONLY = 0;
+    private static final @Nullable NativeCalls NATIVE = NativeCalls.lookup();
+
+    private final int fd;
+
+    /// The native functions used.
+    ///
+    /// @param open    the `open` function
+    /// @param close   the `close` function
+    /// @param fadvise the `posix_fadvise` function
+    private record NativeCalls(MethodHandle open, MethodHandle close, MethodHandle fadvise) {
+        static @Nullable NativeCalls lookup() {
+            if (!System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("linux")) {
+                return null;
+            }
+            try {
+                Linker linker = Linker.nativeLinker();
+                SymbolLookup libc = linker.defaultLookup();
+                MethodHandle open = linker.downcallHandle(libc.find("open").orElseThrow(),
+                        FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT),
+                        Linker.Option.firstVariadicArg(2));
+                MethodHandle close = linker.downcallHandle(libc.find("close").orElseThrow(),
+                        FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT));
+                MethodHandle fadvise = linker.downcallHandle(libc.find("posix_fadvise").orElseThrow(),
+                        FunctionDescriptor.of(ValueLayout.JAVA_INT,
+                                ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG, ValueLayout.JAVA_INT));
+                return new NativeCalls(open, close, fadvise);
+            } catch (RuntimeException e) {
+                // Missing symbols, or native access denied
+                return null;
+            }
+        }
+    }
+
+    private PageCacheAdvisor(int fd) {
+        this.fd = fd;
+    }
+
+    /// Opens an advisor for a file.
+    ///
+    /// @param file the file to give hints for
+    /// @return the advisor, or null if hints are not supported
+    static @Nullable PageCacheAdvisor open(Path file) {
+        NativeCalls calls = NATIVE;
+        if (calls == null) {
+            return null;
+        }
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment path = arena.allocateFrom(file.toAbsolutePath().toString());
+            int fd = (int) calls.open().invokeExact(path, O_RDONLY, 0);
+            return fd < 0 ? null : new PageCacheAdvisor(fd);
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /// Gives advice for a region of the file.
+    ///
+    /// Failures are ignored, as the advice is only a hint.
+    ///
+    /// @param offset the start of the region
+    /// @param length the length of the region, 0 for the rest of the file
+    /// @param advice the advice
+    void advise(long offset, long length, int advice) {
+        NativeCalls calls = NATIVE;
+        if (calls == null) {
+            return;
+        }
+        try {
+            int _ = (int) calls.fadvise().invokeExact(fd, offset, length, advice);
+        } catch (Throwable t) {
+            // only a hint
+        }
+    }
+
+    @Override
+    public void close() {
+        NativeCalls calls = NATIVE;
+        if (calls == null) {
+            return;
+        }
+        try {
+            int _ = (int) calls.close().invokeExact(fd);
+        } catch (Throwable t) {
+            // nothing to do
+        }
+    }
+}
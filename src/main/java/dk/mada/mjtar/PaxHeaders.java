@@ -0,0 +1,168 @@
+package dk.mada.mjtar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.jspecify.annotations.Nullable;
+
+/// PAX extended header records.
+///
+/// A record is `<length> <key>=<value>\n`, where the length is the decimal
+/// length of the whole record, including the length digits themselves.
+final class PaxHeaders {
+    /// Attribute overriding the entry name.
+    static final String PATH = "path";
+    /// Attribute overriding the link name.
+    static final String LINK_PATH = "linkpath";
+    /// Attribute overriding the entry size.
+    static final String SIZE = "size";
+    /// Largest extended header accepted when reading.
+    static final int MAX_SIZE = 1024 * 1024;
+    /// Attributes overriding header fields. These are regenerated from the
+    /// entry when it is written, as the entry may have changed since it was read.
+    private static final Set<String> HEADER_FIELDS = Set.of(PATH, LINK_PATH, SIZE, "uid", "gid", "uname", "gname", "mtime");
+    /// Largest size that fits in the octal size field.
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+    /// The records of an entry without extended header attributes.
+    private static final byte[] NO_RECORDS = new byte[0];
+
+    /// Prevents instantiation.
+    private PaxHeaders() {
+        // empty
+    }
+
+    /// Encodes a record.
+    ///
+    /// @param key   the attribute key
+    /// @param value the attribute value
+    /// @return the encoded record
+    static byte[] record(String key, String value) {
+        int payload = key.getBytes(StandardCharsets.UTF_8).length + value.getBytes(StandardCharsets.UTF_8).length + 3;
+        int length = payload + Integer.toString(payload).length();
+        if (Integer.toString(length).length() != Integer.toString(payload).length()) {
+            length++;
+        }
+        return (length + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /// Encodes the extended header records of an entry.
+    ///
+    /// These are the attributes the entry was read with, and records for the
+    /// header fields that do not fit in a ustar header. A name fits if it fits
+    /// in the ustar name and prefix fields, and only has ASCII characters.
+    ///
+    /// @param entry    the entry
+    /// @param computed the digest computed while writing the entry, replacing a stored digest, or null
+    /// @return the encoded records, empty if the entry needs no extended header
+    static byte[] records(TarEntry entry, @Nullable DigestAlgorithm computed) {
+        TarHeader header = entry.getHeader();
+        boolean pathFits = fits(header.name, TarHeader.NAMELEN) && fits(header.namePrefix, TarHeader.USTAR_FILENAME_PREFIX);
+        boolean linkPathFits = fits(header.linkName, TarHeader.NAMELEN);
+        boolean sizeFits = header.size <= MAX_OCTAL_SIZE;
+        Map<String, String> attributes = entry.getPaxAttributes();
+        if (pathFits && linkPathFits && sizeFits && attributes.isEmpty()) {
+            return NO_RECORDS;
+        }
+        var records = new ByteArrayOutputStream();
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            String key = attribute.getKey();
+            if (!HEADER_FIELDS.contains(key) && (computed == null || !key.equals(computed.paxKey()))) {
+                records.writeBytes(record(key, attribute.getValue()));
+            }
+        }
+        if (!sizeFits) {
+            records.writeBytes(record(SIZE, Long.toString(header.size)));
+        }
+        if (!pathFits) {
+            records.writeBytes(record(PATH, entry.getName()));
+        }
+        if (!linkPathFits) {
+            records.writeBytes(record(LINK_PATH, header.linkName.toString()));
+        }
+        return records.toByteArray();
+    }
+
+    /// Checks if a name fits in a header field.
+    ///
+    /// @param value  the name
+    /// @param length the length of the field
+    /// @return true if the name is no longer than the field, and only has ASCII characters
+    static boolean fits(CharSequence value, int length) {
+        if (value.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /// Creates the header of an extended header entry.
+    ///
+    /// @param entry the entry the attributes apply to
+    /// @param size  the size of the records
+    /// @return the header entry
+    static TarEntry headerFor(TarEntry entry, int size) {
+        String name = entry.getName();
+        String base = name.substring(name.lastIndexOf('/', name.length() - 2) + 1);
+        String paxName = "PaxHeaders/" + base;
+        if (paxName.length() > TarHeader.NAMELEN) {
+            paxName = paxName.substring(0, TarHeader.NAMELEN);
+        }
+        TarHeader header = TarHeader.createHeader(paxName, size, entry.getHeader().modTime, false, 0644);
+        header.linkFlag = TarHeader.LF_PAX_EXTENDED;
+        return new TarEntry(header);
+    }
+
+    /// Parses records.
+    ///
+    /// @param data   the record data
+    /// @param length the length of the data
+    /// @return the attributes, in record order
+    /// @throws IOException if the records are invalid
+    static Map<String, String> parse(byte[] data, int length) throws IOException {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        int pos = 0;
+        while (pos < length) {
+            if (data[pos] == 0) {
+                // some writers pad with zeros
+                break;
+            }
+            int space = pos;
+            long recordLength = 0;
+            while (space < length && data[space] >= '0' && data[space] <= '9') {
+                recordLength = recordLength * 10 + data[space] - '0';
+                space++;
+                if (recordLength > length - pos) {
+                    throw new IOException("Invalid PAX record length at offset " + pos);
+                }
+            }
+            // The record must hold the length digits, the space and the newline
+            if (space == pos || space >= length || data[space] != ' ' || recordLength <= space - pos + 1) {
+                throw new IOException("Invalid PAX record at offset " + pos);
+            }
+            int end = pos + (int) recordLength;
+            if (data[end - 1] != '\n') {
+                throw new IOException("Invalid PAX record at offset " + pos);
+            }
+            String record = new String(data, space + 1, end - space - 2, StandardCharsets.UTF_8);
+            int equals = record.indexOf('=');
+            if (equals <= 0) {
+                throw new IOException("Invalid PAX record at offset " + pos);
+            }
+            attributes.put(record.substring(0, equals), record.substring(equals + 1));
+            pos = end;
+        }
+
+        String size = attributes.get(SIZE);
+        if (size != null && (size.isEmpty() || !size.chars().allMatch(c -> c >= '0' && c <= '9') || size.length() > 18)) {
+            throw new IOException("Invalid PAX size: " + size);
+        }
+        return attributes;
+    }
+}
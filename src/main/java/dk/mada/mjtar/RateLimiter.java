@@ -0,0 +1,215 @@
+package dk.mada.mjtar;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.jspecify.annotations.Nullable;
+
+/// Token bucket rate limiter for archive IO.
+///
+/// Limits the number of bytes and the number of IO operations per second.
+/// Attach it to archive streams with [ThrottledInputStream] and
+/// [ThrottledOutputStream]. One limiter can be shared by several streams
+/// (and threads) to limit their combined IO.
+///
+/// The limits can be changed at any time. A limit of 0 means unlimited;
+/// with no limits (and no priority mode) the cost of an IO operation is
+/// a volatile read.
+///
+/// Each bucket holds at most [#BURST] worth of tokens, so a stream that
+/// has been idle can only burst briefly. Operations larger than the bucket
+/// are allowed, but borrow tokens which the following operations must wait for.
+///
+/// In priority mode, the limiter also samples a latency probe (for example
+/// the response time of a database sharing the disk). While the latency is
+/// above a threshold, all IO is paused.
+public final class RateLimiter {
+    /// The period of tokens the buckets can hold.
+    public static final Duration BURST = Duration.ofMillis(100);
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Bucket bytes = new Bucket();
+    private final Bucket operations = new Bucket();
+    private volatile boolean limited;
+    private volatile @Nullable PriorityMode priority;
+
+    private final AtomicLong bytesAcquired = new AtomicLong();
+    private final AtomicLong operationsAcquired = new AtomicLong();
+    private final AtomicLong throttledNanos = new AtomicLong();
+    private final AtomicLong yieldedNanos = new AtomicLong();
+
+    /// Provides the current latency of a service that IO should yield to.
+    @FunctionalInterface
+    public interface LatencyProbe {
+        /// Measures the current latency.
+        ///
+        /// Called at most once per probe interval, but possibly from different threads.
+        ///
+        /// @return the current latency in nanoseconds
+        long latencyNanos();
+    }
+
+    /// Rate limiter statistics.
+    ///
+    /// Bytes and operations are only counted while a limit is set.
+    ///
+    /// @param bytes          the number of bytes acquired
+    /// @param operations     the number of operations acquired
+    /// @param throttledNanos the total time callers waited for tokens
+    /// @param yieldedNanos   the total time callers paused because of high probe latency
+    public record Stats(long bytes, long operations, long throttledNanos, long yieldedNanos) {
+    }
+
+    /// Priority mode settings and state.
+    private static final class PriorityMode {
+        private final LatencyProbe probe;
+        private final long thresholdNanos;
+        private final long intervalNanos;
+        private volatile long nextProbe;
+        private volatile boolean degraded;
+
+        PriorityMode(LatencyProbe probe, long thresholdNanos, long intervalNanos) {
+            this.probe = probe;
+            this.thresholdNanos = thresholdNanos;
+            this.intervalNanos = intervalNanos;
+            this.nextProbe = System.nanoTime();
+        }
+
+        /// Samples the probe if the interval has passed.
+        ///
+        /// @param now the current time
+        /// @return true if the probe latency is above the threshold
+        boolean isDegraded(long now) {
+            if (now - nextProbe >= 0) {
+                nextProbe = now + intervalNanos;
+                degraded = probe.latencyNanos() > thresholdNanos;
+            }
+            return degraded;
+        }
+    }
+
+    /// Creates a new rate limiter.
+    ///
+    /// @param bytesPerSecond      the byte rate limit, 0 for unlimited
+    /// @param operationsPerSecond the operation rate limit, 0 for unlimited
+    public RateLimiter(long bytesPerSecond, long operationsPerSecond) {
+        setLimits(bytesPerSecond, operationsPerSecond);
+    }
+
+    /// Changes the limits.
+    ///
+    /// Takes effect for following operations. Callers waiting for tokens
+    /// finish their wait at the old rate.
+    ///
+    /// @param bytesPerSecond      the byte rate limit, 0 for unlimited
+    /// @param operationsPerSecond the operation rate limit, 0 for unlimited
+    public void setLimits(long bytesPerSecond, long operationsPerSecond) {
+        if (bytesPerSecond < 0 || operationsPerSecond < 0) {
+            throw new IllegalArgumentException("Limits must not be negative, was " + bytesPerSecond + "/" + operationsPerSecond);
+        }
+        bytes.setRate(bytesPerSecond);
+        operations.setRate(operationsPerSecond);
+        limited = bytesPerSecond > 0 || operationsPerSecond > 0;
+    }
+
+    /// Enables priority mode.
+    ///
+    /// While the probe reports a latency above the threshold, callers are
+    /// paused, sampling the probe again each interval.
+    ///
+    /// @param probe     the latency probe
+    /// @param threshold the latency above which IO is paused
+    /// @param interval  the time between samples of the probe
+    public void setPriorityMode(LatencyProbe probe, Duration threshold, Duration interval) {
+        priority = new PriorityMode(probe, threshold.toNanos(), interval.toNanos());
+    }
+
+    /// Disables priority mode.
+    public void clearPriorityMode() {
+        priority = null;
+    }
+
+    /// Returns statistics of the limiter.
+    ///
+    /// @return the statistics
+    public Stats getStats() {
+        return new Stats(bytesAcquired.get(), operationsAcquired.get(), throttledNanos.get(), yieldedNanos.get());
+    }
+
+    /// Acquires permission for an IO operation, waiting if needed.
+    ///
+    /// @param byteCount the number of bytes in the operation
+    /// @throws InterruptedIOException if interrupted while waiting
+    public void acquire(long byteCount) throws InterruptedIOException {
+        PriorityMode mode = priority;
+        if (mode != null) {
+            yieldWhileDegraded(mode);
+        }
+        if (!limited) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        long wait = Math.max(bytes.reserve(byteCount, now), operations.reserve(1, now));
+        bytesAcquired.addAndGet(byteCount);
+        operationsAcquired.incrementAndGet();
+        if (wait > 0) {
+            sleepUntil(now + wait);
+            throttledNanos.addAndGet(wait);
+        }
+    }
+
+    private void yieldWhileDegraded(PriorityMode mode) throws InterruptedIOException {
+        long start = System.nanoTime();
+        long now = start;
+        while (mode.isDegraded(now)) {
+            sleepUntil(now + mode.intervalNanos);
+            now = System.nanoTime();
+        }
+        if (now != start) {
+            yieldedNanos.addAndGet(now - start);
+        }
+    }
+
+    private static void sleepUntil(long deadline) throws InterruptedIOException {
+        long left;
+        while ((left = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(left);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+        }
+    }
+
+    /// A token bucket.
+    private static final class Bucket {
+        private long rate;
+        private long capacity;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        synchronized void setRate(long newRate) {
+            rate = newRate;
+            capacity = Math.max(1, newRate * BURST.toNanos() / NANOS_PER_SECOND);
+            tokens = Math.min(tokens, capacity);
+        }
+
+        /// Takes tokens from the bucket, borrowing if there are not enough.
+        ///
+        /// @param count the number of tokens to take
+        /// @param now   the current time
+        /// @return the time to wait before the borrowed tokens are repaid, 0 if none were borrowed
+        synchronized long reserve(long count, long now) {
+            if (rate == 0) {
+                return 0;
+            }
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * (double) rate / NANOS_PER_SECOND);
+            lastRefill = now;
+            tokens -= count;
+            return tokens >= 0 ? 0 : (long) (-tokens * NANOS_PER_SECOND / rate);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package dk.mada.mjtar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jspecify.annotations.Nullable;
+
+/// Input stream reading ahead from a source stream on a separate virtual thread.
+///
+/// The source is read into a fixed ring of large buffers, while the consumer
+/// (typically a [TarInputStream]) processes previously filled buffers. This allows
+/// decompression or network IO to overlap with entry processing.
+///
+/// Use [#getStats()] to see where time is spent. Many consumer stalls mean that
+/// the source is the bottleneck (producer-bound), while many producer stalls mean
+/// that the consumer is the bottleneck (consumer-bound).
+public final class ReadAheadInputStream extends InputStream {
+    /// Default size of each read-ahead buffer.
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    /// Default number of read-ahead buffers.
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+    /// Marker chunk for end of source stream.
+    private static final Chunk EOF = new Chunk(new byte[0], -1, null);
+
+    private final InputStream source;
+    private final int bufferCount;
+    /// Empty buffers ready to be filled by the producer.
+    private final BlockingQueue<byte[]> free;
+    /// Filled buffers ready to be consumed.
+    private final BlockingQueue<Chunk> filled;
+    private final Thread producer;
+
+    private final AtomicLong bytesProduced = new AtomicLong();
+    private final AtomicLong producerStalls = new AtomicLong();
+    private final AtomicLong producerStallNanos = new AtomicLong();
+    private final AtomicLong consumerStalls = new AtomicLong();
+    private final AtomicLong consumerStallNanos = new AtomicLong();
+
+    /// The chunk being consumed.
+    private @Nullable Chunk current;
+    /// Read position in the current chunk.
+    private int currentPos;
+    private boolean eof;
+    private volatile boolean closed;
+
+    /// A filled buffer, or a failure from the source.
+    ///
+    /// @param data    the buffer
+    /// @param length  the number of valid bytes in the buffer, or -1 for end of stream
+    /// @param failure the exception thrown while reading the source, or null
+    private record Chunk(byte[] data, int length, @Nullable Throwable failure) {
+    }
+
+    /// Buffer occupancy and stall statistics.
+    ///
+    /// @param bufferCount        the number of buffers in the ring
+    /// @param filledBuffers      the number of filled buffers waiting to be consumed
+    /// @param bytesProduced      the number of bytes read from the source
+    /// @param producerStalls     the number of times the producer waited for a free buffer
+    /// @param producerStallNanos the total time the producer waited for a free buffer
+    /// @param consumerStalls     the number of times the consumer waited for a filled buffer
+    /// @param consumerStallNanos the total time the consumer waited for a filled buffer
+    public record Stats(int bufferCount, int filledBuffers, long bytesProduced,
+            long producerStalls, long producerStallNanos,
+            long consumerStalls, long consumerStallNanos) {
+    }
+
+    /// Creates a new read-ahead stream with default buffer configuration.
+    ///
+    /// @param source the stream to read ahead from
+    public ReadAheadInputStream(InputStream source) {
+        this(source, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+    }
+
+    /// Creates a new read-ahead stream.
+    ///
+    /// @param source      the stream to read ahead from
+    /// @param bufferSize  the size of each buffer
+    /// @param bufferCount the number of buffers
+    public ReadAheadInputStream(InputStream source, int bufferSize, int bufferCount) {
+        if (bufferSize <= 0 || bufferCount <= 0) {
+            throw new IllegalArgumentException("Buffer size and count must be positive, was " + bufferSize + "/" + bufferCount);
+        }
+        this.source = source;
+        this.bufferCount = bufferCount;
+        // Room for the end marker in addition to all buffers
+        this.filled = new ArrayBlockingQueue<>(bufferCount + 1);
+        this.free = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            free.add(new byte[bufferSize]);
+        }
+        this.producer = Thread.ofVirtual()
+                .name("mjtar-read-ahead")
+                .start(this::produce);
+    }
+
+    /// Returns the current buffer and stall statistics.
+    ///
+    /// May be called from any thread.
+    ///
+    /// @return the current statistics
+    public Stats getStats() {
+        return new Stats(bufferCount, filled.size(), bytesProduced.get(),
+                producerStalls.get(), producerStallNanos.get(),
+                consumerStalls.get(), consumerStallNanos.get());
+    }
+
+    @Override
+    public int read() throws IOException {
+        Chunk chunk = currentChunk();
+        if (chunk == null) {
+            return -1;
+        }
+        return 0xFF & chunk.data()[currentPos++];
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        Chunk chunk = currentChunk();
+        if (chunk == null) {
+            return -1;
+        }
+        int count = Math.min(len, chunk.length() - currentPos);
+        System.arraycopy(chunk.data(), currentPos, b, off, count);
+        currentPos += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        Chunk chunk = current;
+        return chunk == null ? 0 : chunk.length() - currentPos;
+    }
+
+    /// Stops the read-ahead thread and closes the source stream.
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        producer.interrupt();
+        source.close();
+    }
+
+    /// Returns the chunk to read from, waiting for the producer if necessary.
+    ///
+    /// Unchecked exceptions and errors thrown while reading the source are rethrown as they are.
+    ///
+    /// @return the chunk with unread data, or null on end of stream
+    /// @throws IOException if the source failed, or the wait was interrupted
+    private @Nullable Chunk currentChunk() throws IOException {
+        Chunk chunk = current;
+        if (chunk != null && currentPos < chunk.length()) {
+            return chunk;
+        }
+        if (eof) {
+            return null;
+        }
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (chunk != null) {
+            free.add(chunk.data());
+            current = null;
+        }
+
+        Chunk next = filled.poll();
+        if (next == null) {
+            long start = System.nanoTime();
+            try {
+                next = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for read-ahead data");
+            }
+            consumerStalls.incrementAndGet();
+            consumerStallNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        Throwable failure = next.failure();
+        if (failure != null) {
+            eof = true;
+            if (failure instanceof RuntimeException e) {
+                throw e;
+            }
+            if (failure instanceof Error e) {
+                throw e;
+            }
+            throw new IOException("Read-ahead from source failed", failure);
+        }
+        if (next.length() < 0) {
+            eof = true;
+            return null;
+        }
+        current = next;
+        currentPos = 0;
+        return next;
+    }
+
+    /// Producer loop, run on the read-ahead thread.
+    private void produce() {
+        try {
+            boolean sourceDone = false;
+            while (!sourceDone && !closed) {
+                byte[] buf = free.poll();
+                if (buf == null) {
+                    long start = System.nanoTime();
+                    buf = free.take();
+                    producerStalls.incrementAndGet();
+                    producerStallNanos.addAndGet(System.nanoTime() - start);
+                }
+
+                int length = 0;
+                while (length < buf.length) {
+                    int res = source.read(buf, length, buf.length - length);
+                    if (res < 0) {
+                        sourceDone = true;
+                        break;
+                    }
+                    length += res;
+                }
+
+                if (length > 0) {
+                    bytesProduced.addAndGet(length);
+                    filled.put(new Chunk(buf, length, null));
+                }
+            }
+            filled.put(EOF);
+        } catch (InterruptedException e) {
+            // Closed by consumer
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            // Anything else must reach the consumer, or it would wait forever
+            if (!closed) {
+                filled.offer(new Chunk(EOF.data(), -1, e));
+            }
+        }
+    }
+}
@@ -0,0 +1,616 @@
+package dk.mada.mjtar;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.jspecify.annotations.Nullable;
+
+/// Compact off-heap catalog of the entries in an archive.
+///
+/// Intended for archives with so many entries that a list of [TarEntry] or
+/// [TarIndexEntry] objects would not fit on the heap. All catalog data is kept
+/// in off-heap memory:
+///
+/// - the entry names, packed back-to-back as raw header bytes
+/// - a fixed-width record per entry with name location, header and data offsets, size, mode and modification time
+/// - the record numbers in name order, for binary search and prefix listings
+/// - an open-addressing hash table of record numbers, for exact name lookups
+///
+/// This amounts to 58-64 bytes per entry, plus the name bytes: 48 bytes of
+/// record, 4 bytes of name order and 6-12 bytes of hash table.
+///
+/// Entries are identified by their record number, which is their position in the
+/// archive. Names are stored as the bytes found in the archive headers; name
+/// arguments are mapped to bytes one char at a time, as when writing headers.
+///
+/// The catalog is immutable and can be shared between threads until it is closed.
+public final class TarCatalog implements AutoCloseable {
+    private static final long REC_NAME_OFFSET = 0;
+    private static final long REC_HEADER_OFFSET = 8;
+    private static final long REC_SIZE = 16;
+    private static final long REC_MODTIME = 24;
+    private static final long REC_NAME_LENGTH = 32;
+    private static final long REC_MODE = 36;
+    private static final long REC_DATA_OFFSET = 40;
+    /// Size of a record.
+    private static final long RECORD_BYTES = 48;
+    /// Marker for empty hash slots.
+    private static final int EMPTY_SLOT = -1;
+    /// Below this size ranges are sorted by insertion sort.
+    private static final int INSERTION_SORT_LIMIT = 16;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Arena arena;
+    private final MemorySegment names;
+    private final MemorySegment records;
+    private final MemorySegment sorted;
+    private final MemorySegment hashSlots;
+    private final long hashMask;
+    private final int count;
+    private final long endOfArchive;
+
+    private TarCatalog(Arena arena, MemorySegment names, MemorySegment records, int count, long endOfArchive) {
+        this.arena = arena;
+        this.names = names;
+        this.records = records;
+        this.count = count;
+        this.endOfArchive = endOfArchive;
+
+        this.sorted = arena.allocate(Integer.BYTES * (long) count, Integer.BYTES);
+        for (int i = 0; i < count; i++) {
+            sorted.setAtIndex(ValueLayout.JAVA_INT, i, i);
+        }
+        introSort(0, count - 1, 2 * (64 - Long.numberOfLeadingZeros(count)));
+
+        long capacity = Long.highestOneBit(Math.max(4, count + (count >> 1)) - 1L) << 1;
+        this.hashMask = capacity - 1;
+        this.hashSlots = arena.allocate(Integer.BYTES * capacity, Integer.BYTES);
+        hashSlots.fill((byte) EMPTY_SLOT);
+        for (int i = 0; i < count; i++) {
+            insertHash(i);
+        }
+    }
+
+    /// Builds a catalog by scanning the headers of an archive file.
+    ///
+    /// @param archive the archive file
+    /// @return the catalog
+    /// @throws IOException if there is an IO error
+    public static TarCatalog build(Path archive) throws IOException {
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            return build(channel);
+        }
+    }
+
+    /// Builds a catalog by scanning the headers of an archive.
+    ///
+    /// No per-entry objects are retained on the heap while scanning.
+    ///
+    /// @param channel the archive channel, its position is not changed
+    /// @return the catalog
+    /// @throws IOException if there is an IO error
+    public static TarCatalog build(FileChannel channel) throws IOException {
+        TarEvents.@Nullable IndexBuild event = null;
+        if (TarEvents.INDEX_BUILD.isEnabled()) {
+            event = new TarEvents.IndexBuild();
+            event.begin();
+        }
+        try (var builder = new Builder()) {
+            long end = TarIndex.scanHeaders(channel, builder::addHeader);
+            TarCatalog catalog = builder.build(end);
+            if (event != null) {
+                event.entries = catalog.size();
+                event.archiveSize = end;
+                event.commit();
+            }
+            return catalog;
+        }
+    }
+
+    /// Returns the number of entries.
+    ///
+    /// @return the number of entries
+    public int size() {
+        return count;
+    }
+
+    /// Returns the offset of the end-of-archive marker.
+    ///
+    /// @return the end of archive offset
+    public long endOfArchive() {
+        return endOfArchive;
+    }
+
+    /// Finds an entry by name.
+    ///
+    /// If the name occurs more than once, the last entry is returned.
+    ///
+    /// @param name the entry name
+    /// @return the record number of the entry, or -1 if not found
+    public int find(String name) {
+        byte[] key = toBytes(name);
+        long slot = hash(MemorySegment.ofArray(key), 0, key.length) & hashMask;
+        while (true) {
+            int rec = hashSlots.getAtIndex(ValueLayout.JAVA_INT, slot);
+            if (rec == EMPTY_SLOT) {
+                return -1;
+            }
+            if (nameEquals(rec, key)) {
+                return rec;
+            }
+            slot = (slot + 1) & hashMask;
+        }
+    }
+
+    /// Lists the entries with names starting with a prefix.
+    ///
+    /// Using a prefix ending in '/' lists a directory subtree. The cost is a binary
+    /// search plus the number of matching entries.
+    ///
+    /// @param prefix the name prefix, may be empty to list all entries
+    /// @return the record numbers of the matching entries, in name order
+    public IntStream withPrefix(String prefix) {
+        byte[] key = toBytes(prefix);
+        int from = searchPrefix(key, false);
+        int to = searchPrefix(key, true);
+        return IntStream.range(from, to)
+                .map(rank -> sorted.getAtIndex(ValueLayout.JAVA_INT, rank));
+    }
+
+    /// Returns the record number of the entry at a position in name order.
+    ///
+    /// @param rank the position in name order
+    /// @return the record number
+    public int recordInNameOrder(int rank) {
+        return sorted.getAtIndex(ValueLayout.JAVA_INT, checkIndex(rank));
+    }
+
+    /// Returns the name of an entry.
+    ///
+    /// @param record the record number
+    /// @return the entry name
+    public String name(int record) {
+        long base = recordBase(record);
+        long offset = records.get(ValueLayout.JAVA_LONG, base + REC_NAME_OFFSET);
+        int length = records.get(ValueLayout.JAVA_INT, base + REC_NAME_LENGTH);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (0xff & names.get(ValueLayout.JAVA_BYTE, offset + i));
+        }
+        return new String(chars);
+    }
+
+    /// Returns the header offset of an entry.
+    ///
+    /// @param record the record number
+    /// @return the offset of the entry's first header block, its extended header if it has one
+    public long headerOffset(int record) {
+        return records.get(ValueLayout.JAVA_LONG, recordBase(record) + REC_HEADER_OFFSET);
+    }
+
+    /// Returns the data offset of an entry.
+    ///
+    /// @param record the record number
+    /// @return the offset of the entry's data
+    public long dataOffset(int record) {
+        return records.get(ValueLayout.JAVA_LONG, recordBase(record) + REC_DATA_OFFSET);
+    }
+
+    /// Returns the data size of an entry.
+    ///
+    /// @param record the record number
+    /// @return the size of the entry's data
+    public long size(int record) {
+        return records.get(ValueLayout.JAVA_LONG, recordBase(record) + REC_SIZE);
+    }
+
+    /// Returns the modification time of an entry.
+    ///
+    /// @param record the record number
+    /// @return the modification time in seconds since the epoch
+    public long modTime(int record) {
+        return records.get(ValueLayout.JAVA_LONG, recordBase(record) + REC_MODTIME);
+    }
+
+    /// Returns the mode (permissions) of an entry.
+    ///
+    /// @param record the record number
+    /// @return the entry mode
+    public int mode(int record) {
+        return records.get(ValueLayout.JAVA_INT, recordBase(record) + REC_MODE);
+    }
+
+    /// Returns the location of an entry as an index entry.
+    ///
+    /// @param record the record number
+    /// @return the index entry
+    public TarIndexEntry entry(int record) {
+        return new TarIndexEntry(name(record), headerOffset(record), dataOffset(record), size(record));
+    }
+
+    /// Returns the off-heap memory used by the catalog.
+    ///
+    /// @return the number of bytes used
+    public long memoryUsage() {
+        return names.byteSize() + records.byteSize() + sorted.byteSize() + hashSlots.byteSize();
+    }
+
+    /// Frees the off-heap memory. The catalog cannot be used afterwards.
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for " + count + " entries");
+        }
+        return index;
+    }
+
+    private long recordBase(int record) {
+        return checkIndex(record) * RECORD_BYTES;
+    }
+
+    private long nameOffset(int record) {
+        return records.get(ValueLayout.JAVA_LONG, record * RECORD_BYTES + REC_NAME_OFFSET);
+    }
+
+    private int nameLength(int record) {
+        return records.get(ValueLayout.JAVA_INT, record * RECORD_BYTES + REC_NAME_LENGTH);
+    }
+
+    private void insertHash(int record) {
+        long offset = nameOffset(record);
+        int length = nameLength(record);
+        long slot = hash(names, offset, length) & hashMask;
+        while (true) {
+            int existing = hashSlots.getAtIndex(ValueLayout.JAVA_INT, slot);
+            if (existing == EMPTY_SLOT || compareNames(existing, record) == 0) {
+                // Later entries replace earlier entries with the same name
+                hashSlots.setAtIndex(ValueLayout.JAVA_INT, slot, record);
+                return;
+            }
+            slot = (slot + 1) & hashMask;
+        }
+    }
+
+    private boolean nameEquals(int record, byte[] key) {
+        long offset = nameOffset(record);
+        return nameLength(record) == key.length
+                && MemorySegment.mismatch(names, offset, offset + key.length, MemorySegment.ofArray(key), 0, key.length) == -1;
+    }
+
+    /// Finds the first position in name order where the name starts with, or sorts after, a prefix.
+    ///
+    /// @param prefix the prefix
+    /// @param after  if true, find the first position sorting after all names with the prefix
+    /// @return the position in name order
+    private int searchPrefix(byte[] prefix, boolean after) {
+        var keySegment = MemorySegment.ofArray(prefix);
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int rec = sorted.getAtIndex(ValueLayout.JAVA_INT, mid);
+            int cmp = comparePrefix(rec, keySegment, prefix.length);
+            if (cmp < 0 || (after && cmp == 0)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /// Compares the start of a name with a prefix.
+    ///
+    /// @return 0 if the name starts with the prefix, otherwise the name order relative to the prefix
+    private int comparePrefix(int record, MemorySegment prefix, int prefixLength) {
+        long offset = nameOffset(record);
+        int length = nameLength(record);
+        int common = Math.min(length, prefixLength);
+        long mismatch = MemorySegment.mismatch(names, offset, offset + common, prefix, 0, common);
+        if (mismatch != -1) {
+            return Integer.compare(0xff & names.get(ValueLayout.JAVA_BYTE, offset + mismatch),
+                    0xff & prefix.get(ValueLayout.JAVA_BYTE, mismatch));
+        }
+        return length < prefixLength ? -1 : 0;
+    }
+
+    /// Compares the names of two records as unsigned bytes.
+    private int compareNames(int a, int b) {
+        long aOffset = nameOffset(a);
+        long bOffset = nameOffset(b);
+        int aLength = nameLength(a);
+        int bLength = nameLength(b);
+        long mismatch = MemorySegment.mismatch(names, aOffset, aOffset + aLength, names, bOffset, bOffset + bLength);
+        if (mismatch == -1) {
+            return 0;
+        }
+        if (mismatch == aLength || mismatch == bLength) {
+            return Integer.compare(aLength, bLength);
+        }
+        return Integer.compare(0xff & names.get(ValueLayout.JAVA_BYTE, aOffset + mismatch),
+                0xff & names.get(ValueLayout.JAVA_BYTE, bOffset + mismatch));
+    }
+
+    private int sortedAt(long i) {
+        return sorted.getAtIndex(ValueLayout.JAVA_INT, i);
+    }
+
+    private void swap(long i, long j) {
+        int t = sortedAt(i);
+        sorted.setAtIndex(ValueLayout.JAVA_INT, i, sortedAt(j));
+        sorted.setAtIndex(ValueLayout.JAVA_INT, j, t);
+    }
+
+    /// Sorts the name order segment in place, without heap allocations.
+    ///
+    /// Quicksort with median-of-three pivots, falling back to heapsort if the
+    /// recursion gets too deep.
+    private void introSort(int lo, int hi, int depth) {
+        int low = lo;
+        int high = hi;
+        int depthLeft = depth;
+        while (high - low > INSERTION_SORT_LIMIT) {
+            if (depthLeft-- == 0) {
+                heapSort(low, high);
+                return;
+            }
+            int mid = (low + high) >>> 1;
+            if (compareNames(sortedAt(mid), sortedAt(low)) < 0) {
+                swap(mid, low);
+            }
+            if (compareNames(sortedAt(high), sortedAt(low)) < 0) {
+                swap(high, low);
+            }
+            if (compareNames(sortedAt(high), sortedAt(mid)) < 0) {
+                swap(high, mid);
+            }
+            int pivot = sortedAt(mid);
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (compareNames(sortedAt(i), pivot) < 0) {
+                    i++;
+                }
+                while (compareNames(sortedAt(j), pivot) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            // Recurse into the smaller part, loop on the larger
+            if (j - low < high - i) {
+                introSort(low, j, depthLeft);
+                low = i;
+            } else {
+                introSort(i, high, depthLeft);
+                high = j;
+            }
+        }
+        insertionSort(low, high);
+    }
+
+    private void insertionSort(int lo, int hi) {
+        for (int i = lo + 1; i <= hi; i++) {
+            int value = sortedAt(i);
+            int j = i - 1;
+            while (j >= lo && compareNames(sortedAt(j), value) > 0) {
+                sorted.setAtIndex(ValueLayout.JAVA_INT, j + 1, sortedAt(j));
+                j--;
+            }
+            sorted.setAtIndex(ValueLayout.JAVA_INT, j + 1, value);
+        }
+    }
+
+    private void heapSort(int lo, int hi) {
+        int n = hi - lo + 1;
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(lo, i, n);
+        }
+        for (int end = n - 1; end > 0; end--) {
+            swap(lo, lo + end);
+            siftDown(lo, 0, end);
+        }
+    }
+
+    private void siftDown(int lo, int start, int n) {
+        int root = start;
+        while (2 * root + 1 < n) {
+            int child = 2 * root + 1;
+            if (child + 1 < n && compareNames(sortedAt(lo + child), sortedAt(lo + child + 1)) < 0) {
+                child++;
+            }
+            if (compareNames(sortedAt(lo + root), sortedAt(lo + child)) >= 0) {
+                return;
+            }
+            swap(lo + root, lo + child);
+            root = child;
+        }
+    }
+
+    /// FNV-1a hash of name bytes.
+    private static long hash(MemorySegment segment, long offset, int length) {
+        long h = FNV_OFFSET_BASIS;
+        for (long i = offset; i < offset + length; i++) {
+            h = (h ^ (0xff & segment.get(ValueLayout.JAVA_BYTE, i))) * FNV_PRIME;
+        }
+        return h ^ (h >>> 32);
+    }
+
+    private static byte[] toBytes(String name) {
+        byte[] bytes = new byte[name.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) name.charAt(i);
+        }
+        return bytes;
+    }
+
+    /// Collects entries for a catalog.
+    ///
+    /// The collected data is kept off-heap while building. A builder must only
+    /// be used by the thread that created it.
+    public static final class Builder implements AutoCloseable {
+        private static final long INITIAL_NAMES_SIZE = 64 * 1024;
+        private static final long INITIAL_RECORDS = 1024;
+
+        private final GrowableSegment nameBuffer = new GrowableSegment(INITIAL_NAMES_SIZE);
+        private final GrowableSegment recordBuffer = new GrowableSegment(INITIAL_RECORDS * RECORD_BYTES);
+        private int count;
+
+        /// Creates a new builder.
+        public Builder() {
+            // empty
+        }
+
+        /// Adds an entry to the catalog.
+        ///
+        /// Entries should be added in archive order.
+        ///
+        /// @param name         the entry name
+        /// @param headerOffset the offset of the entry's header block
+        /// @param size         the size of the entry's data
+        /// @param mode         the entry mode
+        /// @param modTime      the modification time in seconds since the epoch
+        /// @return this builder
+        public Builder add(String name, long headerOffset, long size, int mode, long modTime) {
+            byte[] bytes = toBytes(name);
+            long nameOffset = nameBuffer.reserve(bytes.length);
+            MemorySegment.copy(bytes, 0, nameBuffer.segment, ValueLayout.JAVA_BYTE, nameOffset, bytes.length);
+            addRecord(nameOffset, bytes.length, headerOffset, headerOffset + TarConstants.HEADER_BLOCK, size, mode, modTime);
+            return this;
+        }
+
+        /// Adds an entry from its header block, avoiding intermediate objects.
+        ///
+        /// An entry with an extended header path gets its name from that instead.
+        void addHeader(long headerOffset, long dataOffset, byte[] header, long size, Map<String, String> attributes) {
+            int mode = (int) Octal.parseOctal(header, TarHeader.MODE_OFFSET, TarHeader.MODELEN);
+            long modTime = Octal.parseOctal(header, TarHeader.MODTIME_OFFSET, TarHeader.MODTIMELEN);
+            String path = attributes.get(PaxHeaders.PATH);
+            if (path != null) {
+                byte[] bytes = toBytes(path);
+                long nameOffset = nameBuffer.reserve(bytes.length);
+                MemorySegment.copy(bytes, 0, nameBuffer.segment, ValueLayout.JAVA_BYTE, nameOffset, bytes.length);
+                addRecord(nameOffset, bytes.length, headerOffset, dataOffset, size, mode, modTime);
+                return;
+            }
+
+            int prefixLength = fieldLength(header, TarHeader.NAME_PREFIX_OFFSET, TarHeader.USTAR_FILENAME_PREFIX);
+            int nameLength = fieldLength(header, TarHeader.NAME_OFFSET, TarHeader.NAMELEN);
+            int length = prefixLength == 0 ? nameLength : prefixLength + 1 + nameLength;
+
+            long nameOffset = nameBuffer.reserve(length);
+            MemorySegment target = nameBuffer.segment;
+            long pos = nameOffset;
+            if (prefixLength > 0) {
+                MemorySegment.copy(header, TarHeader.NAME_PREFIX_OFFSET, target, ValueLayout.JAVA_BYTE, pos, prefixLength);
+                pos += prefixLength;
+                target.set(ValueLayout.JAVA_BYTE, pos++, (byte) '/');
+            }
+            MemorySegment.copy(header, TarHeader.NAME_OFFSET, target, ValueLayout.JAVA_BYTE, pos, nameLength);
+            addRecord(nameOffset, length, headerOffset, dataOffset, size, mode, modTime);
+        }
+
+        /// Builds the catalog.
+        ///
+        /// The builder cannot be used afterwards.
+        ///
+        /// @param endOfArchive the offset of the end-of-archive marker
+        /// @return the catalog
+        public TarCatalog build(long endOfArchive) {
+            Arena arena = Arena.ofShared();
+            try {
+                MemorySegment names = arena.allocate(Math.max(1, nameBuffer.used), 1);
+                MemorySegment.copy(nameBuffer.segment, 0, names, 0, nameBuffer.used);
+                MemorySegment records = arena.allocate(Math.max(RECORD_BYTES, recordBuffer.used), Long.BYTES);
+                MemorySegment.copy(recordBuffer.segment, 0, records, 0, recordBuffer.used);
+                close();
+                return new TarCatalog(arena, names, records, count, endOfArchive);
+            } catch (RuntimeException e) {
+                arena.close();
+                throw e;
+            }
+        }
+
+        /// Frees the memory used while building.
+        @Override
+        public void close() {
+            nameBuffer.close();
+            recordBuffer.close();
+        }
+
+        private void addRecord(long nameOffset, int nameLength, long headerOffset, long dataOffset, long size, int mode,
+                long modTime) {
+            if (count == Integer.MAX_VALUE) {
+                throw new IllegalStateException("Too many entries for catalog");
+            }
+            long base = recordBuffer.reserve(RECORD_BYTES);
+            MemorySegment rec = recordBuffer.segment;
+            rec.set(ValueLayout.JAVA_LONG, base + REC_NAME_OFFSET, nameOffset);
+            rec.set(ValueLayout.JAVA_LONG, base + REC_HEADER_OFFSET, headerOffset);
+            rec.set(ValueLayout.JAVA_LONG, base + REC_SIZE, size);
+            rec.set(ValueLayout.JAVA_LONG, base + REC_MODTIME, modTime);
+            rec.set(ValueLayout.JAVA_INT, base + REC_NAME_LENGTH, nameLength);
+            rec.set(ValueLayout.JAVA_INT, base + REC_MODE, mode);
+            rec.set(ValueLayout.JAVA_LONG, base + REC_DATA_OFFSET, dataOffset);
+            count++;
+        }
+
+        private static int fieldLength(byte[] header, int offset, int maxLength) {
+            int length = 0;
+            while (length < maxLength && header[offset + length] != 0) {
+                length++;
+            }
+            return length;
+        }
+    }
+
+    /// Off-heap buffer that grows by reallocation.
+    private static final class GrowableSegment implements AutoCloseable {
+        private Arena arena;
+        private MemorySegment segment;
+        private long used;
+
+        GrowableSegment(long initialSize) {
+            arena = Arena.ofConfined();
+            segment = arena.allocate(initialSize, Long.BYTES);
+        }
+
+        /// Reserves space at the end of the buffer.
+        ///
+        /// @param bytes the number of bytes to reserve
+        /// @return the offset of the reserved space
+        long reserve(long bytes) {
+            long needed = used + bytes;
+            if (needed > segment.byteSize()) {
+                Arena newArena = Arena.ofConfined();
+                MemorySegment newSegment = newArena.allocate(Math.max(needed, 2 * segment.byteSize()), Long.BYTES);
+                MemorySegment.copy(segment, 0, newSegment, 0, used);
+                arena.close();
+                arena = newArena;
+                segment = newSegment;
+            }
+            long offset = used;
+            used = needed;
+            return offset;
+        }
+
+        @Override
+        public void close() {
+            if (arena.scope().isAlive()) {
+                arena.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package dk.mada.mjtar;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import org.jspecify.annotations.Nullable;
+
+/// A durable checkpoint of an archive being written.
+///
+/// The checkpoint is stored in a file next to the archive (with the suffix
+/// `.checkpoint`). Everything in the archive before the checkpoint offset
+/// has been forced to storage, so after a crash the archive can be truncated
+/// to the offset, and writing can continue from the entry following the last
+/// entry of the checkpoint.
+///
+/// @param offset        the archive offset following the last completed entry
+/// @param entries       the number of completed entries
+/// @param lastEntryName the name of the last completed entry, empty if none
+/// @param token         the resume token given with the last completed entry, empty if none
+/// @see TarOutputStream#resume(Path, CheckpointPolicy)
+public record TarCheckpoint(long offset, long entries, String lastEntryName, String token) {
+    /// Suffix of the checkpoint file name.
+    public static final String FILE_SUFFIX = ".checkpoint";
+
+    private static final int MAGIC = 0x6d6a_6370;
+
+    /// Returns the checkpoint file of an archive.
+    ///
+    /// @param archive the archive file
+    /// @return the checkpoint file
+    public static Path file(Path archive) {
+        return archive.resolveSibling(archive.getFileName() + FILE_SUFFIX);
+    }
+
+    /// Loads the checkpoint of an archive.
+    ///
+    /// @param archive the archive file
+    /// @return the checkpoint, or null if there is none
+    /// @throws IOException if there is an IO error, or the checkpoint file is invalid
+    public static @Nullable TarCheckpoint load(Path archive) throws IOException {
+        Path file = file(archive);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (var in = new DataInputStream(Files.newInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a checkpoint file: " + file);
+            }
+            return new TarCheckpoint(in.readLong(), in.readLong(), in.readUTF(), in.readUTF());
+        }
+    }
+
+    /// Saves the checkpoint of an archive.
+    ///
+    /// The checkpoint is written to a temporary file which is forced to
+    /// storage and then atomically moved into place, so a crash leaves
+    /// either the previous or the new checkpoint.
+    ///
+    /// @param archive the archive file
+    /// @throws IOException if there is an IO error
+    void save(Path archive) throws IOException {
+        Path file = file(archive);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            @SuppressWarnings("resource") // closed with channel
+            OutputStream os = Channels.newOutputStream(channel);
+            var out = new DataOutputStream(os);
+            out.writeInt(MAGIC);
+            out.writeLong(offset);
+            out.writeLong(entries);
+            out.writeUTF(lastEntryName);
+            out.writeUTF(token);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
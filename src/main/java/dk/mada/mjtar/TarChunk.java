@@ -0,0 +1,22 @@
+package dk.mada.mjtar;
+
+import java.nio.ByteBuffer;
+
+/// A chunk of entry data, as published by [TarPublisher] and consumed by [TarSubscriber].
+///
+/// Every entry is published as one or more chunks in data order. The first
+/// chunk of an entry has offset 0, the last is flagged. An entry without data
+/// is a single empty chunk that is both first and last.
+///
+/// @param entry  the entry the data belongs to
+/// @param offset the offset of the chunk in the entry data
+/// @param data   the data, owned by the receiver of the chunk
+/// @param last   true if this is the last chunk of the entry
+public record TarChunk(TarEntry entry, long offset, ByteBuffer data, boolean last) {
+    /// Returns true if this is the first chunk of the entry.
+    ///
+    /// @return true if the chunk starts the entry
+    public boolean isFirst() {
+        return offset == 0;
+    }
+}
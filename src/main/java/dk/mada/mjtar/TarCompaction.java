@@ -0,0 +1,365 @@
+package dk.mada.mjtar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import org.jspecify.annotations.Nullable;
+
+/// In-place deletion of entries from an archive file.
+///
+/// The entries following the first deleted entry are slid down over the dead
+/// regions, and the file is truncated. The work is proportional to the amount
+/// of data following the first deleted entry.
+///
+/// The data is moved in steps. Before the archive is modified, the planned
+/// moves are written to a journal file next to the archive. The journal
+/// records the progress after each step, so an interrupted compaction can be
+/// resumed from the last completed step.
+///
+/// A step that does not overlap its own source can simply be repeated when
+/// resuming. When the distance moved is smaller than the step size, the source
+/// data of the step is first copied to the journal, and the step is repeated
+/// from that copy when resuming.
+final class TarCompaction {
+    /// Suffix of the journal file name.
+    static final String JOURNAL_SUFFIX = ".compact-journal";
+    /// Default maximum number of bytes moved per step.
+    static final int DEFAULT_STEP_SIZE = 64 * 1024 * 1024;
+
+    private static final long JOURNAL_MAGIC = 0x6d6a_7461_7243_6d70L;
+    private static final int SLOT_SIZE = TarConstants.DATA_BLOCK;
+    private static final int SLOT_DATA_SIZE = Long.BYTES + Integer.BYTES + Long.BYTES + Long.BYTES;
+    private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+
+    private final Path file;
+    private final Path journalFile;
+    private final int stepSize;
+
+    /// A planned move of a region of the archive.
+    ///
+    /// @param source      the offset to move from
+    /// @param destination the offset to move to, always before the source
+    /// @param length      the number of bytes to move
+    private record Move(long source, long destination, long length) {
+    }
+
+    /// Creates a new compaction of an archive file.
+    ///
+    /// @param file     the archive file
+    /// @param stepSize the maximum number of bytes to move per step
+    TarCompaction(Path file, int stepSize) {
+        if (stepSize < TarConstants.DATA_BLOCK) {
+            throw new IllegalArgumentException("Step size must be at least " + TarConstants.DATA_BLOCK + ", was " + stepSize);
+        }
+        this.file = file;
+        this.journalFile = journalFile(file);
+        this.stepSize = stepSize;
+    }
+
+    /// Returns the journal file used when compacting an archive.
+    ///
+    /// @param file the archive file
+    /// @return the journal file
+    static Path journalFile(Path file) {
+        return file.resolveSibling(file.getFileName() + JOURNAL_SUFFIX);
+    }
+
+    /// Deletes entries from the archive.
+    ///
+    /// All entries with a matching name are deleted. Any interrupted
+    /// compaction is completed first.
+    ///
+    /// @param names    the names of the entries to delete
+    /// @param maxSteps the maximum number of steps to run, for simulating interruptions
+    /// @return the number of deleted entries
+    /// @throws IOException if there is an IO error
+    int delete(Collection<String> names, long maxSteps) throws IOException {
+        Set<String> doomed = Set.copyOf(names);
+        try (FileChannel archive = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                FileLock _ = archive.lock()) {
+            completePending(archive);
+
+            List<Move> moves = new ArrayList<>();
+            int deleted = 0;
+            long destination = -1;
+            for (TarIndexEntry e : TarIndex.scan(archive).entries()) {
+                if (doomed.contains(e.name())) {
+                    deleted++;
+                    if (destination == -1) {
+                        destination = e.headerOffset();
+                    }
+                } else if (destination != -1) {
+                    long length = e.endOffset() - e.headerOffset();
+                    if (!moves.isEmpty() && moves.getLast().source() + moves.getLast().length() == e.headerOffset()) {
+                        Move last = moves.getLast();
+                        moves.set(moves.size() - 1, new Move(last.source(), last.destination(), last.length() + length));
+                    } else {
+                        moves.add(new Move(e.headerOffset(), destination, length));
+                    }
+                    destination += length;
+                }
+            }
+            if (deleted == 0) {
+                return 0;
+            }
+
+            try (FileChannel journal = FileChannel.open(journalFile,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+                Journal state = Journal.create(journal, moves, destination);
+                if (!execute(archive, state, maxSteps)) {
+                    return deleted;
+                }
+            }
+            Files.delete(journalFile);
+            return deleted;
+        }
+    }
+
+    /// Completes an interrupted compaction, if there is one.
+    ///
+    /// @return true if a compaction was completed
+    /// @throws IOException if there is an IO error
+    boolean resume() throws IOException {
+        if (!Files.exists(journalFile)) {
+            return false;
+        }
+        try (FileChannel archive = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                FileLock _ = archive.lock()) {
+            completePending(archive);
+            return true;
+        }
+    }
+
+    /// Completes an interrupted compaction, if there is one.
+    ///
+    /// @param archive the locked archive channel
+    /// @throws IOException if there is an IO error
+    private void completePending(FileChannel archive) throws IOException {
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+        try (FileChannel journal = FileChannel.open(journalFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            Journal state = Journal.load(journal);
+            // A journal that was never completely written means the archive was never touched
+            if (state != null) {
+                execute(archive, state, Long.MAX_VALUE);
+            }
+        }
+        Files.delete(journalFile);
+    }
+
+    /// Runs the remaining steps of a compaction, and truncates the archive.
+    ///
+    /// @param archive  the archive channel
+    /// @param journal  the compaction journal
+    /// @param maxSteps the maximum number of steps to run
+    /// @return false if stopped before completion, otherwise true
+    /// @throws IOException if there is an IO error
+    private boolean execute(FileChannel archive, Journal journal, long maxSteps) throws IOException {
+        ByteBuffer copyBuffer = ByteBuffer.allocateDirect(Math.min(stepSize, COPY_BUFFER_SIZE));
+        long steps = 0;
+
+        if (journal.backupLength > 0) {
+            journal.restoreBackup(archive);
+        }
+
+        while (journal.moveIndex < journal.moves.size()) {
+            if (steps++ == maxSteps) {
+                return false;
+            }
+            Move move = journal.moves.get(journal.moveIndex);
+            long length = Math.min(move.length() - journal.done, stepSize);
+            long source = move.source() + journal.done;
+            long destination = move.destination() + journal.done;
+
+            if (length > source - destination) {
+                journal.backup(archive, source, length);
+                journal.restoreBackup(archive);
+            } else {
+                copy(archive, copyBuffer, source, destination, length);
+                archive.force(false);
+                journal.advance(length);
+            }
+        }
+
+        ChannelIo.writeFully(archive, ByteBuffer.allocate(TarConstants.EOF_BLOCK), journal.endOfArchive);
+        archive.truncate(journal.endOfArchive + TarConstants.EOF_BLOCK);
+        archive.force(true);
+        return true;
+    }
+
+    /// Copies a region of the archive to a non-overlapping destination.
+    private static void copy(FileChannel archive, ByteBuffer buffer, long source, long destination, long length)
+            throws IOException {
+        long done = 0;
+        while (done < length) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), length - done));
+            ChannelIo.readFully(archive, buffer, source + done);
+            buffer.flip();
+            ChannelIo.writeFully(archive, buffer, destination + done);
+            done += buffer.limit();
+        }
+    }
+
+    /// The compaction journal.
+    ///
+    /// Layout: a checksummed plan (the moves and the new end of archive),
+    /// followed by two alternately written progress slots, followed by
+    /// the backup area. The slot with the highest valid sequence number
+    /// holds the current progress.
+    private static final class Journal {
+        private final FileChannel channel;
+        private final List<Move> moves;
+        private final long endOfArchive;
+        private final long slotsOffset;
+        private final long backupOffset;
+        private long sequence;
+        private int moveIndex;
+        private long done;
+        private long backupLength;
+
+        private Journal(FileChannel channel, List<Move> moves, long endOfArchive) {
+            this.channel = channel;
+            this.moves = moves;
+            this.endOfArchive = endOfArchive;
+            this.slotsOffset = TarUtils.paddedSize(planSize(moves.size()));
+            this.backupOffset = slotsOffset + 2L * SLOT_SIZE;
+        }
+
+        private static long planSize(int moveCount) {
+            return Long.BYTES + Long.BYTES + Integer.BYTES + moveCount * 3L * Long.BYTES + Long.BYTES;
+        }
+
+        static Journal create(FileChannel channel, List<Move> moves, long endOfArchive) throws IOException {
+            long size = planSize(moves.size());
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Too many regions to move: " + moves.size());
+            }
+            ByteBuffer plan = ByteBuffer.allocate((int) size);
+            plan.putLong(JOURNAL_MAGIC)
+                    .putLong(endOfArchive)
+                    .putInt(moves.size());
+            for (Move m : moves) {
+                plan.putLong(m.source()).putLong(m.destination()).putLong(m.length());
+            }
+            plan.putLong(crc(plan, plan.position()));
+            ChannelIo.writeFully(channel, plan.flip(), 0);
+
+            Journal journal = new Journal(channel, moves, endOfArchive);
+            journal.writeProgress();
+            return journal;
+        }
+
+        /// Loads a journal.
+        ///
+        /// @return the journal, or null if it was not completely written
+        static @Nullable Journal load(FileChannel channel) throws IOException {
+            ByteBuffer head = ByteBuffer.allocate(Long.BYTES + Long.BYTES + Integer.BYTES);
+            if (channel.size() < head.capacity()) {
+                return null;
+            }
+            ChannelIo.readFully(channel, head, 0);
+            int moveCount = head.flip().getInt(Long.BYTES + Long.BYTES);
+            long size = planSize(moveCount);
+            if (head.getLong(0) != JOURNAL_MAGIC || moveCount < 0 || size > channel.size()) {
+                return null;
+            }
+
+            ByteBuffer plan = ByteBuffer.allocate((int) size);
+            ChannelIo.readFully(channel, plan, 0);
+            if (crc(plan, plan.capacity() - Long.BYTES) != plan.getLong(plan.capacity() - Long.BYTES)) {
+                return null;
+            }
+            plan.position(head.capacity());
+            List<Move> moves = new ArrayList<>(moveCount);
+            for (int i = 0; i < moveCount; i++) {
+                moves.add(new Move(plan.getLong(), plan.getLong(), plan.getLong()));
+            }
+
+            Journal journal = new Journal(channel, moves, plan.getLong(Long.BYTES));
+            journal.readProgress();
+            return journal;
+        }
+
+        /// Copies the source of a step to the backup area, and records it.
+        void backup(FileChannel archive, long source, long length) throws IOException {
+            long copied = 0;
+            while (copied < length) {
+                channel.position(backupOffset + copied);
+                copied += archive.transferTo(source + copied, length - copied, channel);
+            }
+            channel.force(false);
+            backupLength = length;
+            writeProgress();
+        }
+
+        /// Copies the backup area to the destination of the current step, and advances past it.
+        void restoreBackup(FileChannel archive) throws IOException {
+            long destination = moves.get(moveIndex).destination() + done;
+            long copied = 0;
+            while (copied < backupLength) {
+                channel.position(backupOffset + copied);
+                long count = archive.transferFrom(channel, destination + copied, backupLength - copied);
+                if (count <= 0) {
+                    throw new IOException("Compaction journal backup area is truncated");
+                }
+                copied += count;
+            }
+            archive.force(false);
+            advance(backupLength);
+        }
+
+        /// Records the completion of a step.
+        void advance(long length) throws IOException {
+            done += length;
+            if (done == moves.get(moveIndex).length()) {
+                moveIndex++;
+                done = 0;
+            }
+            backupLength = 0;
+            writeProgress();
+        }
+
+        private void writeProgress() throws IOException {
+            sequence++;
+            ByteBuffer slot = ByteBuffer.allocate(SLOT_DATA_SIZE + Long.BYTES);
+            slot.putLong(sequence).putInt(moveIndex).putLong(done).putLong(backupLength);
+            slot.putLong(crc(slot, SLOT_DATA_SIZE));
+            ChannelIo.writeFully(channel, slot.flip(), slotsOffset + (sequence % 2) * SLOT_SIZE);
+            channel.force(false);
+        }
+
+        private void readProgress() throws IOException {
+            for (int i = 0; i < 2; i++) {
+                ByteBuffer slot = ByteBuffer.allocate(SLOT_DATA_SIZE + Long.BYTES);
+                long offset = slotsOffset + (long) i * SLOT_SIZE;
+                if (offset + slot.capacity() > channel.size()) {
+                    continue;
+                }
+                ChannelIo.readFully(channel, slot, offset);
+                long seq = slot.getLong(0);
+                if (crc(slot, SLOT_DATA_SIZE) == slot.getLong(SLOT_DATA_SIZE) && seq > sequence) {
+                    sequence = seq;
+                    moveIndex = slot.getInt(Long.BYTES);
+                    done = slot.getLong(Long.BYTES + Integer.BYTES);
+                    backupLength = slot.getLong(Long.BYTES + Integer.BYTES + Long.BYTES);
+                }
+            }
+        }
+
+        private static long crc(ByteBuffer buffer, int length) {
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, length);
+            return crc.getValue();
+        }
+    }
+}
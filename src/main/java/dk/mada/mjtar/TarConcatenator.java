@@ -0,0 +1,127 @@
+package dk.mada.mjtar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/// Concatenates archive files, like `tar --concatenate`.
+///
+/// The entries of each source archive are copied as a single region, from the
+/// start of the archive to its end-of-archive marker, using [FileChannel#transferTo].
+/// So the data is not read into the JVM, and the entries are not parsed beyond
+/// the header scan needed to find the end of each archive.
+///
+/// The end-of-archive markers of the sources are dropped, so the result is a
+/// single archive that can be read by any tar reader.
+public final class TarConcatenator {
+    /// Prevents instantiation.
+    private TarConcatenator() {
+        // empty
+    }
+
+    /// Creates an archive file holding the entries of the source archives.
+    ///
+    /// @param target  the archive file to create, replaced if it exists
+    /// @param sources the source archive files
+    /// @return the index of the created archive
+    /// @throws IOException if there is an IO error, or a source is not a valid archive
+    public static TarIndex concatenate(Path target, List<Path> sources) throws IOException {
+        return write(target, sources, false);
+    }
+
+    /// Appends the entries of the source archives to an archive file.
+    ///
+    /// If the target does not exist, or is empty, it is created. If appending
+    /// fails, the entries already copied are removed again, leaving the target
+    /// with its original entries.
+    ///
+    /// @param target  the archive file to append to
+    /// @param sources the source archive files
+    /// @return the index of the updated archive
+    /// @throws IOException if there is an IO error, or an archive is not valid
+    public static TarIndex append(Path target, List<Path> sources) throws IOException {
+        return write(target, sources, true);
+    }
+
+    private static TarIndex write(Path target, List<Path> sources, boolean append) throws IOException {
+        for (Path source : sources) {
+            if (Files.exists(target) && Files.isSameFile(target, source)) {
+                throw new IllegalArgumentException("Cannot concatenate " + source + " to itself");
+            }
+        }
+
+        StandardOpenOption mode = append ? StandardOpenOption.READ : StandardOpenOption.TRUNCATE_EXISTING;
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE, mode)) {
+            List<TarIndexEntry> entries = new ArrayList<>();
+            long originalSize = out.size();
+            long position = 0;
+            if (append) {
+                TarIndex existing = TarIndex.scan(out);
+                entries.addAll(existing.entries());
+                position = existing.endOfArchive();
+            }
+
+            long start = position;
+            try {
+                for (Path source : sources) {
+                    try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+                        TarIndex index = TarIndex.scan(in);
+                        transfer(in, index.endOfArchive(), out, position);
+                        for (TarIndexEntry e : index.entries()) {
+                            entries.add(e.shifted(position));
+                        }
+                        position += index.endOfArchive();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                try {
+                    restore(out, start, originalSize);
+                } catch (IOException restoreFailure) {
+                    e.addSuppressed(restoreFailure);
+                }
+                throw e;
+            }
+
+            ChannelIo.writeFully(out, ByteBuffer.allocate(TarConstants.EOF_BLOCK), position);
+            out.truncate(position + TarConstants.EOF_BLOCK);
+            return new TarIndex(entries, position);
+        }
+    }
+
+    /// Removes partially copied entries, ending the archive where it originally ended.
+    ///
+    /// The space after the end of the archive is zeroed up to the original size of
+    /// the file, so the original end-of-archive marker and padding are restored.
+    ///
+    /// @param out          the target archive
+    /// @param endOfArchive the original end of the archive entries
+    /// @param originalSize the original size of the file
+    /// @throws IOException if there is an IO error
+    private static void restore(FileChannel out, long endOfArchive, long originalSize) throws IOException {
+        long size = Math.max(originalSize, endOfArchive + TarConstants.EOF_BLOCK);
+        out.truncate(size);
+        ByteBuffer zeros = ByteBuffer.allocate(TarConstants.EOF_BLOCK);
+        for (long pos = endOfArchive; pos < size; pos += zeros.capacity()) {
+            zeros.clear().limit((int) Math.min(zeros.capacity(), size - pos));
+            ChannelIo.writeFully(out, zeros, pos);
+        }
+    }
+
+    /// Transfers the start of a channel to a position in another channel.
+    private static void transfer(FileChannel in, long length, FileChannel out, long position) throws IOException {
+        out.position(position);
+        long done = 0;
+        while (done < length) {
+            long count = in.transferTo(done, length - done, out);
+            if (count <= 0) {
+                throw new IOException("Failed to transfer data at offset " + done);
+            }
+            done += count;
+        }
+    }
+}
@@ -16,7 +16,9 @@ package dk.mada.mjtar;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import org.jspecify.annotations.Nullable;
 
@@ -26,6 +28,7 @@ import org.jspecify.annotations.Nullable;
 public final class TarEntry {
     private @Nullable Path file;
     private TarHeader header;
+    private Map<String, String> paxAttributes = Map.of();
 
     /// Creates a new tar entry, initializing the header with information
     /// from the specified file.
@@ -65,8 +68,14 @@ public final class TarEntry {
         return header.name.hashCode();
     }
 
+    /// Checks if an entry is below this entry, by comparing the full names.
+    ///
+    /// For queries over many entries, use [TarPathIndex] instead.
+    ///
+    /// @param desc the possible descendent
+    /// @return true if the name of desc starts with the name of this entry
     public boolean isDescendent(TarEntry desc) {
-        return desc.header.name.toString().startsWith(header.name.toString());
+        return desc.getName().startsWith(getName());
     }
 
     public TarHeader getHeader() {
@@ -82,8 +91,13 @@ public final class TarEntry {
         return name;
     }
 
+    /// Sets the full name of the entry.
+    ///
+    /// Names longer than the name field are split into ustar name prefix and name.
+    ///
+    /// @param name the new entry name
     public void setName(String name) {
-        header.name = new StringBuffer(name);
+        header.setFullName(name);
     }
 
     public int getUserId() {
@@ -143,6 +157,35 @@ public final class TarEntry {
         return header.size;
     }
 
+    /// Returns the PAX extended attributes read with the entry.
+    ///
+    /// @return the attributes, empty if the entry had no PAX extended header
+    public Map<String, String> getPaxAttributes() {
+        return paxAttributes;
+    }
+
+    /// Applies PAX extended attributes to the entry.
+    ///
+    /// The path, link path and size attributes override the header fields.
+    /// The path is split into name prefix and name as by [#setName(String)].
+    ///
+    /// @param attributes the attributes read from the extended header
+    void applyPaxAttributes(Map<String, String> attributes) {
+        paxAttributes = Map.copyOf(attributes);
+        String path = attributes.get(PaxHeaders.PATH);
+        if (path != null) {
+            header.setFullName(path);
+        }
+        String linkPath = attributes.get(PaxHeaders.LINK_PATH);
+        if (linkPath != null) {
+            header.linkName = new StringBuffer(linkPath);
+        }
+        String size = attributes.get(PaxHeaders.SIZE);
+        if (size != null) {
+            header.size = Long.parseLong(size);
+        }
+    }
+
     public void setSize(long size) {
         header.size = size;
     }
@@ -158,7 +201,8 @@ public final class TarEntry {
                 return true;
             }
 
-            if (header.name.toString().endsWith("/")) {
+            int nameLength = header.name.length();
+            if (nameLength > 0 && header.name.charAt(nameLength - 1) == '/') {
                 return true;
             }
         }
@@ -211,9 +255,8 @@ public final class TarEntry {
         offset = Octal.writeLongOctalBytes(header.modTime, outbuf, offset, TarHeader.MODTIMELEN);
 
         int csOffset = offset;
-        for (int c = 0; c < TarHeader.CHKSUMLEN; ++c) {
-            outbuf[offset++] = (byte) ' ';
-        }
+        Arrays.fill(outbuf, offset, offset + TarHeader.CHKSUMLEN, (byte) ' ');
+        offset += TarHeader.CHKSUMLEN;
 
         outbuf[offset++] = header.linkFlag;
 
@@ -225,9 +268,7 @@ public final class TarEntry {
         offset = Octal.writeOctalBytes(header.devMinor, outbuf, offset, TarHeader.USTAR_DEVLEN);
         offset = TarHeader.writeEntryName(header.namePrefix, outbuf, offset, TarHeader.USTAR_FILENAME_PREFIX);
 
-        for (; offset < outbuf.length; ) {
-            outbuf[offset++] = 0;
-        }
+        Arrays.fill(outbuf, offset, outbuf.length, (byte) 0);
 
         long checkSum = this.computeCheckSum(outbuf);
 
@@ -0,0 +1,103 @@
+package dk.mada.mjtar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/// Read-only channel giving random access to the data of a single archive entry.
+///
+/// Positions are relative to the start of the entry data, and are mapped onto
+/// the entry's region of the archive file using positional reads. Closing the
+/// channel does not close the archive.
+final class TarEntryChannel implements SeekableByteChannel {
+    private final FileChannel channel;
+    private final long dataOffset;
+    private final long size;
+    private long position;
+    private boolean open = true;
+
+    /// Creates a new entry channel.
+    ///
+    /// @param channel    the archive channel
+    /// @param dataOffset the offset of the entry data in the archive
+    /// @param size       the size of the entry data
+    TarEntryChannel(FileChannel channel, long dataOffset, long size) {
+        this.channel = channel;
+        this.dataOffset = dataOffset;
+        this.size = size;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        long left = size - position;
+        if (left <= 0) {
+            return -1;
+        }
+
+        ByteBuffer target = dst;
+        if (dst.remaining() > left) {
+            target = dst.slice(dst.position(), (int) left);
+        }
+        int count = channel.read(target, dataOffset + position);
+        if (count < 0) {
+            throw new IOException("Unexpected end of archive file at entry position " + position);
+        }
+        if (target != dst) {
+            dst.position(dst.position() + count);
+        }
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position " + newPosition);
+        }
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long newSize) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open && channel.isOpen();
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+}
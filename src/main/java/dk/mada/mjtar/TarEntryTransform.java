@@ -0,0 +1,88 @@
+package dk.mada.mjtar;
+
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import org.jspecify.annotations.Nullable;
+
+/// Header-level transformation of archive entries.
+///
+/// Transforms may change any header information except the entry size, as
+/// entry data is copied unchanged. See [TarTransformer].
+@FunctionalInterface
+public interface TarEntryTransform {
+    /// Transforms an entry.
+    ///
+    /// The entry may be modified and returned.
+    ///
+    /// @param entry the entry to transform
+    /// @return the transformed entry, or null to drop the entry
+    @Nullable TarEntry apply(TarEntry entry);
+
+    /// Chains this transform with another.
+    ///
+    /// @param next the transform to apply to the result of this transform
+    /// @return the combined transform, dropping entries dropped by either
+    default TarEntryTransform andThen(TarEntryTransform next) {
+        return entry -> {
+            TarEntry result = apply(entry);
+            return result == null ? null : next.apply(result);
+        };
+    }
+
+    /// Keeps only entries matching a predicate.
+    ///
+    /// @param keep the predicate selecting entries to keep
+    /// @return the transform
+    static TarEntryTransform filter(Predicate<TarEntry> keep) {
+        return entry -> keep.test(entry) ? entry : null;
+    }
+
+    /// Renames entries.
+    ///
+    /// @param renamer function providing the new name from the old name
+    /// @return the transform
+    static TarEntryTransform rename(UnaryOperator<String> renamer) {
+        return entry -> {
+            entry.setName(renamer.apply(entry.getName()));
+            return entry;
+        };
+    }
+
+    /// Strips leading path components from entry names, like `tar --strip-components`.
+    ///
+    /// Entries with no more than the stripped number of components are dropped.
+    ///
+    /// @param count the number of leading components to strip
+    /// @return the transform
+    static TarEntryTransform stripComponents(int count) {
+        return entry -> {
+            String name = entry.getName();
+            int start = 0;
+            for (int i = 0; i < count; i++) {
+                int slash = name.indexOf('/', start);
+                if (slash == -1 || slash == name.length() - 1) {
+                    return null;
+                }
+                start = slash + 1;
+            }
+            entry.setName(name.substring(start));
+            return entry;
+        };
+    }
+
+    /// Changes the ownership of entries.
+    ///
+    /// @param userId    the new user id
+    /// @param groupId   the new group id
+    /// @param userName  the new user name
+    /// @param groupName the new group name
+    /// @return the transform
+    static TarEntryTransform owner(int userId, int groupId, String userName, String groupName) {
+        return entry -> {
+            entry.setIds(userId, groupId);
+            entry.setUserName(userName);
+            entry.setGroupName(groupName);
+            return entry;
+        };
+    }
+}
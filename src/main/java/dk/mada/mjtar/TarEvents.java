@@ -0,0 +1,144 @@
+package dk.mada.mjtar;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/// Flight recorder events of archive operations.
+///
+/// All events are disabled by default, and must be enabled in the
+/// recording settings, for example:
+///
+/// ```
+/// java -XX:StartFlightRecording:dk.mada.mjtar.EntryRead#enabled=true,dk.mada.mjtar.EntryWrite#enabled=true ...
+/// ```
+///
+/// Code emitting an event first checks the event type holder, so an event
+/// object is only created while the event is enabled in a recording.
+final class TarEvents {
+    /// Category of all events.
+    private static final String CATEGORY = "mjtar";
+
+    /// Type of [EntryRead] events.
+    static final EventType ENTRY_READ = EventType.getEventType(EntryRead.class);
+    /// Type of [EntryWrite] events.
+    static final EventType ENTRY_WRITE = EventType.getEventType(EntryWrite.class);
+    /// Type of [HeaderParse] events.
+    static final EventType HEADER_PARSE = EventType.getEventType(HeaderParse.class);
+    /// Type of [Skip] events.
+    static final EventType SKIP = EventType.getEventType(Skip.class);
+    /// Type of [Pad] events.
+    static final EventType PAD = EventType.getEventType(Pad.class);
+    /// Type of [CompressionBlock] events.
+    static final EventType COMPRESSION_BLOCK = EventType.getEventType(CompressionBlock.class);
+    /// Type of [IndexBuild] events.
+    static final EventType INDEX_BUILD = EventType.getEventType(IndexBuild.class);
+
+    /// Prevents instantiation.
+    private TarEvents() {
+        // empty
+    }
+
+    /// An entry read from a [TarInputStream], from its header until the next entry is requested.
+    @Name("dk.mada.mjtar.EntryRead")
+    @Label("Tar Entry Read")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class EntryRead extends Event {
+        @Label("Name")
+        String name = "";
+        @Label("Size")
+        @DataAmount
+        long size;
+    }
+
+    /// An entry written to a [TarOutputStream], from its header until its padding.
+    @Name("dk.mada.mjtar.EntryWrite")
+    @Label("Tar Entry Write")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class EntryWrite extends Event {
+        @Label("Name")
+        String name = "";
+        @Label("Size")
+        @DataAmount
+        long size;
+    }
+
+    /// Parsing of an entry header block.
+    @Name("dk.mada.mjtar.HeaderParse")
+    @Label("Tar Header Parse")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class HeaderParse extends Event {
+        @Label("Name")
+        String name = "";
+    }
+
+    /// Skipping of entry data that was not read.
+    @Name("dk.mada.mjtar.Skip")
+    @Label("Tar Skip")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Skip extends Event {
+        @Label("Name")
+        String name = "";
+        @Label("Skipped")
+        @DataAmount
+        long bytes;
+    }
+
+    /// Writing of the padding following entry data.
+    @Name("dk.mada.mjtar.Pad")
+    @Label("Tar Pad")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Pad extends Event {
+        @Label("Padding")
+        @DataAmount
+        long bytes;
+    }
+
+    /// Compression or decompression of a buffer of gzip data.
+    @Name("dk.mada.mjtar.CompressionBlock")
+    @Label("Tar Compression Block")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class CompressionBlock extends Event {
+        @Label("Operation")
+        @Description("deflate or inflate")
+        String operation = "";
+        @Label("Uncompressed Size")
+        @DataAmount
+        long uncompressedSize;
+        @Label("Compressed Size")
+        @DataAmount
+        long compressedSize;
+    }
+
+    /// Building of an archive index by scanning headers.
+    @Name("dk.mada.mjtar.IndexBuild")
+    @Label("Tar Index Build")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class IndexBuild extends Event {
+        @Label("Entries")
+        long entries;
+        @Label("Archive Size")
+        @DataAmount
+        long archiveSize;
+    }
+}
@@ -0,0 +1,250 @@
+package dk.mada.mjtar;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jspecify.annotations.Nullable;
+
+/// Random access to the entries of an archive file.
+///
+/// The archive headers are indexed when the file is opened. After that the
+/// instance is thread-safe: entry streams use positional reads, so any number
+/// of threads can read different entries at the same time without sharing
+/// a file position.
+///
+/// Note that interrupting a thread while it reads from an entry stream closes
+/// the underlying channel (as for all interruptible channels), making the
+/// instance unusable for other threads.
+public final class TarFile implements Closeable {
+    /// Default number of entry headers kept in the header cache.
+    public static final int DEFAULT_HEADER_CACHE_SIZE = 64;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final TarIndex index;
+    private final HeaderCache headerCache;
+
+    /// Opens an archive file for reading.
+    ///
+    /// @param file the archive file
+    /// @throws IOException if there is an IO error
+    public TarFile(Path file) throws IOException {
+        this(file, DEFAULT_HEADER_CACHE_SIZE);
+    }
+
+    /// Opens an archive file for reading.
+    ///
+    /// @param file            the archive file
+    /// @param headerCacheSize the number of recently accessed entry headers to cache
+    /// @throws IOException if there is an IO error
+    public TarFile(Path file, int headerCacheSize) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.headerCache = new HeaderCache(headerCacheSize);
+        try {
+            this.index = TarIndex.scan(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /// Returns the archive file.
+    ///
+    /// @return the archive file
+    public Path getFile() {
+        return file;
+    }
+
+    /// Returns the index of the archive entries.
+    ///
+    /// @return the archive index
+    public TarIndex getIndex() {
+        return index;
+    }
+
+    /// Returns the archive entries in archive order.
+    ///
+    /// @return the entries
+    public List<TarIndexEntry> getEntries() {
+        return index.entries();
+    }
+
+    /// Finds an entry by name.
+    ///
+    /// @param name the entry name
+    /// @return the entry, or null if not found
+    public @Nullable TarIndexEntry find(String name) {
+        return index.find(name);
+    }
+
+    /// Reads the full header information of an entry.
+    ///
+    /// This includes the attributes of the entry's extended header, if it has
+    /// one. Recently accessed headers are served from a small cache.
+    ///
+    /// @param entry the entry to read the header of
+    /// @return a new tar entry with the header information
+    /// @throws IOException if there is an IO error, or the extended header is invalid
+    public TarEntry getEntry(TarIndexEntry entry) throws IOException {
+        byte[] headers = headerCache.get(entry.headerOffset());
+        if (headers == null) {
+            long length = entry.dataOffset() - entry.headerOffset();
+            if (length < TarConstants.HEADER_BLOCK || length > Integer.MAX_VALUE) {
+                throw new IOException("Invalid headers of entry " + entry.name() + ", " + length + " bytes");
+            }
+            headers = new byte[(int) length];
+            ChannelIo.readFully(channel, ByteBuffer.wrap(headers), entry.headerOffset());
+            headerCache.put(entry.headerOffset(), headers);
+        }
+        return TarIndex.parseEntry(headers);
+    }
+
+    /// Opens a stream reading the data of an entry.
+    ///
+    /// The stream does not need to be closed, but it cannot be used after the archive is closed.
+    ///
+    /// @param entry the entry to read
+    /// @return an input stream for the entry data
+    public InputStream getInputStream(TarIndexEntry entry) {
+        return new EntryInputStream(channel, entry.dataOffset(), entry.size());
+    }
+
+    /// Opens a seekable channel reading the data of an entry.
+    ///
+    /// The channel allows random access within the entry data, for example for
+    /// reading the index of a zip or database file stored in the archive, without
+    /// extracting it.
+    ///
+    /// Closing the returned channel does not close the archive, but the channel
+    /// cannot be used after the archive is closed.
+    ///
+    /// @param entry the entry to read
+    /// @return a read-only channel for the entry data
+    public SeekableByteChannel openChannel(TarIndexEntry entry) {
+        return new TarEntryChannel(channel, entry.dataOffset(), entry.size());
+    }
+
+    /// Deletes entries from an archive file in place.
+    ///
+    /// The entries following the first deleted entry are moved down over the
+    /// deleted entries, and the file is truncated. So the work done is
+    /// proportional to the amount of data following the first deleted entry,
+    /// not to the size of the archive.
+    ///
+    /// The moves are recorded in a journal file next to the archive (with the
+    /// suffix `.compact-journal`) while the compaction runs. If the compaction
+    /// is interrupted, the archive is unusable until the compaction is completed
+    /// by [#resumeCompaction(Path)] (or by the next call to this method).
+    ///
+    /// The archive file is locked during the compaction, but it must not be open
+    /// in any [TarFile] instance, as their indexes become invalid.
+    ///
+    /// @param file  the archive file
+    /// @param names the names of the entries to delete, all entries with a matching name are deleted
+    /// @return the number of deleted entries
+    /// @throws IOException if there is an IO error
+    public static int delete(Path file, Collection<String> names) throws IOException {
+        return new TarCompaction(file, TarCompaction.DEFAULT_STEP_SIZE).delete(names, Long.MAX_VALUE);
+    }
+
+    /// Completes an interrupted compaction of an archive file.
+    ///
+    /// @param file the archive file
+    /// @return true if an interrupted compaction was completed, false if there was none
+    /// @throws IOException if there is an IO error
+    /// @see #delete(Path, Collection)
+    public static boolean resumeCompaction(Path file) throws IOException {
+        return new TarCompaction(file, TarCompaction.DEFAULT_STEP_SIZE).resume();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /// Least recently used cache of entry headers, keyed by header offset.
+    ///
+    /// Each cached value holds the header blocks of an entry, including its
+    /// extended header. The cached blocks must not be modified.
+    private static final class HeaderCache {
+        private final Map<Long, byte[]> blocks;
+
+        HeaderCache(int capacity) {
+            this.blocks = new LinkedHashMap<>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized byte @Nullable [] get(long offset) {
+            return blocks.get(offset);
+        }
+
+        synchronized void put(long offset, byte[] block) {
+            blocks.put(offset, block);
+        }
+    }
+
+    /// Stream reading a region of the archive using positional reads.
+    private static final class EntryInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        EntryInputStream(FileChannel channel, long start, long size) {
+            this.channel = channel;
+            this.position = start;
+            this.end = start + size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int res = read(b, 0, 1);
+            return res == -1 ? -1 : 0xff & b[0];
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            long left = end - position;
+            if (left <= 0) {
+                return -1;
+            }
+            int count = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, left)), position);
+            if (count < 0) {
+                throw new IOException("Unexpected end of archive file at offset " + position);
+            }
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            long count = Math.max(0, Math.min(n, end - position));
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(end - position, Integer.MAX_VALUE);
+        }
+    }
+}
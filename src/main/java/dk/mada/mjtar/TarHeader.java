@@ -13,6 +13,9 @@
 /// limitations under the License.
 package dk.mada.mjtar;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 /// Tar header definitions.
 ///
 /// ```
@@ -78,6 +81,12 @@ public final class TarHeader {
     public static final byte LF_DIR = (byte) '5';
     public static final byte LF_FIFO = (byte) '6';
     public static final byte LF_CONTIG = (byte) '7';
+    /// GNU multi-volume continuation of a file started in a previous volume
+    public static final byte LF_GNU_MULTIVOL = (byte) 'M';
+    /// PAX extended header, with attributes for the following entry
+    public static final byte LF_PAX_EXTENDED = (byte) 'x';
+    /// PAX global header, with attributes for all following entries
+    public static final byte LF_PAX_GLOBAL = (byte) 'g';
 
     /// Ustar header
     public static final String USTAR_MAGIC = "ustar"; // POSIX
@@ -88,6 +97,26 @@ public final class TarHeader {
     public static final int USTAR_DEVLEN = 8;
     public static final int USTAR_FILENAME_PREFIX = 155;
 
+    /// Header field offsets
+    public static final int NAME_OFFSET = 0;
+    public static final int MODE_OFFSET = NAME_OFFSET + NAMELEN;
+    public static final int SIZE_OFFSET = MODE_OFFSET + MODELEN + UIDLEN + GIDLEN;
+    public static final int MODTIME_OFFSET = SIZE_OFFSET + SIZELEN;
+    public static final int CHKSUM_OFFSET = MODTIME_OFFSET + MODTIMELEN;
+    public static final int LINKFLAG_OFFSET = CHKSUM_OFFSET + CHKSUMLEN;
+    public static final int MAGIC_OFFSET = LINKFLAG_OFFSET + 1 + NAMELEN;
+    public static final int NAME_PREFIX_OFFSET =
+            MAGIC_OFFSET + USTAR_MAGICLEN + USTAR_USER_NAMELEN + USTAR_GROUP_NAMELEN + 2 * USTAR_DEVLEN;
+
+    /// GNU header, used for multi-volume continuation headers.
+    /// Note that the GNU fields overlap the ustar filename prefix.
+    public static final String GNU_MAGIC = "ustar  "; // GNU, includes version
+    public static final int GNU_OFFSET_OFFSET = 369;
+    public static final int GNU_OFFSETLEN = 12;
+
+    /// The magic shared by POSIX and GNU headers.
+    private static final byte[] USTAR_MAGIC_BYTES = USTAR_MAGIC.getBytes(StandardCharsets.US_ASCII);
+
     // Header values
     public StringBuffer name;
     public int mode;
@@ -146,23 +175,93 @@ public final class TarHeader {
 
     /// Write an entry name into a buffer.
     ///
+    /// The characters are stored as single bytes, and the remainder
+    /// of the field is zero-filled.
+    ///
     /// @param name    the name to write
     /// @param buf     the header buffer to write the string into
     /// @param offset  the offset into the buffer from which write
     /// @param length  the number of header bytes to write
     /// @return the next offset in the buffer
-    public static int writeEntryName(StringBuffer name, byte[] buf, int offset, int length) {
-        int i;
-
-        for (i = 0; i < length && i < name.length(); ++i) {
+    public static int writeEntryName(CharSequence name, byte[] buf, int offset, int length) {
+        int chars = Math.min(length, name.length());
+        for (int i = 0; i < chars; ++i) {
             buf[offset + i] = (byte) name.charAt(i);
         }
+        Arrays.fill(buf, offset + chars, offset + length, (byte) 0);
+
+        return offset + length;
+    }
 
-        for (; i < length; ++i) {
-            buf[offset + i] = 0;
+    /// Checks the checksum of a header block.
+    ///
+    /// The checksum is the sum of the header bytes, with the checksum field
+    /// counted as spaces. Some old writers summed signed bytes, so that is
+    /// also accepted.
+    ///
+    /// @param block the header block
+    /// @return true if the stored checksum matches the header
+    static boolean isChecksumValid(byte[] block) {
+        return isChecksumValid(block, 0);
+    }
+
+    /// Checks the checksum of a header block in a buffer.
+    ///
+    /// @param buf    the buffer holding the header block
+    /// @param offset the offset of the header block in the buffer
+    /// @return true if the stored checksum matches the header
+    static boolean isChecksumValid(byte[] buf, int offset) {
+        long stored = Octal.parseOctal(buf, offset + CHKSUM_OFFSET, CHKSUMLEN);
+        long unsigned = 0;
+        long signed = 0;
+        for (int i = 0; i < TarConstants.HEADER_BLOCK; i++) {
+            byte b = i >= CHKSUM_OFFSET && i < CHKSUM_OFFSET + CHKSUMLEN ? (byte) ' ' : buf[offset + i];
+            unsigned += b & 0xff;
+            signed += b;
         }
+        return stored == unsigned || stored == signed;
+    }
 
-        return offset + length;
+    /// Checks if a block looks like a valid header.
+    ///
+    /// The block must have the ustar magic (POSIX or GNU), and a valid checksum.
+    /// The magic is checked first, so blocks of entry data are rejected cheaply.
+    ///
+    /// @param block the block to check
+    /// @return true if the block is a plausible header
+    static boolean isPlausibleHeader(byte[] block) {
+        return isPlausibleHeader(block, 0);
+    }
+
+    /// Checks if a block in a buffer looks like a valid header.
+    ///
+    /// @param buf    the buffer holding the block
+    /// @param offset the offset of the block in the buffer
+    /// @return true if the block is a plausible header
+    static boolean isPlausibleHeader(byte[] buf, int offset) {
+        int magic = offset + MAGIC_OFFSET;
+        return Arrays.mismatch(buf, magic, magic + USTAR_MAGIC_BYTES.length,
+                USTAR_MAGIC_BYTES, 0, USTAR_MAGIC_BYTES.length) == -1
+                && isChecksumValid(buf, offset);
+    }
+
+    /// Sets the name fields from a full entry name.
+    ///
+    /// Names longer than the name field are split at a '/' into name prefix and name.
+    ///
+    /// @param fullName the full entry name
+    void setFullName(String fullName) {
+        if (fullName.length() > NAMELEN) {
+            // Do not split at the trailing slash of a directory
+            int split = fullName.lastIndexOf('/', fullName.length() - 2);
+            if (split > 0) {
+                namePrefix = new StringBuffer(fullName.substring(0, split));
+                name = new StringBuffer(fullName.substring(split + 1));
+                return;
+            }
+        }
+        namePrefix = new StringBuffer();
+        name = new StringBuffer(fullName);
     }
 
     /// Creates a new header for a file/directory entry.
@@ -0,0 +1,415 @@
+package dk.mada.mjtar;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import org.jspecify.annotations.Nullable;
+
+/// Index of the entries in an archive file.
+///
+/// PAX extended headers (type 'x') are merged into the entry following them:
+/// their path and size attributes apply to the entry, and the entry's header
+/// offset is that of the extended header, so the headers and data of an entry
+/// form a single region. Global extended headers (type 'g') are skipped.
+///
+/// The index is immutable and can be shared between threads.
+public final class TarIndex {
+    /// Smallest range of blocks scanned by a worker in [#scanParallel(FileChannel, int)] (1 MiB).
+    private static final long MIN_LEAF_BLOCKS = 2048;
+    /// Largest range of blocks scanned by a worker in [#scanParallel(FileChannel, int)] (64 MiB).
+    private static final long MAX_LEAF_BLOCKS = 128 * 1024;
+
+    private final List<TarIndexEntry> entries;
+    private final Map<String, TarIndexEntry> byName;
+    private final long endOfArchive;
+
+    /// Creates a new index.
+    ///
+    /// If a name occurs more than once, the last entry wins (as when extracting the archive).
+    ///
+    /// @param entries      the entries, in archive order
+    /// @param endOfArchive the offset of the end-of-archive marker
+    public TarIndex(List<TarIndexEntry> entries, long endOfArchive) {
+        this.entries = List.copyOf(entries);
+        this.endOfArchive = endOfArchive;
+        Map<String, TarIndexEntry> names = new HashMap<>();
+        for (TarIndexEntry e : this.entries) {
+            names.put(e.name(), e);
+        }
+        this.byName = Collections.unmodifiableMap(names);
+    }
+
+    /// Receives the entry headers found when scanning an archive.
+    @FunctionalInterface
+    interface HeaderVisitor {
+        /// Called for each entry.
+        ///
+        /// @param headerOffset the offset of the entry's first header block, its extended header if it has one
+        /// @param dataOffset   the offset of the entry data
+        /// @param header       the entry header block, only valid during the call
+        /// @param size         the size of the entry data
+        /// @param attributes   the extended header attributes of the entry, empty if it has none
+        /// @throws IOException if the visitor fails
+        void visit(long headerOffset, long dataOffset, byte[] header, long size, Map<String, String> attributes)
+                throws IOException;
+    }
+
+    /// Builds an index by scanning the headers of an archive.
+    ///
+    /// Only header blocks are read; entry data is skipped using positional reads.
+    ///
+    /// @param channel the archive channel, its position is not changed
+    /// @return the index of the archive
+    /// @throws IOException if there is an IO error, or the archive is truncated
+    public static TarIndex scan(FileChannel channel) throws IOException {
+        TarEvents.@Nullable IndexBuild event = null;
+        if (TarEvents.INDEX_BUILD.isEnabled()) {
+            event = new TarEvents.IndexBuild();
+            event.begin();
+        }
+        List<TarIndexEntry> entries = new ArrayList<>();
+        long end = scanHeaders(channel, (headerOffset, dataOffset, header, size, attributes) -> {
+            String path = attributes.get(PaxHeaders.PATH);
+            String name = path != null ? path : new TarEntry(header).getName();
+            entries.add(new TarIndexEntry(name, headerOffset, dataOffset, size));
+        });
+        if (event != null) {
+            event.entries = entries.size();
+            event.archiveSize = end;
+            event.commit();
+        }
+        return new TarIndex(entries, end);
+    }
+
+    /// Builds an index by scanning an archive in parallel.
+    ///
+    /// The file is split into ranges, and all blocks of each range are read
+    /// by a pool of workers, keeping several reads outstanding. Blocks that
+    /// validate as ustar headers (magic and checksum) are collected as
+    /// candidates. The candidates are then chained from the start of the
+    /// archive, following the entry sizes, which eliminates blocks in entry
+    /// data that happen to look like headers.
+    ///
+    /// This reads all of the archive, where [#scan(FileChannel)] only reads
+    /// the headers. It is faster for archives of many small entries, and on
+    /// storage that benefits from parallel reads. Header blocks without ustar
+    /// magic (old V7 archives) are read again while chaining, so the result
+    /// is the same as from [#scan(FileChannel)].
+    ///
+    /// @param channel     the archive channel, its position is not changed
+    /// @param parallelism the number of workers
+    /// @return the index of the archive
+    /// @throws IOException if there is an IO error, or the archive is truncated
+    public static TarIndex scanParallel(FileChannel channel, int parallelism) throws IOException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive, was " + parallelism);
+        }
+        TarEvents.@Nullable IndexBuild event = null;
+        if (TarEvents.INDEX_BUILD.isEnabled()) {
+            event = new TarEvents.IndexBuild();
+            event.begin();
+        }
+        long fileSize = channel.size();
+        long blocks = fileSize / TarConstants.HEADER_BLOCK;
+        long leafBlocks = Math.clamp(blocks / (4L * parallelism), MIN_LEAF_BLOCKS, MAX_LEAF_BLOCKS);
+
+        List<Candidate> candidates;
+        try (ForkJoinPool pool = new ForkJoinPool(parallelism)) {
+            candidates = pool.invoke(new CandidateScan(channel, 0, blocks, leafBlocks));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        List<TarIndexEntry> entries = new ArrayList<>();
+        long end = chainCandidates(channel, candidates, entries);
+        if (event != null) {
+            event.entries = entries.size();
+            event.archiveSize = end;
+            event.commit();
+        }
+        return new TarIndex(entries, end);
+    }
+
+    /// Chains header candidates from the start of the archive.
+    ///
+    /// Where there is no candidate at the expected offset, the block is read
+    /// and parsed as [#scanHeaders(FileChannel, HeaderVisitor)] would.
+    ///
+    /// @param channel    the archive channel
+    /// @param candidates the candidates, in offset order
+    /// @param entries    the list to add the chained entries to
+    /// @return the offset of the end-of-archive marker
+    /// @throws IOException if there is an IO error, or the archive is truncated
+    private static long chainCandidates(FileChannel channel, List<Candidate> candidates,
+            List<TarIndexEntry> entries) throws IOException {
+        long fileSize = channel.size();
+        byte[] header = new byte[TarConstants.HEADER_BLOCK];
+        ByteBuffer block = ByteBuffer.wrap(header);
+        long entryStart = -1;
+        Map<String, String> attributes = Map.of();
+        int next = 0;
+        long pos = 0;
+        while (pos + TarConstants.HEADER_BLOCK <= fileSize) {
+            while (next < candidates.size() && candidates.get(next).offset() < pos) {
+                next++;
+            }
+            Candidate candidate;
+            if (next < candidates.size() && candidates.get(next).offset() == pos) {
+                candidate = candidates.get(next);
+            } else {
+                ChannelIo.readFully(channel, block.clear(), pos);
+                if (TarUtils.isZeroBlock(header, 0, TarConstants.HEADER_BLOCK)) {
+                    break;
+                }
+                candidate = candidate(header, 0, pos);
+            }
+
+            long size = isExtendedHeader(candidate.linkFlag()) ? candidate.size() : entrySize(candidate.size(), attributes);
+            long end = pos + TarConstants.HEADER_BLOCK + TarUtils.paddedSize(size);
+            if (end > fileSize) {
+                throw new IOException("Truncated archive, entry at offset " + pos + " extends past end of file");
+            }
+            if (candidate.linkFlag() == TarHeader.LF_PAX_EXTENDED) {
+                entryStart = entryStart == -1 ? pos : entryStart;
+                attributes = readExtendedHeader(channel, pos, size);
+            } else if (candidate.linkFlag() != TarHeader.LF_PAX_GLOBAL) {
+                String name = attributes.getOrDefault(PaxHeaders.PATH, candidate.name());
+                entries.add(new TarIndexEntry(name, entryStart == -1 ? pos : entryStart, pos + TarConstants.HEADER_BLOCK, size));
+                entryStart = -1;
+                attributes = Map.of();
+            }
+            pos = end;
+        }
+        return pos;
+    }
+
+    /// A block that validates as a header.
+    ///
+    /// @param offset   the offset of the block in the archive
+    /// @param linkFlag the type of the header
+    /// @param name     the entry name of the header
+    /// @param size     the data size of the header
+    private record Candidate(long offset, byte linkFlag, String name, long size) {
+    }
+
+    /// Creates a candidate from a header block.
+    ///
+    /// @param buf          the buffer holding the header block
+    /// @param offset       the offset of the header block in the buffer
+    /// @param headerOffset the offset of the header block in the archive
+    /// @return the candidate
+    private static Candidate candidate(byte[] buf, int offset, long headerOffset) {
+        long size = Octal.parseOctal(buf, offset + TarHeader.SIZE_OFFSET, TarHeader.SIZELEN);
+        String name = new TarEntry(Arrays.copyOfRange(buf, offset, offset + TarConstants.HEADER_BLOCK)).getName();
+        return new Candidate(headerOffset, buf[offset + TarHeader.LINKFLAG_OFFSET], name, size);
+    }
+
+    /// Finds the header candidates in a range of blocks, splitting large ranges between workers.
+    private static final class CandidateScan extends RecursiveTask<List<Candidate>> {
+        private static final long serialVersionUID = 1L;
+        /// Size of the reads made by a worker.
+        private static final int READ_SIZE = 1024 * 1024;
+
+        private final transient FileChannel channel;
+        private final long firstBlock;
+        private final long endBlock;
+        private final long leafBlocks;
+
+        /// Creates a new scan.
+        ///
+        /// @param channel    the archive channel
+        /// @param firstBlock the index of the first block of the range
+        /// @param endBlock   the index of the block following the range
+        /// @param leafBlocks the largest range scanned without splitting
+        CandidateScan(FileChannel channel, long firstBlock, long endBlock, long leafBlocks) {
+            this.channel = channel;
+            this.firstBlock = firstBlock;
+            this.endBlock = endBlock;
+            this.leafBlocks = leafBlocks;
+        }
+
+        @Override
+        protected List<Candidate> compute() {
+            long blocks = endBlock - firstBlock;
+            if (blocks > leafBlocks) {
+                long middle = firstBlock + blocks / 2;
+                var left = new CandidateScan(channel, firstBlock, middle, leafBlocks);
+                var right = new CandidateScan(channel, middle, endBlock, leafBlocks);
+                left.fork();
+                List<Candidate> rightCandidates = right.compute();
+                List<Candidate> result = new ArrayList<>(left.join());
+                result.addAll(rightCandidates);
+                return result;
+            }
+            try {
+                return scanRange();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private List<Candidate> scanRange() throws IOException {
+            List<Candidate> candidates = new ArrayList<>();
+            ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+            byte[] data = buffer.array();
+            long pos = firstBlock * TarConstants.HEADER_BLOCK;
+            long end = endBlock * TarConstants.HEADER_BLOCK;
+            while (pos < end) {
+                int length = (int) Math.min(READ_SIZE, end - pos);
+                ChannelIo.readFully(channel, buffer.clear().limit(length), pos);
+                for (int offset = 0; offset < length; offset += TarConstants.HEADER_BLOCK) {
+                    if (TarHeader.isPlausibleHeader(data, offset)) {
+                        candidates.add(candidate(data, offset, pos + offset));
+                    }
+                }
+                pos += length;
+            }
+            return candidates;
+        }
+    }
+
+    /// Scans the header blocks of an archive.
+    ///
+    /// @param channel the archive channel, its position is not changed
+    /// @param visitor the visitor receiving the header blocks
+    /// @return the offset of the end-of-archive marker
+    /// @throws IOException if there is an IO error, or the archive is truncated
+    static long scanHeaders(FileChannel channel, HeaderVisitor visitor) throws IOException {
+        long fileSize = channel.size();
+        byte[] header = new byte[TarConstants.HEADER_BLOCK];
+        ByteBuffer block = ByteBuffer.wrap(header);
+        long entryStart = -1;
+        Map<String, String> attributes = Map.of();
+
+        long pos = 0;
+        while (pos + TarConstants.HEADER_BLOCK <= fileSize) {
+            ChannelIo.readFully(channel, block.clear(), pos);
+            if (TarUtils.isZeroBlock(header, 0, TarConstants.HEADER_BLOCK)) {
+                break;
+            }
+
+            byte flag = header[TarHeader.LINKFLAG_OFFSET];
+            long size = Octal.parseOctal(header, TarHeader.SIZE_OFFSET, TarHeader.SIZELEN);
+            if (!isExtendedHeader(flag)) {
+                size = entrySize(size, attributes);
+            }
+            long end = pos + TarConstants.HEADER_BLOCK + TarUtils.paddedSize(size);
+            if (end > fileSize) {
+                throw new IOException("Truncated archive, entry at offset " + pos + " extends past end of file");
+            }
+            if (flag == TarHeader.LF_PAX_EXTENDED) {
+                entryStart = entryStart == -1 ? pos : entryStart;
+                attributes = readExtendedHeader(channel, pos, size);
+            } else if (flag != TarHeader.LF_PAX_GLOBAL) {
+                visitor.visit(entryStart == -1 ? pos : entryStart, pos + TarConstants.HEADER_BLOCK, header, size, attributes);
+                entryStart = -1;
+                attributes = Map.of();
+            }
+            pos = end;
+        }
+
+        return pos;
+    }
+
+    private static boolean isExtendedHeader(byte linkFlag) {
+        return linkFlag == TarHeader.LF_PAX_EXTENDED || linkFlag == TarHeader.LF_PAX_GLOBAL;
+    }
+
+    /// Returns the size of an entry, as overridden by its extended header.
+    ///
+    /// @param headerSize the size in the entry header
+    /// @param attributes the extended header attributes of the entry
+    /// @return the entry data size
+    private static long entrySize(long headerSize, Map<String, String> attributes) {
+        String size = attributes.get(PaxHeaders.SIZE);
+        return size == null ? headerSize : Long.parseLong(size);
+    }
+
+    /// Reads the attributes of an extended header.
+    ///
+    /// @param channel      the archive channel
+    /// @param headerOffset the offset of the extended header
+    /// @param size         the size of the extended header records
+    /// @return the attributes
+    /// @throws IOException if there is an IO error, or the records are invalid
+    private static Map<String, String> readExtendedHeader(FileChannel channel, long headerOffset, long size)
+            throws IOException {
+        if (size > PaxHeaders.MAX_SIZE) {
+            throw new IOException("Extended header at offset " + headerOffset + " too large: " + size);
+        }
+        byte[] data = new byte[(int) size];
+        ChannelIo.readFully(channel, ByteBuffer.wrap(data), headerOffset + TarConstants.HEADER_BLOCK);
+        try {
+            return PaxHeaders.parse(data, data.length);
+        } catch (IOException e) {
+            throw new IOException("Extended header at offset " + headerOffset + ": " + e.getMessage(), e);
+        }
+    }
+
+    /// Parses the headers of an entry.
+    ///
+    /// @param headers the header blocks of the entry, from its header offset to its data offset
+    /// @return the entry, with the attributes of its extended header applied
+    /// @throws IOException if the extended header is invalid
+    static TarEntry parseEntry(byte[] headers) throws IOException {
+        int last = headers.length - TarConstants.HEADER_BLOCK;
+        TarEntry entry = new TarEntry(Arrays.copyOfRange(headers, last, headers.length));
+        @Nullable Map<String, String> attributes = null;
+        int pos = 0;
+        while (pos < last) {
+            long size = Octal.parseOctal(headers, pos + TarHeader.SIZE_OFFSET, TarHeader.SIZELEN);
+            int dataOffset = pos + TarConstants.HEADER_BLOCK;
+            if (size > last - dataOffset) {
+                throw new IOException("Extended header extends past entry header");
+            }
+            if (headers[pos + TarHeader.LINKFLAG_OFFSET] == TarHeader.LF_PAX_EXTENDED) {
+                attributes = PaxHeaders.parse(Arrays.copyOfRange(headers, dataOffset, dataOffset + (int) size), (int) size);
+            }
+            pos = dataOffset + (int) TarUtils.paddedSize(size);
+        }
+        if (attributes != null) {
+            entry.applyPaxAttributes(attributes);
+        }
+        return entry;
+    }
+
+    /// Returns the entries in archive order.
+    ///
+    /// @return the entries
+    public List<TarIndexEntry> entries() {
+        return entries;
+    }
+
+    /// Returns the number of entries.
+    ///
+    /// @return the number of entries
+    public int size() {
+        return entries.size();
+    }
+
+    /// Finds an entry by name.
+    ///
+    /// @param name the entry name
+    /// @return the entry, or null if not found
+    public @Nullable TarIndexEntry find(String name) {
+        return byName.get(name);
+    }
+
+    /// Returns the offset of the end-of-archive marker.
+    ///
+    /// This is where new entries should be appended.
+    ///
+    /// @return the end of archive offset
+    public long endOfArchive() {
+        return endOfArchive;
+    }
+}
@@ -0,0 +1,26 @@
+package dk.mada.mjtar;
+
+/// Location of an entry in an archive file.
+///
+/// @param name         the entry name
+/// @param headerOffset the offset of the entry's header block
+/// @param dataOffset   the offset of the entry's data
+/// @param size         the size of the entry's data
+public record TarIndexEntry(String name, long headerOffset, long dataOffset, long size) {
+    /// Returns the offset following the entry's padded data.
+    ///
+    /// This is where the next entry (or the end of the archive) starts.
+    ///
+    /// @return the end offset of the entry
+    public long endOffset() {
+        return dataOffset + TarUtils.paddedSize(size);
+    }
+
+    /// Returns a copy of this entry moved by the given number of bytes.
+    ///
+    /// @param delta the number of bytes to move the entry by
+    /// @return the moved entry
+    public TarIndexEntry shifted(long delta) {
+        return new TarIndexEntry(name, headerOffset + delta, dataOffset + delta, size);
+    }
+}
@@ -17,18 +17,43 @@ package dk.mada.mjtar;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Objects;
 import org.jspecify.annotations.Nullable;
 
 /// Tar input stream, used for reading content from a tar archive.
 ///
 /// @author Kamran Zafar
 public final class TarInputStream extends FilterInputStream {
-
-    private static final int SKIP_BUFFER_SIZE = 2048;
+    /// Size of the internal read buffer. Reads at least this large bypass the buffer.
+    private static final int BUFFER_SIZE = 16 * TarConstants.DATA_BLOCK;
+    /// Read buffer holding bytes fetched from the underlying stream, but not yet consumed.
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    /// Header block reused for every entry.
+    private final byte[] headerBlock = new byte[TarConstants.HEADER_BLOCK];
+    /// Position of the next unconsumed byte in the buffer.
+    private int bufferPos;
+    /// Number of valid bytes in the buffer.
+    private int bufferLimit;
     private @Nullable TarEntry currentEntry;
     private long currentFileSize;
     private long bytesRead;
     private boolean defaultSkip = false;
+    /// True if the archive ended at a complete zero block, the start of the end-of-archive marker.
+    private boolean endBlockRead;
+    private @Nullable TarProgressListener listener;
+    /// Receives lost ranges in recovery mode, null when not recovering.
+    private @Nullable TarRecoveryListener recoveryListener;
+    private boolean verifyDigests;
+    private final Map<DigestAlgorithm, EntryDigest> digests = new EnumMap<>(DigestAlgorithm.class);
+    /// Digest of the current entry, while it is being verified.
+    private @Nullable EntryDigest activeDigest;
+    private byte @Nullable [] expectedDigest;
+    /// Flight recorder event of the current entry, if enabled.
+    private TarEvents.@Nullable EntryRead entryEvent;
 
     public TarInputStream(InputStream in) {
         super(in);
@@ -64,44 +89,104 @@ public final class TarInputStream extends FilterInputStream {
     /// @see java.io.FilterInputStream#read()
     @Override
     public int read() throws IOException {
-        byte[] buf = new byte[1];
-
-        int res = this.read(buf, 0, 1);
-
-        if (res != -1) {
-            return 0xFF & buf[0];
+        if (currentEntry != null && currentFileSize == currentEntry.getSize()) {
+            verifyDigest();
+            return -1;
+        }
+        if (bufferPos == bufferLimit && !fillBuffer()) {
+            return -1;
         }
 
-        return res;
+        consumed(1);
+        int b = 0xFF & buffer[bufferPos++];
+        if (activeDigest != null) {
+            activeDigest.update(b);
+        }
+        return b;
     }
 
     /// Checks if the bytes being read exceed the entry size and adjusts the byte
     /// array length. Updates the byte counters
     ///
+    /// Buffered bytes are used first. Reads of at least the buffer size go directly
+    /// to the underlying stream, smaller reads go via the buffer.
+    ///
     /// @see java.io.FilterInputStream#read(byte[], int, int)
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
         if (currentEntry != null) {
             if (currentFileSize == currentEntry.getSize()) {
+                verifyDigest();
                 return -1;
             } else if ((currentEntry.getSize() - currentFileSize) < len) {
                 len = (int) (currentEntry.getSize() - currentFileSize);
             }
         }
+        if (len == 0) {
+            return 0;
+        }
 
-        int br = super.read(b, off, len);
+        int br;
+        if (bufferPos == bufferLimit && len >= BUFFER_SIZE) {
+            br = in.read(b, off, len);
+        } else if (bufferPos == bufferLimit && !fillBuffer()) {
+            br = -1;
+        } else {
+            br = Math.min(len, bufferLimit - bufferPos);
+            System.arraycopy(buffer, bufferPos, b, off, br);
+            bufferPos += br;
+        }
 
         if (br != -1) {
-            if (currentEntry != null) {
-                currentFileSize += br;
+            consumed(br);
+            if (activeDigest != null) {
+                activeDigest.update(b, off, br);
             }
-
-            bytesRead += br;
         }
 
         return br;
     }
 
+    /// Returns the number of bytes that can be read without blocking.
+    ///
+    /// @return the number of buffered and available bytes, bounded by the current entry size
+    @Override
+    public int available() throws IOException {
+        long available = (long) (bufferLimit - bufferPos) + in.available();
+        if (currentEntry != null) {
+            available = Math.min(available, currentEntry.getSize() - currentFileSize);
+        }
+        return (int) Math.min(available, Integer.MAX_VALUE);
+    }
+
+    /// Refills the empty buffer from the underlying stream.
+    ///
+    /// @return true if data was read, false on end of stream
+    /// @throws IOException if an I/O error occurs
+    private boolean fillBuffer() throws IOException {
+        int res;
+        do {
+            res = in.read(buffer, 0, BUFFER_SIZE);
+        } while (res == 0);
+
+        bufferPos = 0;
+        bufferLimit = Math.max(res, 0);
+        return res > 0;
+    }
+
+    /// Updates the byte counters after bytes have been consumed.
+    ///
+    /// @param count the number of bytes consumed
+    private void consumed(int count) {
+        if (currentEntry != null) {
+            currentFileSize += count;
+        }
+        bytesRead += count;
+        if (listener != null) {
+            listener.bytesTransferred(count);
+        }
+    }
+
     /// Returns the next entry in the tar file.
     ///
     /// TODO probably not a possible null return
@@ -111,36 +196,224 @@ public final class TarInputStream extends FilterInputStream {
     public @Nullable TarEntry getNextEntry() throws IOException {
         closeCurrentEntry();
 
-        byte[] header = new byte[TarConstants.HEADER_BLOCK];
-        byte[] theader = new byte[TarConstants.HEADER_BLOCK];
-        int tr = 0;
+        @Nullable Map<String, String> paxAttributes = null;
+        TarEntry entry;
+        while ((entry = readHeader()) != null && isPaxHeader(entry)) {
+            Map<String, String> attributes = readPaxRecords(entry);
+            if (entry.getHeader().linkFlag == TarHeader.LF_PAX_EXTENDED) {
+                paxAttributes = attributes;
+            }
+        }
 
-        // Read full header
-        while (tr < TarConstants.HEADER_BLOCK) {
-            int res = read(theader, 0, TarConstants.HEADER_BLOCK - tr);
+        if (entry != null) {
+            if (paxAttributes != null) {
+                entry.applyPaxAttributes(paxAttributes);
+            }
+            currentEntry = entry;
+            if (verifyDigests) {
+                startDigest(entry);
+            }
+            if (TarEvents.ENTRY_READ.isEnabled()) {
+                var event = new TarEvents.EntryRead();
+                event.begin();
+                entryEvent = event;
+            }
+            if (listener != null) {
+                listener.entryStarted(entry);
+            }
+        }
 
+        return currentEntry;
+    }
+
+    /// Reads the next header block.
+    ///
+    /// @return the entry of the header, or null at the end of the archive
+    /// @throws IOException if an I/O error occurs
+    private @Nullable TarEntry readHeader() throws IOException {
+        byte[] header = headerBlock;
+        long headerOffset = bytesRead;
+        int tr = readBlock(header);
+
+        TarRecoveryListener recovery = recoveryListener;
+        if (recovery != null) {
+            if (!TarHeader.isPlausibleHeader(header) && !resynchronize(recovery, headerOffset, tr)) {
+                return null;
+            }
+        } else if (TarUtils.isZeroBlock(header, 0, TarConstants.HEADER_BLOCK)) {
+            endBlockRead = tr == TarConstants.HEADER_BLOCK;
+            return null;
+        }
+
+        TarEvents.@Nullable HeaderParse parseEvent = null;
+        if (TarEvents.HEADER_PARSE.isEnabled()) {
+            parseEvent = new TarEvents.HeaderParse();
+            parseEvent.begin();
+        }
+        TarEntry entry = new TarEntry(header);
+        if (parseEvent != null) {
+            parseEvent.name = entry.getName();
+            parseEvent.commit();
+        }
+        return entry;
+    }
+
+    /// Reads a block.
+    ///
+    /// At the end of the stream, the part of the block not read is zero-filled.
+    ///
+    /// @param block the buffer to read the block into
+    /// @return the number of bytes read
+    /// @throws IOException if an I/O error occurs
+    private int readBlock(byte[] block) throws IOException {
+        int tr = 0;
+        while (tr < TarConstants.HEADER_BLOCK) {
+            int res = read(block, tr, TarConstants.HEADER_BLOCK - tr);
             if (res < 0) {
                 break;
             }
+            tr += res;
+        }
+        if (tr < TarConstants.HEADER_BLOCK) {
+            Arrays.fill(block, tr, TarConstants.HEADER_BLOCK, (byte) 0);
+        }
+        return tr;
+    }
+
+    /// Scans forward for the next plausible header, after an invalid header block.
+    ///
+    /// Zero blocks at the end of the stream are the end-of-archive marker and
+    /// padding, so are not reported as lost.
+    ///
+    /// @param recovery    the listener receiving the lost range
+    /// @param start       the offset of the invalid header block
+    /// @param blockLength the number of bytes read of the invalid header block
+    /// @return true if a header was found (and is in the header block), false at the end of the stream
+    /// @throws IOException if an I/O error occurs
+    private boolean resynchronize(TarRecoveryListener recovery, long start, int blockLength) throws IOException {
+        byte[] header = headerBlock;
+        boolean zeros = TarUtils.isZeroBlock(header, 0, TarConstants.HEADER_BLOCK);
+        String reason;
+        if (blockLength < TarConstants.HEADER_BLOCK) {
+            reason = "Truncated header";
+        } else if (zeros) {
+            reason = "Zero blocks before end of archive";
+        } else {
+            reason = "Invalid header checksum or magic";
+        }
 
-            System.arraycopy(theader, 0, header, tr, res);
+        int read = blockLength;
+        while (read == TarConstants.HEADER_BLOCK) {
+            long blockOffset = bytesRead;
+            read = readBlock(header);
+            if (read == TarConstants.HEADER_BLOCK && TarHeader.isPlausibleHeader(header)) {
+                recovery.dataLost(start, blockOffset - start, reason);
+                return true;
+            }
+            zeros = zeros && TarUtils.isZeroBlock(header, 0, TarConstants.HEADER_BLOCK);
+        }
+        if (!zeros) {
+            recovery.dataLost(start, bytesRead - start, reason + ", no further headers");
+        }
+        return false;
+    }
+
+    private static boolean isPaxHeader(TarEntry entry) {
+        byte flag = entry.getHeader().linkFlag;
+        return flag == TarHeader.LF_PAX_EXTENDED || flag == TarHeader.LF_PAX_GLOBAL;
+    }
+
+    /// Reads the records of a PAX header entry.
+    ///
+    /// @param paxEntry the PAX header entry
+    /// @return the attributes
+    /// @throws IOException if an I/O error occurs, or the records are invalid
+    private Map<String, String> readPaxRecords(TarEntry paxEntry) throws IOException {
+        if (paxEntry.getSize() > PaxHeaders.MAX_SIZE) {
+            throw new IOException("PAX header " + paxEntry.getName() + " too large: " + paxEntry.getSize());
+        }
+        long headerOffset = bytesRead - TarConstants.HEADER_BLOCK;
+        byte[] data = new byte[(int) paxEntry.getSize()];
+        currentEntry = paxEntry;
+        int tr = 0;
+        int res;
+        while (tr < data.length && (res = read(data, tr, data.length - tr)) > 0) {
             tr += res;
         }
+        currentEntry = null;
+        currentFileSize = 0L;
+        if (tr < data.length) {
+            throw new IOException("Truncated PAX header " + paxEntry.getName());
+        }
+        skipPad();
+        try {
+            return PaxHeaders.parse(data, tr);
+        } catch (IOException e) {
+            TarRecoveryListener recovery = recoveryListener;
+            if (recovery == null) {
+                throw e;
+            }
+            recovery.dataLost(headerOffset, bytesRead - headerOffset,
+                    "PAX header " + paxEntry.getName() + ": " + e.getMessage());
+            return Map.of();
+        }
+    }
 
-        // Check if record is null
-        boolean eof = true;
-        for (byte b : header) {
-            if (b != 0) {
-                eof = false;
-                break;
+    /// Starts verification of the entry digest, if the entry has one.
+    ///
+    /// @param entry the entry
+    /// @throws IOException if an I/O error occurs, or the digest is invalid
+    private void startDigest(TarEntry entry) throws IOException {
+        for (DigestAlgorithm algorithm : DigestAlgorithm.values()) {
+            String value = entry.getPaxAttributes().get(algorithm.paxKey());
+            if (value != null) {
+                try {
+                    expectedDigest = HexFormat.of().parseHex(value);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid " + algorithm + " digest of entry " + entry.getName() + ": " + value, e);
+                }
+                EntryDigest digest = digests.computeIfAbsent(algorithm, EntryDigest::new);
+                digest.start(entry.getSize());
+                activeDigest = digest;
+                return;
             }
         }
+    }
 
-        if (!eof) {
-            currentEntry = new TarEntry(header);
+    /// Verifies the digest of the current entry, if it is being verified.
+    ///
+    /// @throws IOException if the digest does not match, or an I/O error occurs
+    private void verifyDigest() throws IOException {
+        EntryDigest digest = activeDigest;
+        if (digest == null) {
+            return;
+        }
+        activeDigest = null;
+        byte[] actual = digest.finish();
+        if (!Arrays.equals(actual, expectedDigest)) {
+            HexFormat hex = HexFormat.of();
+            throw new IOException("Digest mismatch for entry " + Objects.requireNonNull(currentEntry).getName()
+                    + ", expected " + digest.algorithm() + " " + hex.formatHex(Objects.requireNonNull(expectedDigest))
+                    + ", was " + hex.formatHex(actual));
         }
+    }
 
-        return currentEntry;
+    /// Checks if the archive ended at the start of an end-of-archive marker.
+    ///
+    /// After [#getNextEntry()] returned null, this tells if the archive ended
+    /// at a complete zero block, rather than at the end of the stream. The
+    /// second block of the marker can then be read from this stream.
+    ///
+    /// @return true if the first block of the end-of-archive marker was read
+    boolean isEndBlockRead() {
+        return endBlockRead;
+    }
+
+    /// Checks the header checksum of the current entry.
+    ///
+    /// @return true if the checksum of the last header block read matches
+    boolean isHeaderChecksumValid() {
+        return TarHeader.isChecksumValid(headerBlock);
     }
 
     /// Returns the current offset (in bytes) from the beginning of the stream.
@@ -155,23 +428,53 @@ public final class TarInputStream extends FilterInputStream {
     private void closeCurrentEntry() throws IOException {
         if (currentEntry != null) {
             if (currentEntry.getSize() > currentFileSize) {
+                TarEvents.@Nullable Skip skipEvent = null;
+                if (TarEvents.SKIP.isEnabled()) {
+                    skipEvent = new TarEvents.Skip();
+                    skipEvent.begin();
+                    skipEvent.name = currentEntry.getName();
+                    skipEvent.bytes = currentEntry.getSize() - currentFileSize;
+                }
                 // Not fully read, skip rest of the bytes
                 long bs = 0;
                 while (bs < currentEntry.getSize() - currentFileSize) {
                     long res = skip(currentEntry.getSize() - currentFileSize - bs);
 
                     if (res == 0 && currentEntry.getSize() - currentFileSize > 0) {
-                        // I suspect file corruption
-                        throw new IOException("Possible tar file corruption");
+                        TarRecoveryListener recovery = recoveryListener;
+                        if (recovery == null) {
+                            // I suspect file corruption
+                            throw new IOException("Possible tar file corruption");
+                        }
+                        recovery.dataLost(bytesRead, currentEntry.getSize() - currentFileSize,
+                                "Entry " + currentEntry.getName() + " truncated at end of stream");
+                        // Already reported, so do not also fail the digest
+                        activeDigest = null;
+                        break;
                     }
 
                     bs += res;
                 }
+                if (skipEvent != null) {
+                    skipEvent.commit();
+                }
             }
+            verifyDigest();
 
+            TarEntry finished = currentEntry;
             currentEntry = null;
             currentFileSize = 0L;
             skipPad();
+            if (listener != null) {
+                listener.entryFinished(finished);
+            }
+            TarEvents.EntryRead event = entryEvent;
+            if (event != null) {
+                entryEvent = null;
+                event.name = finished.getName();
+                event.size = finished.getSize();
+                event.commit();
+            }
         }
     }
 
@@ -186,6 +489,10 @@ public final class TarInputStream extends FilterInputStream {
                 long bs = 0;
                 while (bs < TarConstants.DATA_BLOCK - extra) {
                     long res = skip(TarConstants.DATA_BLOCK - extra - bs);
+                    if (res == 0) {
+                        // end of stream
+                        break;
+                    }
                     bs += res;
                 }
             }
@@ -194,35 +501,108 @@ public final class TarInputStream extends FilterInputStream {
 
     /// Skips 'n' bytes on the InputStream<br>
     /// Overrides default implementation of skip
+    ///
+    /// Buffered bytes are skipped first.
     @Override
     public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+
         if (defaultSkip) {
             // use skip method of parent stream
             // may not work if skip not implemented by parent
-            long bs = super.skip(n);
+            // Skipped data cannot be digested
+            activeDigest = null;
+            long bs = Math.min(n, bufferLimit - bufferPos);
+            bufferPos += (int) bs;
+            if (bs < n) {
+                bs += in.skip(n - bs);
+            }
             bytesRead += bs;
+            if (listener != null) {
+                listener.bytesTransferred(bs);
+            }
 
             return bs;
         }
 
-        if (n <= 0) {
-            return 0;
-        }
-
         long left = n;
-        byte[] sBuff = new byte[SKIP_BUFFER_SIZE];
-
         while (left > 0) {
-            int res = read(sBuff, 0, (int) (left < SKIP_BUFFER_SIZE ? left : SKIP_BUFFER_SIZE));
-            if (res < 0) {
+            long chunk = left;
+            if (currentEntry != null) {
+                chunk = Math.min(chunk, currentEntry.getSize() - currentFileSize);
+                if (chunk == 0) {
+                    break;
+                }
+            }
+            if (bufferPos == bufferLimit && !fillBuffer()) {
                 break;
             }
+
+            int res = (int) Math.min(chunk, bufferLimit - bufferPos);
+            if (activeDigest != null) {
+                activeDigest.update(buffer, bufferPos, res);
+            }
+            bufferPos += res;
+            consumed(res);
             left -= res;
         }
 
         return n - left;
     }
 
+    /// Enables verification of entry digests.
+    ///
+    /// Entries with a digest in their PAX extended header (see
+    /// [TarOutputStream#setDigest(DigestAlgorithm)]) are digested as their
+    /// data is read or skipped, and verified when the end of the entry data
+    /// is reached. A mismatch is reported as an IOException from the read
+    /// reaching the end of the data, or from [#getNextEntry()].
+    ///
+    /// Entries skipped with the default skip (see [#setDefaultSkip(boolean)])
+    /// are not verified.
+    ///
+    /// @param verifyDigests true to verify digests
+    public void setVerifyDigests(boolean verifyDigests) {
+        this.verifyDigests = verifyDigests;
+    }
+
+    /// Closes the stream.
+    ///
+    /// @throws IOException if an I/O error occurs
+    @Override
+    public void close() throws IOException {
+        digests.values().forEach(EntryDigest::close);
+        super.close();
+    }
+
+    /// Enables recovery mode, for reading damaged archives.
+    ///
+    /// In recovery mode, every header is checked for a valid checksum and
+    /// the ustar magic before it is used. When a header fails the check, the
+    /// stream is scanned forward block by block for the next plausible
+    /// header, and reading continues from there. The skipped range is
+    /// reported to the listener, as are entries truncated by the end of the
+    /// stream and invalid PAX headers (whose attributes are then ignored).
+    ///
+    /// As zero blocks are skipped like other invalid headers, reading
+    /// continues past an end-of-archive marker followed by more entries.
+    /// Archives without ustar magic (old V7 archives) cannot be read in
+    /// recovery mode.
+    ///
+    /// @param recoveryListener the listener receiving lost ranges, or null to disable recovery mode
+    public void setRecoveryListener(@Nullable TarRecoveryListener recoveryListener) {
+        this.recoveryListener = recoveryListener;
+    }
+
+    /// Sets the listener receiving progress events.
+    ///
+    /// @param listener the listener, or null to remove the listener
+    public void setProgressListener(@Nullable TarProgressListener listener) {
+        this.listener = listener;
+    }
+
     public boolean isDefaultSkip() {
         return defaultSkip;
     }
@@ -15,13 +15,19 @@
 package dk.mada.mjtar;
 
 import java.io.BufferedOutputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
 import org.jspecify.annotations.Nullable;
 
 /// Tar output stream, used for writing content to a tar archive.
@@ -30,13 +36,48 @@ import org.jspecify.annotations.Nullable;
 ///
 /// @author Kamran Zafar
 public final class TarOutputStream extends OutputStream {
+    /// Shared zero block used for padding and the EOF record. Must never be written to.
+    private static final byte[] ZERO_BLOCK = new byte[TarConstants.EOF_BLOCK];
+    /// Number of completed digests held before they are written to the archive file.
+    private static final int DIGEST_PATCH_BATCH = 64;
+    /// Header block reused for every entry.
+    private final byte[] headerBlock = new byte[TarConstants.HEADER_BLOCK];
     private final OutputStream out;
+    /// The archive file channel, if writing to a file opened by this class.
+    private final @Nullable FileChannel channel;
+    /// The archive file, if checkpointing.
+    private final @Nullable Path checkpointArchive;
+    private final @Nullable CheckpointPolicy checkpointPolicy;
+    private @Nullable TarCheckpoint checkpoint;
+    /// Archive offset where this stream started writing.
+    private long startOffset;
+    private long entriesWritten;
+    private long entriesAtCheckpoint;
+    private long bytesAtCheckpoint;
+    private long checkpointCount;
+    private long checkpointNanos;
+    private String currentToken = "";
     private long bytesWritten;
     private long currentFileSize;
     private @Nullable TarEntry currentEntry;
+    /// Cached directory state of the current entry.
+    private boolean currentEntryIsDirectory;
+    private @Nullable TarProgressListener listener;
+    /// Flight recorder event of the current entry, if enabled.
+    private TarEvents.@Nullable EntryWrite entryEvent;
+    private @Nullable EntryDigest entryDigest;
+    /// True while the data of the current entry is digested.
+    private boolean digesting;
+    /// Archive offset of the digest value in the extended header of the current entry.
+    private long digestValueOffset;
+    /// Completed digests not yet written into their extended headers.
+    private final List<DigestPatch> pendingDigests = new ArrayList<>();
 
     public TarOutputStream(OutputStream out) {
         this.out = out;
+        this.channel = null;
+        this.checkpointArchive = null;
+        this.checkpointPolicy = null;
         bytesWritten = 0;
         currentFileSize = 0;
     }
@@ -46,33 +87,157 @@ public final class TarOutputStream extends OutputStream {
     /// @param fout the file to write to
     /// @throws IOException if there is an IO error
     public TarOutputStream(final Path fout) throws IOException {
-        this.out = new BufferedOutputStream(Files.newOutputStream(fout));
-        bytesWritten = 0;
-        currentFileSize = 0;
+        this(openChannel(fout, false, null), null, null, null);
     }
 
     /// Opens an archive file for writing/appending to.
     ///
     /// If append is true, will assume the file is an archive and append
-    /// data before its eof-block. If the file is smaller than the eof-block
-    /// it will be replaced regardless of the append state.
+    /// data at its end-of-archive marker. The marker is found by following
+    /// the entry headers from the start of the file, so this costs a seek
+    /// per entry, regardless of the size of the entry data. Any padding
+    /// after the marker (such as the blocking factor padding added by GNU tar)
+    /// is removed when the stream is closed. If the file is empty, a new
+    /// archive is written.
     ///
+    /// If append is false, the file is replaced.
     ///
     /// @param fout the file to write/append to
     /// @param append a flag for selecting to append at end of an existing archive
-    /// @throws FileNotFoundException if the file exists but is a directory rather than a regular file, does not
-    ///  exist but cannot be created, or cannot be opened for any other reason
-    /// @throws IOException if an I/O error occurs
+    /// @throws IOException if an I/O error occurs, or the file is not a valid archive
     public TarOutputStream(final Path fout, final boolean append) throws IOException {
-        java.io.File file = fout.toFile();
-        @SuppressWarnings("resource")
-        RandomAccessFile raf = new RandomAccessFile(file, "rw");
-        final long fileSize = file.length();
-        if (append && fileSize > TarConstants.EOF_BLOCK) {
-            raf.seek(fileSize - TarConstants.EOF_BLOCK);
+        this(openChannel(fout, append, null), null, null, null);
+    }
+
+    /// Opens an archive file for appending to, using an existing index.
+    ///
+    /// The index provides the location of the end-of-archive marker, so the
+    /// file does not need to be scanned.
+    ///
+    /// @param fout  the archive file to append to
+    /// @param index the current index of the archive file
+    /// @throws IOException if an I/O error occurs, or the index does not match the file
+    public TarOutputStream(final Path fout, final TarIndex index) throws IOException {
+        this(openChannel(fout, true, index), null, null, null);
+    }
+
+    /// Opens a new archive file for writing, with checkpoints.
+    ///
+    /// Checkpoints are taken after completed entries, as given by the policy,
+    /// and saved next to the archive, see [TarCheckpoint]. If writing is
+    /// interrupted, it can be continued with [#resume(Path, CheckpointPolicy)].
+    /// The checkpoint file is deleted when the stream is closed.
+    ///
+    /// @param fout   the file to write to, replaced if it exists
+    /// @param policy the checkpoint policy
+    /// @throws IOException if an I/O error occurs
+    public TarOutputStream(final Path fout, final CheckpointPolicy policy) throws IOException {
+        this(openChannel(fout, false, null), fout, policy, null);
+        Files.deleteIfExists(TarCheckpoint.file(fout));
+    }
+
+    private TarOutputStream(FileChannel channel, @Nullable Path checkpointArchive,
+            @Nullable CheckpointPolicy checkpointPolicy, @Nullable TarCheckpoint resumed) throws IOException {
+        this.channel = channel;
+        this.out = new BufferedOutputStream(Channels.newOutputStream(channel));
+        this.checkpointArchive = checkpointArchive;
+        this.checkpointPolicy = checkpointPolicy;
+        this.checkpoint = resumed;
+        this.startOffset = channel.position();
+        this.entriesWritten = resumed == null ? 0 : resumed.entries();
+        this.entriesAtCheckpoint = entriesWritten;
+    }
+
+    /// Continues writing an archive file from its last checkpoint.
+    ///
+    /// The archive is truncated to the checkpoint offset, dropping any partially
+    /// written entries following it. Use [#getCheckpoint()] to find the last
+    /// completed entry, and continue writing from the entry after it.
+    ///
+    /// If there is no checkpoint, the archive is written from the start.
+    ///
+    /// @param fout   the archive file to resume writing
+    /// @param policy the checkpoint policy
+    /// @return the output stream, positioned at the checkpoint
+    /// @throws IOException if an I/O error occurs, or the checkpoint does not match the archive
+    public static TarOutputStream resume(final Path fout, final CheckpointPolicy policy) throws IOException {
+        TarCheckpoint resumed = TarCheckpoint.load(fout);
+        if (resumed == null) {
+            return new TarOutputStream(fout, policy);
+        }
+
+        FileChannel channel = FileChannel.open(fout, StandardOpenOption.WRITE);
+        try {
+            if (resumed.offset() > channel.size()) {
+                throw new IOException("Checkpoint offset " + resumed.offset() + " is past the end of " + fout);
+            }
+            channel.truncate(resumed.offset());
+            channel.position(resumed.offset());
+            return new TarOutputStream(channel, fout, policy, resumed);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
         }
-        // TODO else throw illegal argument, file not big enough to be the expected tar-archive
-        out = new BufferedOutputStream(new FileOutputStream(raf.getFD()));
+    }
+
+    /// Opens an archive file channel positioned where new entries should be written.
+    ///
+    /// @param file   the archive file
+    /// @param append true to append to the existing archive
+    /// @param index  the index of the archive, or null to scan the archive for its end
+    /// @return the positioned channel
+    /// @throws IOException if an I/O error occurs, or the file is not a valid archive
+    private static FileChannel openChannel(Path file, boolean append, @Nullable TarIndex index) throws IOException {
+        FileChannel channel = append
+                ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)
+                : FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            long end = 0;
+            if (index != null) {
+                end = index.endOfArchive();
+                if (end > channel.size()) {
+                    throw new IOException("Index end of archive " + end + " is past the end of " + file);
+                }
+            } else if (append) {
+                end = findEndOfArchive(channel, file);
+            }
+            channel.position(end);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /// Finds the end-of-archive marker of an archive file to append to.
+    ///
+    /// The file must be empty, or start with a header block or the end-of-archive
+    /// marker, and every entry header must have a valid checksum. Otherwise the
+    /// file is not an archive, and appending would overwrite its content.
+    ///
+    /// @param channel the archive channel
+    /// @param file    the archive file
+    /// @return the offset of the end-of-archive marker
+    /// @throws IOException if an I/O error occurs, or the file is not a valid archive
+    private static long findEndOfArchive(FileChannel channel, Path file) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize == 0) {
+            return 0;
+        }
+        if (fileSize < TarConstants.HEADER_BLOCK) {
+            throw new IOException("Cannot append to " + file + ", it is too short to be an archive");
+        }
+        byte[] first = new byte[TarConstants.HEADER_BLOCK];
+        ChannelIo.readFully(channel, ByteBuffer.wrap(first), 0);
+        if (!TarUtils.isZeroBlock(first, 0, TarConstants.HEADER_BLOCK) && !TarHeader.isChecksumValid(first)) {
+            throw new IOException("Cannot append to " + file + ", it does not start with an archive header");
+        }
+        return TarIndex.scanHeaders(channel, (headerOffset, dataOffset, header, size, attributes) -> {
+            if (!TarHeader.isChecksumValid(header)) {
+                throw new IOException("Cannot append to " + file + ", invalid header checksum at offset "
+                        + (dataOffset - TarConstants.HEADER_BLOCK));
+            }
+        });
     }
 
     /// Appends the EOF record and closes the stream
@@ -81,8 +246,72 @@ public final class TarOutputStream extends OutputStream {
     @Override
     public void close() throws IOException {
         closeCurrentEntry();
-        write(new byte[TarConstants.EOF_BLOCK]);
+        if (entryDigest != null) {
+            entryDigest.close();
+        }
+        write(ZERO_BLOCK, 0, TarConstants.EOF_BLOCK);
+        if (channel != null) {
+            writeDigests();
+            // Drop whatever followed the previous end of the file
+            channel.truncate(channel.position());
+        }
         out.close();
+        if (checkpointArchive != null) {
+            Files.deleteIfExists(TarCheckpoint.file(checkpointArchive));
+        }
+    }
+
+    /// Checkpoint statistics.
+    ///
+    /// @param checkpoints the number of checkpoints taken
+    /// @param nanos       the total time spent taking checkpoints
+    public record CheckpointStats(long checkpoints, long nanos) {
+    }
+
+    /// Returns the last checkpoint.
+    ///
+    /// For a resumed stream this is initially the checkpoint that was resumed from.
+    ///
+    /// @return the last checkpoint, or null if there is none
+    public @Nullable TarCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /// Returns statistics of the checkpoints taken by this stream.
+    ///
+    /// @return the checkpoint statistics
+    public CheckpointStats getCheckpointStats() {
+        return new CheckpointStats(checkpointCount, checkpointNanos);
+    }
+
+    /// Sets the digest computed over the data of each entry.
+    ///
+    /// The digest is stored as a hex string in a PAX extended header
+    /// preceding the entry, see [DigestAlgorithm#paxKey()]. It is computed
+    /// while the entry data is written, and patched into the extended header
+    /// after the entry is completed, so it is only supported when writing to
+    /// an archive file opened by this class. The patches are collected and
+    /// written in batches, at checkpoints and when the stream is closed.
+    ///
+    /// Only regular file entries get digests.
+    ///
+    /// @param algorithm the digest algorithm, or null to stop computing digests
+    /// @throws IllegalStateException if the stream does not write to a file channel
+    public void setDigest(@Nullable DigestAlgorithm algorithm) {
+        if (algorithm != null && channel == null) {
+            throw new IllegalStateException("Digests can only be stored when writing to an archive file");
+        }
+        if (entryDigest != null) {
+            entryDigest.close();
+        }
+        entryDigest = algorithm == null ? null : new EntryDigest(algorithm);
+    }
+
+    /// Sets the listener receiving progress events.
+    ///
+    /// @param listener the listener, or null to remove the listener
+    public void setProgressListener(@Nullable TarProgressListener listener) {
+        this.listener = listener;
     }
 
     /// Writes a byte to the stream and updates byte counters
@@ -92,10 +321,16 @@ public final class TarOutputStream extends OutputStream {
     public void write(int b) throws IOException {
         out.write(b);
         bytesWritten += 1;
+        if (digesting) {
+            Objects.requireNonNull(entryDigest).update(b);
+        }
 
         if (currentEntry != null) {
             currentFileSize += 1;
         }
+        if (listener != null) {
+            listener.bytesTransferred(1);
+        }
     }
 
     /// Checks if the bytes being written exceed the current entry size.
@@ -103,7 +338,7 @@ public final class TarOutputStream extends OutputStream {
     /// @see java.io.FilterOutputStream#write(byte[], int, int)
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
-        if (currentEntry != null && !currentEntry.isDirectory()) {
+        if (currentEntry != null && !currentEntryIsDirectory) {
             if (currentEntry.getSize() < currentFileSize + len) {
                 throw new IOException("The current entry[" + currentEntry.getName() + "] size["
                         + currentEntry.getSize() + "] is smaller than the bytes[" + (currentFileSize + len)
@@ -114,24 +349,63 @@ public final class TarOutputStream extends OutputStream {
         out.write(b, off, len);
 
         bytesWritten += len;
+        if (digesting) {
+            Objects.requireNonNull(entryDigest).update(b, off, len);
+        }
 
         if (currentEntry != null) {
             currentFileSize += len;
         }
+        if (listener != null) {
+            listener.bytesTransferred(len);
+        }
+    }
+
+    /// Writes the next tar entry header on the stream, with a resume token.
+    ///
+    /// The token is recorded in checkpoints taken after the entry is
+    /// completed, and can be used to locate the entry's source when resuming,
+    /// for example a position in a directory walk.
+    ///
+    /// @param entry the entry to write
+    /// @param token the resume token for the entry
+    /// @throws IOException if an I/O error occurs
+    public void putNextEntry(TarEntry entry, String token) throws IOException {
+        putNextEntry(entry);
+        currentToken = token;
     }
 
     /// Writes the next tar entry header on the stream
     ///
+    /// The PAX attributes the entry was read with, and names and link names
+    /// that do not fit in the ustar header fields, are stored in a PAX
+    /// extended header preceding the entry.
+    ///
     /// @throws IOException if an I/O error occurs
     public void putNextEntry(TarEntry entry) throws IOException {
         closeCurrentEntry();
+        currentToken = "";
+        @Nullable EntryDigest digest = isRegularFile(entry) ? entryDigest : null;
+        byte[] records = PaxHeaders.records(entry, digest == null ? null : digest.algorithm());
+        if (records.length > 0 || digest != null) {
+            writeExtendedHeader(entry, records, digest);
+        }
+        if (TarEvents.ENTRY_WRITE.isEnabled()) {
+            var event = new TarEvents.EntryWrite();
+            event.begin();
+            entryEvent = event;
+        }
 
-        byte[] header = new byte[TarConstants.HEADER_BLOCK];
-        entry.writeEntryHeader(header);
+        entry.writeEntryHeader(headerBlock);
 
-        write(header);
+        write(headerBlock, 0, TarConstants.HEADER_BLOCK);
 
         currentEntry = entry;
+        currentEntryIsDirectory = entry.isDirectory();
+        digesting = digest != null;
+        if (listener != null) {
+            listener.entryStarted(entry);
+        }
     }
 
     /// Closes the current tar entry
@@ -144,13 +418,117 @@ public final class TarOutputStream extends OutputStream {
                         + currentEntry.getSize() + "] has not been fully written.");
             }
 
+            TarEntry completed = currentEntry;
             currentEntry = null;
             currentFileSize = 0;
+            if (digesting) {
+                digesting = false;
+                patchDigest(Objects.requireNonNull(entryDigest));
+            }
 
             pad();
+            if (listener != null) {
+                listener.entryFinished(completed);
+            }
+            TarEvents.EntryWrite event = entryEvent;
+            if (event != null) {
+                entryEvent = null;
+                event.name = completed.getName();
+                event.size = completed.getSize();
+                event.commit();
+            }
+
+            if (checkpointPolicy != null) {
+                entriesWritten++;
+                if (checkpointPolicy.isDue(entriesWritten - entriesAtCheckpoint, bytesWritten - bytesAtCheckpoint)) {
+                    checkpoint(completed);
+                }
+            }
         }
     }
 
+    private static boolean isRegularFile(TarEntry entry) {
+        byte flag = entry.getHeader().linkFlag;
+        return !entry.isDirectory()
+                && (flag == TarHeader.LF_NORMAL || flag == TarHeader.LF_OLDNORM || flag == TarHeader.LF_CONTIG);
+    }
+
+    /// Writes a PAX extended header for an entry.
+    ///
+    /// @param entry   the entry the header applies to
+    /// @param records the encoded records of the entry
+    /// @param digest  the entry digest to write a placeholder record for, or null
+    /// @throws IOException if an I/O error occurs
+    private void writeExtendedHeader(TarEntry entry, byte[] records, @Nullable EntryDigest digest) throws IOException {
+        byte[] digestRecord = new byte[0];
+        int valueLength = 0;
+        if (digest != null) {
+            DigestAlgorithm algorithm = digest.algorithm();
+            valueLength = algorithm.length() * 2;
+            digestRecord = PaxHeaders.record(algorithm.paxKey(), "0".repeat(valueLength));
+        }
+        PaxHeaders.headerFor(entry, records.length + digestRecord.length).writeEntryHeader(headerBlock);
+        write(headerBlock, 0, TarConstants.HEADER_BLOCK);
+        write(records, 0, records.length);
+        // The value is followed by the record terminating newline
+        digestValueOffset = startOffset + bytesWritten + digestRecord.length - 1 - valueLength;
+        write(digestRecord, 0, digestRecord.length);
+        pad();
+        if (digest != null) {
+            digest.start(entry.getSize());
+        }
+    }
+
+    /// Records the completed digest of the current entry for writing into its extended header.
+    ///
+    /// @param digest the entry digest
+    /// @throws IOException if an I/O error occurs
+    private void patchDigest(EntryDigest digest) throws IOException {
+        byte[] value = HexFormat.of().formatHex(digest.finish()).getBytes(StandardCharsets.US_ASCII);
+        pendingDigests.add(new DigestPatch(digestValueOffset, value));
+        if (pendingDigests.size() >= DIGEST_PATCH_BATCH) {
+            writeDigests();
+        }
+    }
+
+    /// Flushes the buffered archive data, and writes the pending digests into their extended headers.
+    ///
+    /// The flush must come first, as the buffered data may hold the placeholders of the digests.
+    ///
+    /// @throws IOException if an I/O error occurs
+    private void writeDigests() throws IOException {
+        out.flush();
+        for (DigestPatch patch : pendingDigests) {
+            ChannelIo.writeFully(Objects.requireNonNull(channel), ByteBuffer.wrap(patch.value()), patch.offset());
+        }
+        pendingDigests.clear();
+    }
+
+    /// A completed digest waiting to be written.
+    ///
+    /// @param offset the archive offset of the digest value
+    /// @param value  the hex encoded digest value
+    private record DigestPatch(long offset, byte[] value) {
+    }
+
+    /// Forces the archive data to storage, and saves a checkpoint.
+    ///
+    /// @param completed the last completed entry
+    /// @throws IOException if an I/O error occurs
+    private void checkpoint(TarEntry completed) throws IOException {
+        FileChannel fc = Objects.requireNonNull(channel);
+        long start = System.nanoTime();
+        writeDigests();
+        fc.force(false);
+        TarCheckpoint next = new TarCheckpoint(startOffset + bytesWritten, entriesWritten, completed.getName(), currentToken);
+        next.save(Objects.requireNonNull(checkpointArchive));
+        checkpoint = next;
+        entriesAtCheckpoint = entriesWritten;
+        bytesAtCheckpoint = bytesWritten;
+        checkpointCount++;
+        checkpointNanos += System.nanoTime() - start;
+    }
+
     /// Pads the last content block
     ///
     /// @throws IOException if an I/O error occurs
@@ -159,7 +537,16 @@ public final class TarOutputStream extends OutputStream {
             int extra = (int) (bytesWritten % TarConstants.DATA_BLOCK);
 
             if (extra > 0) {
-                write(new byte[TarConstants.DATA_BLOCK - extra]);
+                TarEvents.@Nullable Pad event = null;
+                if (TarEvents.PAD.isEnabled()) {
+                    event = new TarEvents.Pad();
+                    event.begin();
+                }
+                write(ZERO_BLOCK, 0, TarConstants.DATA_BLOCK - extra);
+                if (event != null) {
+                    event.bytes = TarConstants.DATA_BLOCK - extra;
+                    event.commit();
+                }
             }
         }
     }
@@ -0,0 +1,178 @@
+package dk.mada.mjtar;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import org.jspecify.annotations.Nullable;
+
+/// Path trie over archive entries.
+///
+/// Answers subtree and child-listing queries in time proportional to the size of
+/// the result, instead of testing every entry of the archive. Useful for listing
+/// tools and for selecting entries to extract.
+///
+/// Entry names are split into path segments on '/', so full names (from
+/// [TarEntry#getName()], which joins the ustar name prefix and name) and
+/// directory names with or without a trailing '/' are handled alike. Directories
+/// that only exist implicitly, as the parent of other entries, are included
+/// in the trie but have no item.
+///
+/// The index is not modified after construction, and can be shared between threads.
+///
+/// @param <T> the type of indexed items
+public final class TarPathIndex<T> {
+    private final Node<T> root = new Node<>();
+    private int size;
+
+    /// Trie node for one path segment.
+    ///
+    /// @param <T> the type of indexed items
+    private static final class Node<T> {
+        private final Map<String, Node<T>> children = new TreeMap<>();
+        private @Nullable T item;
+    }
+
+    private TarPathIndex() {
+        // use factory methods
+    }
+
+    /// Builds a path index.
+    ///
+    /// If a name occurs more than once, the last item wins.
+    ///
+    /// @param <T>   the type of indexed items
+    /// @param items the items to index
+    /// @param name  function providing the entry name of an item
+    /// @return the path index
+    public static <T> TarPathIndex<T> build(Iterable<T> items, Function<? super T, String> name) {
+        TarPathIndex<T> index = new TarPathIndex<>();
+        for (T item : items) {
+            index.add(name.apply(item), item);
+        }
+        return index;
+    }
+
+    /// Builds a path index over the entries of an archive index.
+    ///
+    /// @param index the archive index
+    /// @return the path index
+    public static TarPathIndex<TarIndexEntry> of(TarIndex index) {
+        return build(index.entries(), TarIndexEntry::name);
+    }
+
+    /// Builds a path index over tar entries.
+    ///
+    /// @param entries the entries
+    /// @return the path index
+    public static TarPathIndex<TarEntry> ofEntries(Collection<TarEntry> entries) {
+        return build(entries, TarEntry::getName);
+    }
+
+    /// Returns the number of indexed items.
+    ///
+    /// @return the number of items
+    public int size() {
+        return size;
+    }
+
+    /// Finds the item with a name.
+    ///
+    /// @param name the entry name
+    /// @return the item, or null if not found
+    public @Nullable T get(String name) {
+        Node<T> node = find(name);
+        return node == null ? null : node.item;
+    }
+
+    /// Checks if a path exists, either as an entry or implicitly as a parent directory of entries.
+    ///
+    /// @param path the path to check
+    /// @return true if the path exists
+    public boolean contains(String path) {
+        return find(path) != null;
+    }
+
+    /// Lists the names of the immediate children of a directory.
+    ///
+    /// Implicit directories are included.
+    ///
+    /// @param dir the directory, or the empty string for the top level
+    /// @return the child names (last path segment only) in sorted order, empty if the directory does not exist
+    public List<String> children(String dir) {
+        Node<T> node = find(dir);
+        return node == null ? List.of() : List.copyOf(node.children.keySet());
+    }
+
+    /// Lists the items in a directory subtree.
+    ///
+    /// This includes the item for the directory itself, if there is one.
+    ///
+    /// @param dir the directory, or the empty string for all items
+    /// @return the items in the subtree, in path order
+    public List<T> subtree(String dir) {
+        Node<T> start = find(dir);
+        if (start == null) {
+            return List.of();
+        }
+
+        List<T> result = new ArrayList<>();
+        Deque<Node<T>> pending = new ArrayDeque<>();
+        pending.push(start);
+        while (!pending.isEmpty()) {
+            Node<T> node = pending.pop();
+            if (node.item != null) {
+                result.add(node.item);
+            }
+            // Push in reverse to visit children in sorted order
+            List<Node<T>> children = new ArrayList<>(node.children.values());
+            for (int i = children.size() - 1; i >= 0; i--) {
+                pending.push(children.get(i));
+            }
+        }
+        return result;
+    }
+
+    private void add(String name, T item) {
+        Node<T> node = root;
+        for (String segment : segments(name)) {
+            node = node.children.computeIfAbsent(segment, s -> new Node<>());
+        }
+        if (node.item == null) {
+            size++;
+        }
+        node.item = item;
+    }
+
+    private @Nullable Node<T> find(String path) {
+        Node<T> node = root;
+        for (String segment : segments(path)) {
+            node = node.children.get(segment);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    /// Splits a path into its non-empty segments, ignoring '.' segments.
+    private static List<String> segments(String path) {
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        while (start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end == -1) {
+                end = path.length();
+            }
+            if (end > start && !(end - start == 1 && path.charAt(start) == '.')) {
+                result.add(path.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,135 @@
+package dk.mada.mjtar;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.jspecify.annotations.Nullable;
+
+/// Progress metrics of archive streams.
+///
+/// Counts entries and archive bytes, and provides snapshots with throughput
+/// and estimated time of completion. The counters are striped, so one
+/// instance can be shared by streams on several threads, and snapshots
+/// can be taken from any thread while the streams are in use.
+///
+/// Attach it with [TarInputStream#setProgressListener(TarProgressListener)]
+/// or [TarOutputStream#setProgressListener(TarProgressListener)].
+public final class TarProgress implements TarProgressListener {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
+    private final LongAdder entries = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final long expectedBytes;
+    private final long startNanos;
+    private volatile @Nullable TarEntry currentEntry;
+    private long lastSampleNanos;
+    private long lastSampleBytes;
+
+    /// A progress snapshot.
+    ///
+    /// @param entries        the number of finished entries
+    /// @param bytes          the number of archive bytes transferred
+    /// @param expectedBytes  the expected total number of archive bytes, 0 if unknown
+    /// @param elapsedNanos   the time since the progress was created
+    /// @param bytesPerSecond the throughput
+    /// @param currentEntry   the name of the last started entry, or null if none
+    public record Snapshot(long entries, long bytes, long expectedBytes, long elapsedNanos, double bytesPerSecond,
+            @Nullable String currentEntry) {
+        /// Returns the throughput in MiB per second.
+        ///
+        /// @return the throughput in MiB/s
+        public double megabytesPerSecond() {
+            return bytesPerSecond / BYTES_PER_MB;
+        }
+
+        /// Returns the completed fraction.
+        ///
+        /// @return the fraction of the expected bytes transferred, or 0 if unknown
+        public double fraction() {
+            return expectedBytes == 0 ? 0 : Math.min(1.0, (double) bytes / expectedBytes);
+        }
+
+        /// Returns the estimated time until completion, at the current throughput.
+        ///
+        /// @return the estimated remaining time, or null if the expected size or the throughput is unknown
+        public @Nullable Duration eta() {
+            if (expectedBytes == 0 || bytesPerSecond <= 0) {
+                return null;
+            }
+            long remaining = Math.max(0, expectedBytes - bytes);
+            return Duration.ofNanos((long) (remaining * NANOS_PER_SECOND / bytesPerSecond));
+        }
+    }
+
+    /// Creates progress metrics without an expected size.
+    public TarProgress() {
+        this(0);
+    }
+
+    /// Creates progress metrics.
+    ///
+    /// For writing, the expected size can be found with
+    /// [TarUtils#calculateTarSize(java.nio.file.Path)]; for reading, it is
+    /// the size of the archive.
+    ///
+    /// @param expectedBytes the expected total number of archive bytes, 0 if unknown
+    public TarProgress(long expectedBytes) {
+        if (expectedBytes < 0) {
+            throw new IllegalArgumentException("Expected bytes must not be negative, was " + expectedBytes);
+        }
+        this.expectedBytes = expectedBytes;
+        this.startNanos = System.nanoTime();
+        this.lastSampleNanos = startNanos;
+    }
+
+    @Override
+    public void entryStarted(TarEntry entry) {
+        currentEntry = entry;
+    }
+
+    @Override
+    public void entryFinished(TarEntry entry) {
+        entries.increment();
+    }
+
+    @Override
+    public void bytesTransferred(long count) {
+        bytes.add(count);
+    }
+
+    /// Returns a snapshot with the average throughput since the progress was created.
+    ///
+    /// @return the snapshot
+    public Snapshot snapshot() {
+        long now = System.nanoTime();
+        long total = bytes.sum();
+        return snapshot(now, total, rate(total, now - startNanos));
+    }
+
+    /// Returns a snapshot with the throughput since the previous sample.
+    ///
+    /// Intended to be called at intervals by a single reporting thread,
+    /// giving the recent throughput of long running jobs. The first sample
+    /// gives the throughput since the progress was created.
+    ///
+    /// @return the snapshot
+    public synchronized Snapshot sample() {
+        long now = System.nanoTime();
+        long total = bytes.sum();
+        double bytesPerSecond = rate(total - lastSampleBytes, now - lastSampleNanos);
+        lastSampleNanos = now;
+        lastSampleBytes = total;
+        return snapshot(now, total, bytesPerSecond);
+    }
+
+    private Snapshot snapshot(long now, long total, double bytesPerSecond) {
+        TarEntry entry = currentEntry;
+        return new Snapshot(entries.sum(), total, expectedBytes, now - startNanos, bytesPerSecond,
+                entry == null ? null : entry.getName());
+    }
+
+    private static double rate(long count, long nanos) {
+        return nanos <= 0 ? 0 : count * (double) NANOS_PER_SECOND / nanos;
+    }
+}
@@ -0,0 +1,43 @@
+package dk.mada.mjtar;
+
+/// Receives progress events from [TarInputStream] and [TarOutputStream].
+///
+/// The methods are called on the thread using the stream, and should return
+/// quickly. [#bytesTransferred(long)] is called for every read or write of
+/// the stream, so it should do no more than update a counter. See
+/// [TarProgress] for a listener collecting metrics that can be read from
+/// other threads.
+///
+/// Streams without a listener do not pay for the events.
+public interface TarProgressListener {
+    /// Called when an entry is started.
+    ///
+    /// For an output stream this is after the entry header has been written,
+    /// for an input stream after the header has been read.
+    ///
+    /// @param entry the entry
+    default void entryStarted(TarEntry entry) {
+        // empty
+    }
+
+    /// Called when an entry is finished.
+    ///
+    /// For an output stream this is when the next entry is started, or the
+    /// stream is closed. For an input stream this is when the next entry is
+    /// requested.
+    ///
+    /// @param entry the entry
+    default void entryFinished(TarEntry entry) {
+        // empty
+    }
+
+    /// Called when archive bytes have been transferred.
+    ///
+    /// Counts all archive bytes, including headers and padding, so the total
+    /// can be compared with the archive size.
+    ///
+    /// @param count the number of bytes
+    default void bytesTransferred(long count) {
+        // empty
+    }
+}
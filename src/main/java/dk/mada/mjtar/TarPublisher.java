@@ -0,0 +1,210 @@
+package dk.mada.mjtar;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jspecify.annotations.Nullable;
+
+/// Publishes the entries of an archive stream as chunks of entry data.
+///
+/// The archive is read with blocking reads on the given executor, and only
+/// as far as the subscriber has requested chunks. So a slow subscriber is
+/// never sent more than it asked for, and large entries are never buffered
+/// beyond a single chunk.
+///
+/// An archive stream can only be read once, so the publisher accepts a
+/// single subscriber. The stream is closed when the archive has been
+/// published, on errors, and when the subscription is cancelled.
+public final class TarPublisher implements Flow.Publisher<TarChunk> {
+    /// The default size of the published chunks.
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private final Executor executor;
+    private final int chunkSize;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /// Creates a new publisher, using the default chunk size.
+    ///
+    /// @param in       the archive stream
+    /// @param executor the executor running the (blocking) reads of the archive
+    public TarPublisher(InputStream in, Executor executor) {
+        this(in, executor, DEFAULT_CHUNK_SIZE);
+    }
+
+    /// Creates a new publisher.
+    ///
+    /// @param in        the archive stream
+    /// @param executor  the executor running the (blocking) reads of the archive
+    /// @param chunkSize the largest size of the published chunks
+    public TarPublisher(InputStream in, Executor executor, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive, was " + chunkSize);
+        }
+        this.in = in;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super TarChunk> subscriber) {
+        Objects.requireNonNull(subscriber);
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    // empty
+                }
+
+                @Override
+                public void cancel() {
+                    // empty
+                }
+            });
+            subscriber.onError(new IllegalStateException("The archive has already been subscribed to"));
+            return;
+        }
+        subscriber.onSubscribe(new ChunkSubscription(subscriber));
+    }
+
+    /// The subscription, reading chunks as they are requested.
+    ///
+    /// All signals to the subscriber are sent from the drain loop, which runs
+    /// on the executor. The work counter ensures only one drain loop runs at
+    /// a time, and that requests made while it runs are seen by it.
+    private final class ChunkSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super TarChunk> subscriber;
+        private final TarInputStream tis;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger work = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile @Nullable Throwable invalidRequest;
+        /// The entry being published, accessed only by the drain loop.
+        private @Nullable TarEntry current;
+        /// The offset of the next chunk in the current entry.
+        private long offset;
+        private boolean done;
+
+        ChunkSubscription(Flow.Subscriber<? super TarChunk> subscriber) {
+            this.subscriber = subscriber;
+            this.tis = new TarInputStream(in);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Requested " + n + " chunks, must be positive");
+            } else {
+                demand.getAndAccumulate(n, (outstanding, added) -> {
+                    long sum = outstanding + added;
+                    return sum < 0 ? Long.MAX_VALUE : sum;
+                });
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (work.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                publishRequested();
+                missed = work.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void publishRequested() {
+            try {
+                while (!done) {
+                    Throwable invalid = invalidRequest;
+                    if (cancelled || invalid != null) {
+                        finish();
+                        if (!cancelled && invalid != null) {
+                            subscriber.onError(invalid);
+                        }
+                        return;
+                    }
+                    if (demand.get() == 0) {
+                        return;
+                    }
+                    TarChunk chunk = nextChunk();
+                    if (chunk == null) {
+                        finish();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    subscriber.onNext(chunk);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (!done) {
+                    finish();
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        /// Reads the next chunk.
+        ///
+        /// @return the chunk, or null at the end of the archive
+        /// @throws IOException if there is an IO error, or the archive is truncated
+        private @Nullable TarChunk nextChunk() throws IOException {
+            @Nullable TarEntry entry = current;
+            if (entry == null) {
+                entry = tis.getNextEntry();
+                if (entry == null) {
+                    return null;
+                }
+                current = entry;
+                offset = 0;
+            }
+
+            int length = (int) Math.min(chunkSize, entry.getSize() - offset);
+            byte[] data = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int res = tis.read(data, read, length - read);
+                if (res < 0) {
+                    throw new EOFException("Entry " + entry.getName() + " truncated at offset " + (offset + read));
+                }
+                read += res;
+            }
+
+            boolean last = offset + length == entry.getSize();
+            TarChunk chunk = new TarChunk(entry, offset, ByteBuffer.wrap(data), last);
+            offset += length;
+            if (last) {
+                current = null;
+            }
+            return chunk;
+        }
+
+        private void finish() {
+            done = true;
+            try {
+                tis.close();
+            } catch (IOException e) {
+                // the publishing is over, nothing to report it to
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package dk.mada.mjtar;
+
+/// Receives the archive ranges lost when reading a damaged archive.
+///
+/// Setting a listener on a [TarInputStream] enables its recovery mode, see
+/// [TarInputStream#setRecoveryListener(TarRecoveryListener)].
+@FunctionalInterface
+public interface TarRecoveryListener {
+    /// Called when a range of the archive could not be read as entries.
+    ///
+    /// @param offset the offset of the range in the archive
+    /// @param length the length of the range
+    /// @param reason why the range was lost
+    void dataLost(long offset, long length, String reason);
+}
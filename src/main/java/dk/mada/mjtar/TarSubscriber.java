@@ -0,0 +1,120 @@
+package dk.mada.mjtar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import org.jspecify.annotations.Nullable;
+
+/// Writes a stream of entry chunks to an archive.
+///
+/// Chunks are written in the thread delivering them, and more chunks are
+/// only requested as the written chunks are done with, so at most a few
+/// chunks are held at any time. See [TarChunk] for how entries are split
+/// into chunks; the chunks of [TarPublisher] can be written unchanged, to
+/// copy or transform an archive.
+///
+/// The archive stream is closed when the publisher completes. If the
+/// publisher or the writing fails, the stream is left open, so the caller
+/// can discard the incomplete archive. The outcome is available from
+/// [#result()].
+public final class TarSubscriber implements Flow.Subscriber<TarChunk> {
+    /// The default number of chunks requested ahead.
+    public static final int DEFAULT_PREFETCH = 4;
+
+    private final TarOutputStream out;
+    private final int prefetch;
+    private final CompletableFuture<Long> result = new CompletableFuture<>();
+    private Flow.@Nullable Subscription subscription;
+    private byte[] copyBuffer = new byte[0];
+    private long entries;
+
+    /// Creates a new subscriber, using the default prefetch.
+    ///
+    /// @param out the archive stream to write to
+    public TarSubscriber(TarOutputStream out) {
+        this(out, DEFAULT_PREFETCH);
+    }
+
+    /// Creates a new subscriber.
+    ///
+    /// @param out      the archive stream to write to
+    /// @param prefetch the number of chunks requested ahead of writing
+    public TarSubscriber(TarOutputStream out, int prefetch) {
+        if (prefetch < 1) {
+            throw new IllegalArgumentException("Prefetch must be positive, was " + prefetch);
+        }
+        this.out = out;
+        this.prefetch = prefetch;
+    }
+
+    /// Returns the outcome of writing the archive.
+    ///
+    /// @return a future completed with the number of entries written when the archive has been closed,
+    ///         or completed exceptionally if the publisher or the writing fails
+    public CompletableFuture<Long> result() {
+        return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        Objects.requireNonNull(subscription);
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(prefetch);
+    }
+
+    @Override
+    public void onNext(TarChunk chunk) {
+        if (result.isDone()) {
+            return;
+        }
+        try {
+            if (chunk.isFirst()) {
+                out.putNextEntry(chunk.entry());
+                entries++;
+            }
+            write(chunk.data());
+        } catch (IOException | RuntimeException e) {
+            Objects.requireNonNull(subscription).cancel();
+            result.completeExceptionally(e);
+            return;
+        }
+        Objects.requireNonNull(subscription).request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        if (result.isDone()) {
+            return;
+        }
+        try {
+            out.close();
+            result.complete(entries);
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private void write(ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        if (data.hasArray()) {
+            out.write(data.array(), data.arrayOffset() + data.position(), length);
+        } else {
+            if (copyBuffer.length < length) {
+                copyBuffer = new byte[length];
+            }
+            data.duplicate().get(copyBuffer, 0, length);
+            out.write(copyBuffer, 0, length);
+        }
+    }
+}
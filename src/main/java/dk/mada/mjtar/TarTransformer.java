@@ -0,0 +1,134 @@
+package dk.mada.mjtar;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import org.jspecify.annotations.Nullable;
+
+/// Rewrites archives by applying header transforms to each entry.
+///
+/// Entry data is copied unchanged; only headers (and their checksums) are
+/// recomputed. PAX extended header attributes, such as stored digests, are
+/// kept with their entries. When both source and target are files, data
+/// regions are copied with [FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)],
+/// letting the operating system move the bytes without passing them through the heap.
+public final class TarTransformer {
+    private final List<TarEntryTransform> transforms;
+
+    /// Creates a new transformer.
+    ///
+    /// @param transforms the transforms to apply, in order
+    public TarTransformer(List<TarEntryTransform> transforms) {
+        this.transforms = List.copyOf(transforms);
+    }
+
+    /// Creates a new transformer.
+    ///
+    /// @param transforms the transforms to apply, in order
+    public TarTransformer(TarEntryTransform... transforms) {
+        this(List.of(transforms));
+    }
+
+    /// Transforms an archive file into a new archive file.
+    ///
+    /// @param source the archive to read
+    /// @param target the archive to write, replaced if it exists, must not be the source
+    /// @return the number of entries written
+    /// @throws IOException if there is an IO error, or the target is the source
+    public long transform(Path source, Path target) throws IOException {
+        if (Files.exists(target) && Files.isSameFile(source, target)) {
+            throw new IOException("Cannot transform " + source + " into itself");
+        }
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            TarIndex index = TarIndex.scan(in);
+            byte[] header = new byte[TarConstants.HEADER_BLOCK];
+            ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+
+            long written = 0;
+            for (TarIndexEntry e : index.entries()) {
+                byte[] headers = new byte[(int) (e.dataOffset() - e.headerOffset())];
+                ChannelIo.readFully(in, ByteBuffer.wrap(headers), e.headerOffset());
+                TarEntry entry = apply(TarIndex.parseEntry(headers));
+                if (entry == null) {
+                    continue;
+                }
+
+                byte[] records = PaxHeaders.records(entry, null);
+                if (records.length > 0) {
+                    PaxHeaders.headerFor(entry, records.length).writeEntryHeader(header);
+                    writeFully(out, headerBuffer.clear());
+                    writeFully(out, ByteBuffer.wrap(Arrays.copyOf(records, (int) TarUtils.paddedSize(records.length))));
+                }
+                entry.writeEntryHeader(header);
+                writeFully(out, headerBuffer.clear());
+                transferFully(in, e.dataOffset(), TarUtils.paddedSize(e.size()), out);
+                written++;
+            }
+
+            writeFully(out, ByteBuffer.allocate(TarConstants.EOF_BLOCK));
+            return written;
+        }
+    }
+
+    /// Transforms an archive stream into another archive stream.
+    ///
+    /// The output stream is not closed, so more entries can be added.
+    ///
+    /// @param in  the archive to read
+    /// @param out the archive to write
+    /// @return the number of entries written
+    /// @throws IOException if there is an IO error
+    public long transform(TarInputStream in, TarOutputStream out) throws IOException {
+        long written = 0;
+        TarEntry e;
+        while ((e = in.getNextEntry()) != null) {
+            TarEntry entry = apply(e);
+            if (entry == null) {
+                continue;
+            }
+            out.putNextEntry(entry);
+            in.transferTo(out);
+            written++;
+        }
+        return written;
+    }
+
+    private @Nullable TarEntry apply(TarEntry entry) {
+        long size = entry.getSize();
+        TarEntry result = entry;
+        for (TarEntryTransform t : transforms) {
+            result = t.apply(result);
+            if (result == null) {
+                return null;
+            }
+        }
+        if (result.getSize() != size) {
+            throw new IllegalStateException("Transforms must not change the size of entry " + result.getName());
+        }
+        return result;
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    private static void transferFully(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        long done = 0;
+        while (done < count) {
+            long res = in.transferTo(position + done, count - done, out);
+            if (res <= 0) {
+                throw new IOException("Failed to copy entry data at offset " + (position + done));
+            }
+            done += res;
+        }
+    }
+}
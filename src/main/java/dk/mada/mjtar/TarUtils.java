@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -25,6 +26,9 @@ import java.util.stream.Stream;
 ///
 /// @author Kamran
 public final class TarUtils {
+    /// Zero block for comparisons.
+    private static final byte[] ZERO_BLOCK = new byte[TarConstants.EOF_BLOCK];
+
     /// Prevents instantiation.
     private TarUtils() {
         // empty
@@ -57,6 +61,29 @@ public final class TarUtils {
         }
     }
 
+    /// Rounds a size up to a whole number of data blocks.
+    ///
+    /// This is the space used in an archive by entry data of the given size.
+    ///
+    /// @param size the size to round up
+    /// @return the padded size
+    public static long paddedSize(long size) {
+        long extra = size % TarConstants.DATA_BLOCK;
+        return extra == 0 ? size : size + TarConstants.DATA_BLOCK - extra;
+    }
+
+    /// Checks if a block is all zeros.
+    ///
+    /// A zero block marks the end of an archive.
+    ///
+    /// @param block  the buffer holding the block
+    /// @param offset the offset of the block in the buffer
+    /// @param length the length of the block, at most [TarConstants#EOF_BLOCK]
+    /// @return true if all bytes in the block are zero
+    public static boolean isZeroBlock(byte[] block, int offset, int length) {
+        return Arrays.mismatch(block, offset, offset + length, ZERO_BLOCK, 0, length) == -1;
+    }
+
     private static long entrySize(long fileSize) {
         long size = 0;
         size += TarConstants.HEADER_BLOCK; // Header
@@ -0,0 +1,651 @@
+package dk.mada.mjtar;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import org.jspecify.annotations.Nullable;
+
+/// Verifies the integrity of archives, and optionally compares them with the filesystem.
+///
+/// The archive checks are:
+///
+/// - the header checksums, and the extended header records
+/// - that the entry data is present, i.e. the archive is not truncated
+/// - that the padding after the entry data, and the end-of-archive marker, is zero
+/// - the content digests stored by [TarOutputStream#setDigest(DigestAlgorithm)]
+///
+/// When given a base directory, each entry is also compared with the file
+/// of the same name in the directory: type, size, modification time, mode
+/// (on POSIX filesystems), and content or link target.
+///
+/// Archive files are verified by scanning the headers and checking the
+/// entries in parallel, using positional reads. Archive streams are
+/// verified sequentially, with large entries hashed on a helper thread while
+/// the stream is read. Padding is not visible through a stream, so it is only
+/// checked for archive files.
+///
+/// Mismatches are reported as they are found, so not necessarily in archive
+/// order. The reporter is never called concurrently.
+public final class TarVerifier {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final @Nullable Path baseDir;
+
+    /// The kind of a mismatch.
+    public enum Problem {
+        /// A header has a wrong checksum, or invalid extended header records.
+        HEADER,
+        /// The archive ends before the entry data, or without an end-of-archive marker.
+        TRUNCATED,
+        /// The padding after the entry data, or the end-of-archive marker, is not zero.
+        PADDING,
+        /// The entry data does not match the stored digest, or the stored digest is invalid.
+        DIGEST,
+        /// The file is missing.
+        MISSING,
+        /// The file could not be read.
+        UNREADABLE,
+        /// The file is of a different type than the entry.
+        TYPE,
+        /// The file size differs from the entry size.
+        SIZE,
+        /// The file modification time differs from the entry's.
+        MOD_TIME,
+        /// The file mode differs from the entry's.
+        MODE,
+        /// The file content, or symbolic link target, differs from the entry's.
+        CONTENT
+    }
+
+    /// A mismatch found by the verifier.
+    ///
+    /// @param name    the entry name, or empty for problems with the archive itself
+    /// @param offset  the offset in the archive of the entry header, or of the problem
+    /// @param problem the kind of mismatch
+    /// @param detail  a description of the mismatch
+    public record Mismatch(String name, long offset, Problem problem, String detail) {
+    }
+
+    /// The result of a verification.
+    ///
+    /// @param entries    the number of entries checked
+    /// @param mismatches the number of mismatches reported
+    public record Summary(long entries, long mismatches) {
+        /// Returns true if no mismatches were found.
+        ///
+        /// @return true if the archive verified
+        public boolean isOk() {
+            return mismatches == 0;
+        }
+    }
+
+    /// Creates a verifier checking only the archive integrity.
+    public TarVerifier() {
+        this(null);
+    }
+
+    /// Creates a verifier.
+    ///
+    /// @param baseDir the directory to compare the entries with, or null to only check the archive integrity
+    public TarVerifier(@Nullable Path baseDir) {
+        this.baseDir = baseDir;
+    }
+
+    /// Verifies an archive file, using a thread per processor.
+    ///
+    /// @param archive  the archive file
+    /// @param reporter the receiver of mismatches
+    /// @return the summary of the verification
+    /// @throws IOException if there is an IO error reading the archive
+    public Summary verify(Path archive, Consumer<Mismatch> reporter) throws IOException {
+        return verify(archive, Runtime.getRuntime().availableProcessors(), reporter);
+    }
+
+    /// Verifies an archive file.
+    ///
+    /// @param archive     the archive file
+    /// @param parallelism the maximum number of entries to check at the same time
+    /// @param reporter    the receiver of mismatches
+    /// @return the summary of the verification
+    /// @throws IOException if there is an IO error reading the archive
+    public Summary verify(Path archive, int parallelism, Consumer<Mismatch> reporter) throws IOException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive, was " + parallelism);
+        }
+        Reporter out = new Reporter(reporter);
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            var scan = new FileScan(channel, out, parallelism);
+            long entries = scan.run();
+            return out.summary(entries);
+        }
+    }
+
+    /// Verifies an archive stream.
+    ///
+    /// The stream is read to the end of the archive, and closed.
+    ///
+    /// @param archive  the archive stream
+    /// @param reporter the receiver of mismatches
+    /// @return the summary of the verification
+    /// @throws IOException if there is an IO error reading the archive
+    public Summary verify(InputStream archive, Consumer<Mismatch> reporter) throws IOException {
+        Reporter out = new Reporter(reporter);
+        Map<DigestAlgorithm, EntryDigest> digests = new EnumMap<>(DigestAlgorithm.class);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long entries = 0;
+        boolean truncated = false;
+        try (var tis = new TarInputStream(archive)) {
+            TarEntry entry;
+            while (!truncated && (entry = tis.getNextEntry()) != null) {
+                entries++;
+                long offset = tis.getCurrentOffset() - TarConstants.HEADER_BLOCK;
+                if (!tis.isHeaderChecksumValid()) {
+                    out.report(entry.getName(), offset, Problem.HEADER, "Header checksum mismatch");
+                }
+                @Nullable DigestAlgorithm algorithm = storedDigest(entry);
+                @Nullable EntryDigest digest = algorithm == null ? null : digests.computeIfAbsent(algorithm, EntryDigest::new);
+                try (var check = new EntryCheck(entry, offset, out, digest)) {
+                    check.start();
+                    long read = 0;
+                    int count;
+                    while ((count = tis.read(buffer)) > 0) {
+                        check.update(buffer, 0, count);
+                        read += count;
+                    }
+                    check.finish(read);
+                    truncated = read < entry.getSize();
+                }
+            }
+            if (!truncated) {
+                checkEndMarker(tis, out);
+            }
+        } finally {
+            digests.values().forEach(EntryDigest::close);
+        }
+        return out.summary(entries);
+    }
+
+    /// Checks the end-of-archive marker of an archive stream.
+    ///
+    /// @param tis the archive stream, after its last entry
+    /// @param out the receiver of mismatches
+    /// @throws IOException if there is an IO error reading the archive
+    private static void checkEndMarker(TarInputStream tis, Reporter out) throws IOException {
+        if (!tis.isEndBlockRead()) {
+            out.report("", tis.getCurrentOffset(), Problem.TRUNCATED, "Archive ends without an end-of-archive marker");
+            return;
+        }
+        long markerOffset = tis.getCurrentOffset() - TarConstants.HEADER_BLOCK;
+        byte[] second = tis.readNBytes(TarConstants.HEADER_BLOCK);
+        if (second.length < TarConstants.HEADER_BLOCK) {
+            out.report("", markerOffset, Problem.TRUNCATED, "Incomplete end-of-archive marker");
+        } else if (!TarUtils.isZeroBlock(second, 0, TarConstants.HEADER_BLOCK)) {
+            out.report("", markerOffset, Problem.PADDING, "End-of-archive marker is not zero");
+        }
+    }
+
+    /// Finds the digest stored for an entry.
+    ///
+    /// @param entry the entry
+    /// @return the algorithm of the stored digest, or null if there is none
+    private static @Nullable DigestAlgorithm storedDigest(TarEntry entry) {
+        Map<String, String> attributes = entry.getPaxAttributes();
+        for (DigestAlgorithm algorithm : DigestAlgorithm.values()) {
+            if (attributes.containsKey(algorithm.paxKey())) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+
+    /// Serializes reports, and counts them.
+    private static final class Reporter {
+        private final Consumer<Mismatch> consumer;
+        private long mismatches;
+
+        Reporter(Consumer<Mismatch> consumer) {
+            this.consumer = consumer;
+        }
+
+        synchronized void report(String name, long offset, Problem problem, String detail) {
+            mismatches++;
+            consumer.accept(new Mismatch(name, offset, problem, detail));
+        }
+
+        synchronized Summary summary(long entries) {
+            return new Summary(entries, mismatches);
+        }
+    }
+
+    /// Scans the headers of an archive file, and checks the entries in parallel.
+    private final class FileScan {
+        private final FileChannel channel;
+        private final Reporter out;
+        private final int parallelism;
+        /// Limits the number of queued entries, so memory use does not grow with the archive.
+        private final Semaphore inFlight;
+        private final AtomicReference<@Nullable IOException> failure = new AtomicReference<>();
+        private final byte[] header = new byte[TarConstants.HEADER_BLOCK];
+
+        FileScan(FileChannel channel, Reporter out, int parallelism) {
+            this.channel = channel;
+            this.out = out;
+            this.parallelism = parallelism;
+            this.inFlight = new Semaphore(2 * parallelism);
+        }
+
+        /// Scans the archive and waits for the entry checks to complete.
+        ///
+        /// @return the number of entries checked
+        /// @throws IOException if there is an IO error reading the archive
+        long run() throws IOException {
+            long entries;
+            ThreadFactory threads = Thread.ofVirtual().name("tar-verify-", 0).factory();
+            try (ExecutorService executor = Executors.newFixedThreadPool(parallelism, threads)) {
+                entries = scan(executor);
+            }
+            IOException e = failure.get();
+            if (e != null) {
+                throw e;
+            }
+            return entries;
+        }
+
+        private long scan(ExecutorService executor) throws IOException {
+            long fileSize = channel.size();
+            ByteBuffer block = ByteBuffer.wrap(header);
+            @Nullable Map<String, String> paxAttributes = null;
+            long entries = 0;
+            long pos = 0;
+            while (failure.get() == null) {
+                if (pos + TarConstants.HEADER_BLOCK > fileSize) {
+                    out.report("", pos, Problem.TRUNCATED, "Archive ends without an end-of-archive marker");
+                    break;
+                }
+                ChannelIo.readFully(channel, block.clear(), pos);
+                if (TarUtils.isZeroBlock(header, 0, TarConstants.HEADER_BLOCK)) {
+                    checkEndMarker(pos, fileSize);
+                    break;
+                }
+
+                TarEntry entry = new TarEntry(header);
+                if (!TarHeader.isChecksumValid(header)) {
+                    out.report(entry.getName(), pos, Problem.HEADER, "Header checksum mismatch");
+                }
+                long dataOffset = pos + TarConstants.HEADER_BLOCK;
+                byte flag = entry.getHeader().linkFlag;
+                if (flag == TarHeader.LF_PAX_EXTENDED || flag == TarHeader.LF_PAX_GLOBAL) {
+                    long end = dataOffset + TarUtils.paddedSize(entry.getSize());
+                    if (end > fileSize) {
+                        out.report(entry.getName(), pos, Problem.TRUNCATED, "Extended header extends past end of file");
+                        break;
+                    }
+                    Map<String, String> attributes = readPaxRecords(entry, pos);
+                    if (flag == TarHeader.LF_PAX_EXTENDED) {
+                        paxAttributes = attributes;
+                    }
+                    pos = end;
+                    continue;
+                }
+
+                if (paxAttributes != null) {
+                    entry.applyPaxAttributes(paxAttributes);
+                    paxAttributes = null;
+                }
+                long size = entry.getSize();
+                long end = dataOffset + TarUtils.paddedSize(size);
+                if (end > fileSize) {
+                    out.report(entry.getName(), pos, Problem.TRUNCATED, "Entry data extends past end of file");
+                    break;
+                }
+                entries++;
+                submit(executor, entry, pos);
+                pos = end;
+            }
+            return entries;
+        }
+
+        private void submit(ExecutorService executor, TarEntry entry, long headerOffset) throws InterruptedIOException {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while verifying archive");
+            }
+            executor.execute(() -> {
+                try {
+                    checkEntry(entry, headerOffset);
+                } catch (IOException e) {
+                    recordFailure(e);
+                } catch (RuntimeException e) {
+                    // Must not be lost in the executor, or the verification would pass
+                    recordFailure(new IOException("Failed to check entry " + entry.getName(), e));
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+
+        private void recordFailure(IOException e) {
+            if (!failure.compareAndSet(null, e)) {
+                Objects.requireNonNull(failure.get()).addSuppressed(e);
+            }
+        }
+
+        /// Checks the data and padding of an entry.
+        ///
+        /// @param entry        the entry
+        /// @param headerOffset the offset of the entry header
+        /// @throws IOException if there is an IO error reading the archive
+        private void checkEntry(TarEntry entry, long headerOffset) throws IOException {
+            long dataOffset = headerOffset + TarConstants.HEADER_BLOCK;
+            long size = entry.getSize();
+            @Nullable DigestAlgorithm algorithm = storedDigest(entry);
+            try (EntryDigest digest = algorithm == null ? null : new EntryDigest(algorithm, false);
+                    var check = new EntryCheck(entry, headerOffset, out, digest)) {
+                check.start();
+                if (check.needsData()) {
+                    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                    long done = 0;
+                    while (done < size) {
+                        buffer.clear().limit((int) Math.min(BUFFER_SIZE, size - done));
+                        ChannelIo.readFully(channel, buffer, dataOffset + done);
+                        check.update(buffer.array(), 0, buffer.limit());
+                        done += buffer.limit();
+                    }
+                }
+                check.finish(size);
+            }
+            checkPadding(entry.getName(), headerOffset, dataOffset + size);
+        }
+
+        /// Reads the records of an extended header.
+        ///
+        /// @param paxEntry     the extended header entry
+        /// @param headerOffset the offset of the extended header
+        /// @return the attributes, empty if the records are invalid
+        /// @throws IOException if there is an IO error reading the archive
+        private Map<String, String> readPaxRecords(TarEntry paxEntry, long headerOffset) throws IOException {
+            long size = paxEntry.getSize();
+            if (size > PaxHeaders.MAX_SIZE) {
+                out.report(paxEntry.getName(), headerOffset, Problem.HEADER, "Extended header too large: " + size);
+                return Map.of();
+            }
+            long dataOffset = headerOffset + TarConstants.HEADER_BLOCK;
+            byte[] data = new byte[(int) size];
+            ChannelIo.readFully(channel, ByteBuffer.wrap(data), dataOffset);
+            checkPadding(paxEntry.getName(), headerOffset, dataOffset + size);
+            try {
+                return PaxHeaders.parse(data, data.length);
+            } catch (IOException e) {
+                out.report(paxEntry.getName(), headerOffset, Problem.HEADER, "Invalid extended header: " + e.getMessage());
+                return Map.of();
+            }
+        }
+
+        /// Checks that the padding following entry data is zero.
+        ///
+        /// @param name         the entry name
+        /// @param headerOffset the offset of the entry header
+        /// @param dataEnd      the offset following the entry data
+        /// @throws IOException if there is an IO error reading the archive
+        private void checkPadding(String name, long headerOffset, long dataEnd) throws IOException {
+            int padding = (int) (TarUtils.paddedSize(dataEnd) - dataEnd);
+            if (padding == 0) {
+                return;
+            }
+            byte[] pad = new byte[padding];
+            ChannelIo.readFully(channel, ByteBuffer.wrap(pad), dataEnd);
+            if (!TarUtils.isZeroBlock(pad, 0, padding)) {
+                out.report(name, headerOffset, Problem.PADDING, "Padding after entry data is not zero");
+            }
+        }
+
+        /// Checks the second block of the end-of-archive marker.
+        ///
+        /// @param markerOffset the offset of the first (zero) block of the marker
+        /// @param fileSize     the size of the archive file
+        /// @throws IOException if there is an IO error reading the archive
+        private void checkEndMarker(long markerOffset, long fileSize) throws IOException {
+            long second = markerOffset + TarConstants.HEADER_BLOCK;
+            if (second + TarConstants.HEADER_BLOCK > fileSize) {
+                out.report("", markerOffset, Problem.TRUNCATED, "Incomplete end-of-archive marker");
+                return;
+            }
+            ChannelIo.readFully(channel, ByteBuffer.wrap(header), second);
+            if (!TarUtils.isZeroBlock(header, 0, TarConstants.HEADER_BLOCK)) {
+                out.report("", markerOffset, Problem.PADDING, "End-of-archive marker is not zero");
+            }
+        }
+    }
+
+    /// The checks of a single entry, fed with the entry data as it is read.
+    private final class EntryCheck implements Closeable {
+        private final TarEntry entry;
+        private final long offset;
+        private final Reporter out;
+        private @Nullable EntryDigest digest;
+        private byte @Nullable [] expectedDigest;
+        /// The file content is compared with, or null if not comparing content.
+        private @Nullable InputStream file;
+        private byte[] fileBuffer = new byte[0];
+        private long position;
+
+        /// Creates a new entry check.
+        ///
+        /// @param entry  the entry
+        /// @param offset the offset of the entry header
+        /// @param out    the reporter
+        /// @param digest the digest for the entry's stored digest, or null if it has none
+        EntryCheck(TarEntry entry, long offset, Reporter out, @Nullable EntryDigest digest) {
+            this.entry = entry;
+            this.offset = offset;
+            this.out = out;
+            this.digest = digest;
+        }
+
+        /// Starts the check, comparing the entry with the filesystem.
+        ///
+        /// @throws IOException if there is an IO error
+        void start() throws IOException {
+            EntryDigest d = digest;
+            if (d != null) {
+                String stored = Objects.requireNonNull(entry.getPaxAttributes().get(d.algorithm().paxKey()));
+                try {
+                    byte[] expected = HexFormat.of().parseHex(stored);
+                    if (expected.length != d.algorithm().length()) {
+                        throw new IllegalArgumentException("wrong length");
+                    }
+                    expectedDigest = expected;
+                    d.start(entry.getSize());
+                } catch (IllegalArgumentException e) {
+                    report(Problem.DIGEST, "Invalid stored " + d.algorithm() + " digest: " + stored);
+                    digest = null;
+                }
+            }
+            if (baseDir != null) {
+                try {
+                    compareWithFile(baseDir);
+                } catch (IOException e) {
+                    report(Problem.UNREADABLE, "Failed to read file: " + e.getMessage());
+                }
+            }
+        }
+
+        /// Returns true if the check needs the entry data.
+        ///
+        /// @return true if the entry data should be passed to [#update(byte[], int, int)]
+        boolean needsData() {
+            return digest != null || file != null;
+        }
+
+        /// Checks entry data.
+        ///
+        /// @param b   the data
+        /// @param off the start offset of the data
+        /// @param len the length of the data
+        /// @throws IOException if there is an IO error
+        void update(byte[] b, int off, int len) throws IOException {
+            EntryDigest d = digest;
+            if (d != null) {
+                d.update(b, off, len);
+            }
+            InputStream in = file;
+            if (in != null) {
+                if (fileBuffer.length < len) {
+                    fileBuffer = new byte[len];
+                }
+                try {
+                    int count = in.readNBytes(fileBuffer, 0, len);
+                    int at = Arrays.mismatch(b, off, off + len, fileBuffer, 0, count);
+                    if (at != -1) {
+                        report(Problem.CONTENT, "File content differs at offset " + (position + at));
+                        closeFile();
+                    }
+                } catch (IOException e) {
+                    report(Problem.UNREADABLE, "Failed to read file: " + e.getMessage());
+                    closeFile();
+                }
+            }
+            position += len;
+        }
+
+        /// Completes the check.
+        ///
+        /// @param read the number of data bytes read
+        /// @throws IOException if there is an IO error
+        void finish(long read) throws IOException {
+            if (read < entry.getSize()) {
+                report(Problem.TRUNCATED, "Entry data ends after " + read + " of " + entry.getSize() + " bytes");
+                return;
+            }
+            EntryDigest d = digest;
+            byte[] expected = expectedDigest;
+            if (d != null && expected != null) {
+                byte[] actual = d.finish();
+                if (!Arrays.equals(actual, expected)) {
+                    HexFormat hex = HexFormat.of();
+                    report(Problem.DIGEST, "Expected " + d.algorithm() + " " + hex.formatHex(expected)
+                            + ", was " + hex.formatHex(actual));
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            closeFile();
+        }
+
+        private void compareWithFile(Path base) throws IOException {
+            Path path = base.resolve(entry.getName()).normalize();
+            if (!path.startsWith(base.normalize())) {
+                report(Problem.MISSING, "Entry path is outside " + base);
+                return;
+            }
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (NoSuchFileException e) {
+                report(Problem.MISSING, "No file " + path);
+                return;
+            }
+
+            TarHeader header = entry.getHeader();
+            switch (header.linkFlag) {
+                case TarHeader.LF_DIR -> {
+                    if (expectType(attributes.isDirectory(), "a directory")) {
+                        compareMode(path, header);
+                    }
+                }
+                case TarHeader.LF_SYMLINK -> {
+                    if (expectType(attributes.isSymbolicLink(), "a symbolic link")) {
+                        String target = Files.readSymbolicLink(path).toString();
+                        if (!target.equals(header.linkName.toString())) {
+                            report(Problem.CONTENT, "Link target is " + target + ", expected " + header.linkName);
+                        }
+                    }
+                }
+                case TarHeader.LF_NORMAL, TarHeader.LF_OLDNORM, TarHeader.LF_CONTIG -> {
+                    if (expectType(attributes.isRegularFile(), "a regular file")) {
+                        compareMode(path, header);
+                        long modTime = attributes.lastModifiedTime().to(TimeUnit.SECONDS);
+                        if (modTime != header.modTime) {
+                            report(Problem.MOD_TIME, "Modification time is " + modTime + ", expected " + header.modTime);
+                        }
+                        if (attributes.size() != entry.getSize()) {
+                            report(Problem.SIZE, "Size is " + attributes.size() + ", expected " + entry.getSize());
+                        } else {
+                            openFile(path);
+                        }
+                    }
+                }
+                default -> {
+                    // Links, devices and multi-volume continuations are not compared
+                }
+            }
+        }
+
+        private boolean expectType(boolean matches, String type) {
+            if (!matches) {
+                report(Problem.TYPE, "File is not " + type);
+            }
+            return matches;
+        }
+
+        private void compareMode(Path path, TarHeader header) {
+            if (!path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                return;
+            }
+            int mode = PermissionUtils.permissions(path);
+            int expected = header.mode & 0777;
+            if (mode != expected) {
+                report(Problem.MODE, "Mode is %04o, expected %04o".formatted(mode, expected));
+            }
+        }
+
+        private void openFile(Path path) {
+            try {
+                file = Files.newInputStream(path);
+            } catch (IOException e) {
+                report(Problem.UNREADABLE, "Failed to open file: " + e.getMessage());
+            }
+        }
+
+        private void closeFile() {
+            InputStream in = file;
+            file = null;
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // only read from, nothing lost
+                }
+            }
+        }
+
+        private void report(Problem problem, String detail) {
+            out.report(entry.getName(), offset, problem, detail);
+        }
+    }
+}
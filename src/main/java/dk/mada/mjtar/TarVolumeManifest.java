@@ -0,0 +1,313 @@
+package dk.mada.mjtar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jspecify.annotations.Nullable;
+
+/// Manifest of a multi-volume archive written by [TarVolumeWriter].
+///
+/// The manifest records the volume files and where the header and data of
+/// each entry are located in the volumes. This allows reading any entry
+/// directly from the volumes holding it, and reassembling the volumes into
+/// a single archive without parsing them.
+///
+/// The volume files are resolved relative to the directory of the manifest.
+public final class TarVolumeManifest {
+    private static final int MAGIC = 0x6d6a_766d;
+    private static final int VERSION = 1;
+
+    private final Path directory;
+    private final List<String> volumes;
+    private final List<Entry> entries;
+    private final Map<String, Entry> byName;
+
+    /// A part of an entry's data, located in a single volume.
+    ///
+    /// @param volume the index of the volume
+    /// @param offset the offset of the data in the volume
+    /// @param length the length of the data
+    public record Part(int volume, long offset, long length) {
+    }
+
+    /// An entry in a multi-volume archive.
+    ///
+    /// @param name         the entry name
+    /// @param size         the size of the entry data
+    /// @param headerVolume the index of the volume holding the entry headers
+    /// @param headerOffset the offset of the entry headers in its volume, including any extended header
+    /// @param parts        the parts of the entry data, in order
+    public record Entry(String name, long size, int headerVolume, long headerOffset, List<Part> parts) {
+        /// Creates a new entry.
+        public Entry {
+            parts = List.copyOf(parts);
+        }
+    }
+
+    /// Creates a new manifest.
+    ///
+    /// @param directory the directory holding the volumes
+    /// @param volumes   the file names of the volumes, in order
+    /// @param entries   the entries, in archive order
+    public TarVolumeManifest(Path directory, List<String> volumes, List<Entry> entries) {
+        this.directory = directory;
+        this.volumes = List.copyOf(volumes);
+        this.entries = List.copyOf(entries);
+        Map<String, Entry> names = new HashMap<>();
+        for (Entry e : this.entries) {
+            names.put(e.name(), e);
+        }
+        this.byName = Collections.unmodifiableMap(names);
+    }
+
+    /// Loads a manifest file.
+    ///
+    /// @param file the manifest file
+    /// @return the manifest
+    /// @throws IOException if there is an IO error, or the file is not a manifest
+    public static TarVolumeManifest load(Path file) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a volume manifest: " + file);
+            }
+            int volumeCount = in.readInt();
+            List<String> volumes = new ArrayList<>();
+            for (int i = 0; i < volumeCount; i++) {
+                volumes.add(in.readUTF());
+            }
+            int entryCount = in.readInt();
+            List<Entry> entries = new ArrayList<>();
+            for (int i = 0; i < entryCount; i++) {
+                String name = in.readUTF();
+                long size = in.readLong();
+                int headerVolume = in.readInt();
+                long headerOffset = in.readLong();
+                int partCount = in.readInt();
+                List<Part> parts = new ArrayList<>();
+                for (int p = 0; p < partCount; p++) {
+                    parts.add(new Part(in.readInt(), in.readLong(), in.readLong()));
+                }
+                entries.add(new Entry(name, size, headerVolume, headerOffset, parts));
+            }
+            Path parent = file.toAbsolutePath().getParent();
+            return new TarVolumeManifest(parent, volumes, entries);
+        }
+    }
+
+    /// Saves the manifest to a file.
+    ///
+    /// @param file the manifest file
+    /// @throws IOException if there is an IO error
+    public void save(Path file) throws IOException {
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(volumes.size());
+            for (String v : volumes) {
+                out.writeUTF(v);
+            }
+            out.writeInt(entries.size());
+            for (Entry e : entries) {
+                out.writeUTF(e.name());
+                out.writeLong(e.size());
+                out.writeInt(e.headerVolume());
+                out.writeLong(e.headerOffset());
+                out.writeInt(e.parts().size());
+                for (Part p : e.parts()) {
+                    out.writeInt(p.volume());
+                    out.writeLong(p.offset());
+                    out.writeLong(p.length());
+                }
+            }
+        }
+    }
+
+    /// Returns the volume files.
+    ///
+    /// @return the volume files, in order
+    public List<Path> volumes() {
+        return volumes.stream().map(directory::resolve).toList();
+    }
+
+    /// Returns the entries.
+    ///
+    /// @return the entries, in archive order
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    /// Finds an entry by name.
+    ///
+    /// @param name the entry name
+    /// @return the entry, or null if not found
+    public @Nullable Entry find(String name) {
+        return byName.get(name);
+    }
+
+    /// Reads the full header information of an entry.
+    ///
+    /// This includes the attributes of the entry's extended header, if it has one.
+    ///
+    /// @param entry the entry to read the header of
+    /// @return a new tar entry with the header information
+    /// @throws IOException if there is an IO error, or the extended header is invalid
+    public TarEntry getEntry(Entry entry) throws IOException {
+        long length = headersLength(entry);
+        if (length < TarConstants.HEADER_BLOCK || length > PaxHeaders.MAX_SIZE + 2L * TarConstants.HEADER_BLOCK) {
+            throw new IOException("Invalid headers of entry " + entry.name() + ", " + length + " bytes");
+        }
+        byte[] headers = new byte[(int) length];
+        try (FileChannel channel = FileChannel.open(volume(entry.headerVolume()), StandardOpenOption.READ)) {
+            ChannelIo.readFully(channel, ByteBuffer.wrap(headers), entry.headerOffset());
+        }
+        return TarIndex.parseEntry(headers);
+    }
+
+    /// Opens a stream reading the data of an entry.
+    ///
+    /// The volumes holding the data are opened one at a time, as the data is read.
+    ///
+    /// @param entry the entry to read
+    /// @return an input stream for the entry data
+    public InputStream getInputStream(Entry entry) {
+        return new PartsInputStream(entry.parts());
+    }
+
+    /// Reassembles the volumes into a single archive.
+    ///
+    /// The entry headers and data are copied from the volumes with
+    /// [FileChannel#transferTo], leaving out the continuation headers.
+    ///
+    /// @param target the archive file to write
+    /// @throws IOException if there is an IO error
+    public void reassemble(Path target) throws IOException {
+        List<FileChannel> channels = new ArrayList<>();
+        try (FileChannel out = FileChannel.open(target,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int v = 0; v < volumes.size(); v++) {
+                channels.add(FileChannel.open(volume(v), StandardOpenOption.READ));
+            }
+
+            for (Entry e : entries) {
+                transfer(channels.get(e.headerVolume()), e.headerOffset(), headersLength(e), out);
+                for (Part p : e.parts()) {
+                    transfer(channels.get(p.volume()), p.offset(), p.length(), out);
+                }
+                out.write(ByteBuffer.allocate((int) (TarUtils.paddedSize(e.size()) - e.size())));
+            }
+            out.write(ByteBuffer.allocate(TarConstants.EOF_BLOCK));
+        } finally {
+            for (FileChannel c : channels) {
+                c.close();
+            }
+        }
+    }
+
+    /// Returns the length of the headers of an entry.
+    ///
+    /// The headers end where the entry data starts, in the same volume.
+    ///
+    /// @param entry the entry
+    /// @return the length of the entry headers
+    private static long headersLength(Entry entry) {
+        if (entry.parts().isEmpty()) {
+            return TarConstants.HEADER_BLOCK;
+        }
+        return entry.parts().get(0).offset() - entry.headerOffset();
+    }
+
+    private Path volume(int index) {
+        return directory.resolve(volumes.get(index));
+    }
+
+    private static void transfer(FileChannel in, long position, long length, FileChannel out) throws IOException {
+        long done = 0;
+        while (done < length) {
+            long count = in.transferTo(position + done, length - done, out);
+            if (count <= 0) {
+                throw new IOException("Volume is shorter than expected at offset " + (position + done));
+            }
+            done += count;
+        }
+    }
+
+    /// Stream reading the data parts of an entry from the volumes.
+    private final class PartsInputStream extends InputStream {
+        private final List<Part> parts;
+        private int partIndex = -1;
+        private @Nullable FileChannel channel;
+        private long position;
+        private long end;
+
+        PartsInputStream(List<Part> parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int res = read(b, 0, 1);
+            return res == -1 ? -1 : 0xff & b[0];
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            FileChannel current = channel;
+            while (current == null || position == end) {
+                if (!nextPart()) {
+                    return -1;
+                }
+                current = channel;
+            }
+            int count = current.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (count < 0) {
+                throw new IOException("Unexpected end of volume at offset " + position);
+            }
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            partIndex = parts.size();
+            closeChannel();
+        }
+
+        private boolean nextPart() throws IOException {
+            closeChannel();
+            if (partIndex + 1 >= parts.size()) {
+                partIndex = parts.size();
+                return false;
+            }
+            Part part = parts.get(++partIndex);
+            channel = FileChannel.open(volume(part.volume()), StandardOpenOption.READ);
+            position = part.offset();
+            end = part.offset() + part.length();
+            return true;
+        }
+
+        private void closeChannel() throws IOException {
+            FileChannel c = channel;
+            channel = null;
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package dk.mada.mjtar;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import org.jspecify.annotations.Nullable;
+
+/// Output stream writing an archive split into volumes of a maximum size.
+///
+/// This is the streaming counterpart of [TarVolumeWriter], for entry data
+/// that is not available as files. It is used like [TarOutputStream]:
+/// each entry is started with [#putNextEntry(TarEntry)] and its data written
+/// to the stream. The volume files are written one at a time, rolling over
+/// to the next volume when the current one is full, at an entry boundary or
+/// by splitting the entry with a GNU multi-volume continuation header. The
+/// entries are placed as [TarVolumeWriter] would place them, so the two
+/// produce the same volumes.
+///
+/// A volume listener is told about each volume as soon as it is complete,
+/// so it can be uploaded (or otherwise processed) while the following
+/// volumes are written.
+///
+/// The manifest of the volumes is written when the stream is closed, see
+/// [TarVolumeManifest].
+public final class TarVolumeOutputStream extends OutputStream {
+    private static final byte[] ZERO_BLOCK = new byte[TarConstants.EOF_BLOCK];
+
+    private final Path directory;
+    private final String baseName;
+    private final VolumeLayout layout;
+    private final List<String> volumeNames = new ArrayList<>();
+    private final List<TarVolumeManifest.Entry> entries = new ArrayList<>();
+    private final byte[] oneByte = new byte[1];
+    private @Nullable Consumer<Path> volumeListener;
+    /// The volume being written, or null between volumes.
+    private @Nullable OutputStream volume;
+    /// The position in the volume being written.
+    private long pos;
+    /// The manifest, once the stream is closed.
+    private @Nullable TarVolumeManifest manifest;
+
+    private @Nullable TarEntry currentEntry;
+    private int entryHeaderSize;
+    /// The amount of data written for the current entry.
+    private long entryWritten;
+    /// The entry data offset where the current part of the entry ends.
+    private long partEnd;
+    private int headerVolume;
+    private long headerOffset;
+    private List<TarVolumeManifest.Part> parts = new ArrayList<>();
+
+    /// Creates a new volume output stream.
+    ///
+    /// The volumes are named `<baseName>.001.tar`, `<baseName>.002.tar` and
+    /// so on, and the manifest `<baseName>.manifest`.
+    ///
+    /// @param directory  the directory to write the volumes to
+    /// @param baseName   the base name of the volume files
+    /// @param volumeSize the maximum size of a volume, rounded down to whole blocks
+    public TarVolumeOutputStream(Path directory, String baseName, long volumeSize) {
+        this.directory = directory;
+        this.baseName = baseName;
+        this.layout = new VolumeLayout(volumeSize);
+    }
+
+    /// Sets the listener told about completed volumes.
+    ///
+    /// The listener is called in the writing thread, with the volume file,
+    /// after the file has been closed.
+    ///
+    /// @param listener the listener, or null for none
+    public void setVolumeListener(@Nullable Consumer<Path> listener) {
+        this.volumeListener = listener;
+    }
+
+    /// Writes the headers of the next entry.
+    ///
+    /// @param entry the entry
+    /// @throws IOException if an I/O error occurs, or the previous entry was not fully written
+    public void putNextEntry(TarEntry entry) throws IOException {
+        ensureOpen();
+        closeCurrentEntry();
+        currentEntry = entry;
+        entryHeaderSize = VolumeLayout.headers(entry, 0).length;
+        entryWritten = 0;
+        parts = new ArrayList<>();
+        startPart(entry);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        oneByte[0] = (byte) b;
+        write(oneByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        Objects.checkFromIndexSize(off, len, b.length);
+        TarEntry entry = currentEntry;
+        if (entry == null || entryWritten + len > entry.getSize()) {
+            String name = entry == null ? "none" : entry.getName();
+            throw new IOException("The bytes being written exceed the size of the current entry[" + name + "]");
+        }
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            if (entryWritten == partEnd) {
+                endVolume(false);
+                startPart(entry);
+            }
+            int count = (int) Math.min(remaining, partEnd - entryWritten);
+            Objects.requireNonNull(volume).write(b, offset, count);
+            entryWritten += count;
+            pos += count;
+            offset += count;
+            remaining -= count;
+        }
+    }
+
+    /// Completes the last volume, and writes the manifest.
+    ///
+    /// @throws IOException if an I/O error occurs, or the last entry was not fully written
+    @Override
+    public void close() throws IOException {
+        if (manifest != null) {
+            return;
+        }
+        closeCurrentEntry();
+        openVolume();
+        endVolume(true);
+        TarVolumeManifest written = new TarVolumeManifest(directory, volumeNames, entries);
+        written.save(directory.resolve(baseName + TarVolumeWriter.MANIFEST_SUFFIX));
+        manifest = written;
+    }
+
+    /// Returns the manifest of the written volumes.
+    ///
+    /// @return the manifest
+    /// @throws IllegalStateException if the stream has not been closed
+    public TarVolumeManifest getManifest() {
+        TarVolumeManifest written = manifest;
+        if (written == null) {
+            throw new IllegalStateException("The manifest is written when the stream is closed");
+        }
+        return written;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (manifest != null) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /// Writes the headers of the next part of the current entry, rolling over to the next volume if needed.
+    ///
+    /// @param entry the current entry
+    /// @throws IOException if an I/O error occurs
+    private void startPart(TarEntry entry) throws IOException {
+        byte[] headers = VolumeLayout.headers(entry, entryWritten);
+        long part = layout.place(entry, pos, entryWritten, headers.length, entryHeaderSize);
+        if (part == VolumeLayout.ROLL_OVER) {
+            endVolume(true);
+            part = layout.place(entry, pos, entryWritten, headers.length, entryHeaderSize);
+        }
+        OutputStream out = openVolume();
+        int volumeIndex = volumeNames.size() - 1;
+        if (entryWritten == 0) {
+            headerVolume = volumeIndex;
+            headerOffset = pos;
+        }
+        out.write(headers);
+        pos += headers.length;
+
+        long remaining = entry.getSize() - entryWritten;
+        long length = part == TarUtils.paddedSize(entry.getSize()) - entryWritten ? remaining : part;
+        parts.add(new TarVolumeManifest.Part(volumeIndex, pos, length));
+        partEnd = entryWritten + length;
+    }
+
+    /// Pads the data of the current entry, and records it in the manifest.
+    ///
+    /// @throws IOException if an I/O error occurs, or the entry was not fully written
+    private void closeCurrentEntry() throws IOException {
+        TarEntry entry = currentEntry;
+        if (entry == null) {
+            return;
+        }
+        if (entryWritten < entry.getSize()) {
+            throw new IOException("The current entry[" + entry.getName() + "] of size["
+                    + entry.getSize() + "] has not been fully written.");
+        }
+        long length = parts.getLast().length();
+        int padding = (int) (TarUtils.paddedSize(length) - length);
+        Objects.requireNonNull(volume).write(ZERO_BLOCK, 0, padding);
+        pos += padding;
+        entries.add(new TarVolumeManifest.Entry(entry.getName(), entry.getSize(), headerVolume, headerOffset, parts));
+        currentEntry = null;
+    }
+
+    /// Returns the volume being written, opening the next volume if there is none.
+    ///
+    /// @return the volume stream
+    /// @throws IOException if an I/O error occurs
+    private OutputStream openVolume() throws IOException {
+        OutputStream out = volume;
+        if (out == null) {
+            String name = VolumeLayout.volumeName(baseName, volumeNames.size());
+            out = new BufferedOutputStream(Files.newOutputStream(directory.resolve(name)));
+            volumeNames.add(name);
+            volume = out;
+            pos = 0;
+        }
+        return out;
+    }
+
+    /// Completes the volume being written.
+    ///
+    /// @param endOfArchive true to end the volume with an end-of-archive marker,
+    ///                     false if an entry continues in the next volume
+    /// @throws IOException if an I/O error occurs
+    private void endVolume(boolean endOfArchive) throws IOException {
+        OutputStream out = Objects.requireNonNull(volume);
+        if (endOfArchive) {
+            out.write(ZERO_BLOCK);
+        }
+        volume = null;
+        pos = 0;
+        out.close();
+        Consumer<Path> listener = volumeListener;
+        if (listener != null) {
+            listener.accept(directory.resolve(volumeNames.getLast()));
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package dk.mada.mjtar;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.jspecify.annotations.Nullable;
+
+/// Writes files to an archive split into volumes of a maximum size.
+///
+/// Entries are placed in a volume as long as they fit. An entry that does
+/// not fit in the remaining space of a volume is moved to the next volume,
+/// unless it is too large to fit in a volume of its own. Then it is split
+/// across volumes, using GNU multi-volume continuation headers (type 'M')
+/// at the start of the following volumes, so the volumes can be read by
+/// `tar --multi-volume`. Names that do not fit in the header fields are
+/// stored in PAX headers preceding the entry and continuation headers.
+///
+/// As the data of all entries is read from files, the layout of all volumes
+/// is planned up front, and the volumes are then written concurrently. Use
+/// [TarVolumeOutputStream] to write data that is not in files.
+///
+/// A manifest of the volumes and the location of every entry's data is
+/// written along with the volumes, see [TarVolumeManifest].
+public final class TarVolumeWriter {
+    /// The smallest allowed volume size: a header, a data block, and the end-of-archive marker.
+    public static final long MIN_VOLUME_SIZE = 2L * TarConstants.HEADER_BLOCK + TarConstants.EOF_BLOCK;
+    /// Suffix of the manifest file name.
+    public static final String MANIFEST_SUFFIX = ".manifest";
+
+    private final Path directory;
+    private final String baseName;
+    private final VolumeLayout layout;
+    private final List<Source> sources = new ArrayList<>();
+
+    /// An entry to write.
+    ///
+    /// @param entry the entry header
+    /// @param file  the file providing the entry data, or null if it has no data
+    private record Source(TarEntry entry, @Nullable Path file) {
+    }
+
+    /// The part of an entry placed in a volume.
+    ///
+    /// @param source       the index of the source
+    /// @param continuation true if the part continues an entry from the previous volume
+    /// @param dataOffset   the offset in the entry data
+    /// @param dataLength   the number of data bytes in the part
+    /// @param volumeOffset the offset of the part's headers in the volume
+    /// @param headerSize   the size of the part's headers
+    private record Piece(int source, boolean continuation, long dataOffset, long dataLength, long volumeOffset, int headerSize) {
+    }
+
+    /// The planned content of a volume.
+    ///
+    /// @param pieces       the entry parts in the volume
+    /// @param endOfArchive true if the volume ends with an end-of-archive marker
+    /// @param size         the size of the volume
+    private record VolumePlan(List<Piece> pieces, boolean endOfArchive, long size) {
+    }
+
+    /// Creates a new volume writer.
+    ///
+    /// The volumes are named `<baseName>.001.tar`, `<baseName>.002.tar` and
+    /// so on, and the manifest `<baseName>.manifest`.
+    ///
+    /// @param directory  the directory to write the volumes to
+    /// @param baseName   the base name of the volume files
+    /// @param volumeSize the maximum size of a volume, rounded down to whole blocks
+    public TarVolumeWriter(Path directory, String baseName, long volumeSize) {
+        this.directory = directory;
+        this.baseName = baseName;
+        this.layout = new VolumeLayout(volumeSize);
+    }
+
+    /// Adds a file or directory.
+    ///
+    /// @param file      the file to add
+    /// @param entryName the name of the entry in the archive
+    /// @throws IOException if the file attributes cannot be read
+    public void add(Path file, String entryName) throws IOException {
+        add(new TarEntry(file, entryName), file);
+    }
+
+    /// Adds an entry with data from a file.
+    ///
+    /// The file must not change size before the volumes are written.
+    ///
+    /// @param entry the entry header
+    /// @param file  the file providing the entry data, may be null if the entry has no data
+    public void add(TarEntry entry, @Nullable Path file) {
+        if (file == null && entry.getSize() > 0) {
+            throw new IllegalArgumentException("Entry " + entry.getName() + " has data, but no file");
+        }
+        sources.add(new Source(entry, file));
+    }
+
+    /// Writes the volumes and the manifest, using a thread per processor.
+    ///
+    /// @return the manifest of the written volumes
+    /// @throws IOException if there is an IO error
+    public TarVolumeManifest write() throws IOException {
+        return write(Runtime.getRuntime().availableProcessors());
+    }
+
+    /// Writes the volumes and the manifest.
+    ///
+    /// @param parallelism the maximum number of volumes to write at the same time
+    /// @return the manifest of the written volumes
+    /// @throws IOException if there is an IO error
+    public TarVolumeManifest write(int parallelism) throws IOException {
+        List<VolumePlan> plans = plan();
+        List<String> volumeNames = new ArrayList<>();
+        for (int v = 0; v < plans.size(); v++) {
+            volumeNames.add(VolumeLayout.volumeName(baseName, v));
+        }
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(parallelism, Thread.ofVirtual().name("tar-volume-", 0).factory())) {
+            List<Future<?>> results = new ArrayList<>();
+            for (int v = 0; v < plans.size(); v++) {
+                VolumePlan plan = plans.get(v);
+                Path volume = directory.resolve(volumeNames.get(v));
+                results.add(executor.submit(() -> {
+                    writeVolume(plan, volume);
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioe) {
+                throw ioe;
+            }
+            throw new IOException("Failed to write volume", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing volumes");
+        }
+
+        TarVolumeManifest manifest = new TarVolumeManifest(directory, volumeNames, manifestEntries(plans));
+        manifest.save(directory.resolve(baseName + MANIFEST_SUFFIX));
+        return manifest;
+    }
+
+    /// Plans the placement of the entries in volumes.
+    ///
+    /// @return the volume plans
+    /// @throws IOException if the volume size is too small for the headers of an entry
+    private List<VolumePlan> plan() throws IOException {
+        List<VolumePlan> volumes = new ArrayList<>();
+        List<Piece> current = new ArrayList<>();
+        long pos = 0;
+
+        for (int i = 0; i < sources.size(); i++) {
+            TarEntry entry = sources.get(i).entry();
+            long size = entry.getSize();
+            long padded = TarUtils.paddedSize(size);
+            int entryHeaderSize = VolumeLayout.headers(entry, 0).length;
+            long done = 0;
+            boolean continuation = false;
+            while (true) {
+                int headerSize = continuation ? VolumeLayout.headers(entry, done).length : entryHeaderSize;
+                long part = layout.place(entry, pos, done, headerSize, entryHeaderSize);
+                if (part == VolumeLayout.ROLL_OVER) {
+                    volumes.add(new VolumePlan(current, true, pos + TarConstants.EOF_BLOCK));
+                    current = new ArrayList<>();
+                    pos = 0;
+                    continue;
+                }
+                if (part == padded - done) {
+                    current.add(new Piece(i, continuation, done, size - done, pos, headerSize));
+                    pos += headerSize + part;
+                    break;
+                }
+
+                current.add(new Piece(i, continuation, done, part, pos, headerSize));
+                volumes.add(new VolumePlan(current, false, pos + headerSize + part));
+                current = new ArrayList<>();
+                pos = 0;
+                done += part;
+                continuation = true;
+            }
+        }
+        volumes.add(new VolumePlan(current, true, pos + TarConstants.EOF_BLOCK));
+        return volumes;
+    }
+
+    private void writeVolume(VolumePlan plan, Path volume) throws IOException {
+        try (FileChannel out = FileChannel.open(volume,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Piece piece : plan.pieces()) {
+                Source source = sources.get(piece.source());
+                ChannelIo.writeFully(out, ByteBuffer.wrap(VolumeLayout.headers(source.entry(), piece.dataOffset())), piece.volumeOffset());
+
+                long dataStart = piece.volumeOffset() + piece.headerSize();
+                Path file = source.file();
+                if (file != null && piece.dataLength() > 0) {
+                    transfer(file, piece.dataOffset(), piece.dataLength(), out, dataStart);
+                }
+                long padding = TarUtils.paddedSize(piece.dataLength()) - piece.dataLength();
+                ChannelIo.writeFully(out, ByteBuffer.allocate((int) padding), dataStart + piece.dataLength());
+            }
+            if (plan.endOfArchive()) {
+                ChannelIo.writeFully(out, ByteBuffer.allocate(TarConstants.EOF_BLOCK), plan.size() - TarConstants.EOF_BLOCK);
+            }
+        }
+    }
+
+    private static void transfer(Path file, long offset, long length, FileChannel out, long position) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            out.position(position);
+            long done = 0;
+            while (done < length) {
+                long count = in.transferTo(offset + done, length - done, out);
+                if (count <= 0) {
+                    throw new IOException("File " + file + " is shorter than expected, was it modified?");
+                }
+                done += count;
+            }
+        }
+    }
+
+    private List<TarVolumeManifest.Entry> manifestEntries(List<VolumePlan> plans) {
+        List<List<TarVolumeManifest.Part>> parts = new ArrayList<>();
+        int[] headerVolume = new int[sources.size()];
+        long[] headerOffset = new long[sources.size()];
+        for (int i = 0; i < sources.size(); i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (int v = 0; v < plans.size(); v++) {
+            for (Piece piece : plans.get(v).pieces()) {
+                if (!piece.continuation()) {
+                    headerVolume[piece.source()] = v;
+                    headerOffset[piece.source()] = piece.volumeOffset();
+                }
+                parts.get(piece.source()).add(new TarVolumeManifest.Part(
+                        v, piece.volumeOffset() + piece.headerSize(), piece.dataLength()));
+            }
+        }
+
+        List<TarVolumeManifest.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < sources.size(); i++) {
+            TarEntry entry = sources.get(i).entry();
+            entries.add(new TarVolumeManifest.Entry(entry.getName(), entry.getSize(), headerVolume[i], headerOffset[i], parts.get(i)));
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,42 @@
+package dk.mada.mjtar;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/// Input stream with reads limited by a [RateLimiter].
+///
+/// Each read call is one operation. Put it below any buffering, so the
+/// limited operations match the reads from the underlying source. For example
+/// `new TarInputStream(new ThrottledInputStream(Files.newInputStream(file), limiter))`.
+public final class ThrottledInputStream extends FilterInputStream {
+    private final RateLimiter limiter;
+
+    /// Creates a new throttled stream.
+    ///
+    /// @param in      the stream to read from
+    /// @param limiter the rate limiter
+    public ThrottledInputStream(InputStream in, RateLimiter limiter) {
+        super(in);
+        this.limiter = limiter;
+    }
+
+    @Override
+    public int read() throws IOException {
+        limiter.acquire(1);
+        return in.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        limiter.acquire(len);
+        return in.read(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipping may not read, so only the operation is counted
+        limiter.acquire(0);
+        return in.skip(n);
+    }
+}
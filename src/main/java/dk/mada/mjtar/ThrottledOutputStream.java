@@ -0,0 +1,35 @@
+package dk.mada.mjtar;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/// Output stream with writes limited by a [RateLimiter].
+///
+/// Each write call is one operation. Put it below any buffering, so the
+/// limited operations match the writes to the underlying target. For example
+/// `new TarOutputStream(new BufferedOutputStream(new ThrottledOutputStream(Files.newOutputStream(file), limiter)))`.
+public final class ThrottledOutputStream extends FilterOutputStream {
+    private final RateLimiter limiter;
+
+    /// Creates a new throttled stream.
+    ///
+    /// @param out     the stream to write to
+    /// @param limiter the rate limiter
+    public ThrottledOutputStream(OutputStream out, RateLimiter limiter) {
+        super(out);
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        limiter.acquire(1);
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        limiter.acquire(len);
+        out.write(b, off, len);
+    }
+}
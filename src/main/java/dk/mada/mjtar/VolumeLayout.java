@@ -0,0 +1,160 @@
+package dk.mada.mjtar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/// The placement of entries in volumes of a maximum size, and the headers
+/// written for them.
+///
+/// Shared by [TarVolumeWriter], which plans all volumes up front, and
+/// [TarVolumeOutputStream], which places each entry as it is written. Both
+/// produce the same volumes for the same entries.
+final class VolumeLayout {
+    /// Returned by [#place] when the entry must start in the next volume.
+    static final long ROLL_OVER = -1;
+    /// PAX attribute with the name of the file continued in a volume, used by GNU tar.
+    private static final String GNU_VOLUME_FILENAME = "GNU.volume.filename";
+    /// PAX attribute with the remaining size of the file continued in a volume, used by GNU tar.
+    private static final String GNU_VOLUME_SIZE = "GNU.volume.size";
+    /// PAX attribute with the offset of the data of the file continued in a volume, used by GNU tar.
+    private static final String GNU_VOLUME_OFFSET = "GNU.volume.offset";
+
+    private final long volumeSize;
+
+    /// Creates a new layout.
+    ///
+    /// @param volumeSize the maximum size of a volume, rounded down to whole blocks
+    VolumeLayout(long volumeSize) {
+        if (volumeSize < TarVolumeWriter.MIN_VOLUME_SIZE) {
+            throw new IllegalArgumentException("Volume size must be at least " + TarVolumeWriter.MIN_VOLUME_SIZE + ", was " + volumeSize);
+        }
+        this.volumeSize = volumeSize - volumeSize % TarConstants.DATA_BLOCK;
+    }
+
+    /// Returns the file name of a volume.
+    ///
+    /// @param baseName the base name of the volume files
+    /// @param volume   the index of the volume
+    /// @return the volume file name
+    static String volumeName(String baseName, int volume) {
+        return "%s.%03d.tar".formatted(baseName, volume + 1);
+    }
+
+    /// Decides how much of the remaining data of an entry is placed in the current volume.
+    ///
+    /// An entry is moved to the next volume if it does not fit in the current
+    /// volume, unless it is too large to fit in a volume of its own. Then it
+    /// is split, leaving at least a block for the next volume.
+    ///
+    /// @param entry           the entry
+    /// @param pos             the position in the current volume
+    /// @param done            the amount of entry data placed in earlier volumes
+    /// @param headerSize      the size of the headers of the part
+    /// @param entryHeaderSize the size of the headers of the first part of the entry
+    /// @return the padded size of the remaining data if it all fits, the size of the part
+    ///         ending the volume if the entry is split, or [#ROLL_OVER]
+    /// @throws IOException if the volume size is too small for the headers of the entry
+    long place(TarEntry entry, long pos, long done, int headerSize, int entryHeaderSize) throws IOException {
+        long padded = TarUtils.paddedSize(entry.getSize());
+        long remainingPadded = padded - done;
+        if (pos + headerSize + remainingPadded + TarConstants.EOF_BLOCK <= volumeSize) {
+            return remainingPadded;
+        }
+
+        long room = volumeSize - pos - headerSize;
+        boolean fitsInEmptyVolume = entryHeaderSize + padded + TarConstants.EOF_BLOCK <= volumeSize;
+        if (done == 0 && pos > 0 && (fitsInEmptyVolume || room < TarConstants.DATA_BLOCK)) {
+            return ROLL_OVER;
+        }
+
+        long chunk = Math.min(room - room % TarConstants.DATA_BLOCK, remainingPadded - TarConstants.DATA_BLOCK);
+        if (chunk < TarConstants.DATA_BLOCK) {
+            throw new IOException("Volume size " + volumeSize + " is too small for the headers of entry " + entry.getName());
+        }
+        return chunk;
+    }
+
+    /// Creates the headers written before a part of an entry.
+    ///
+    /// The first part gets the entry header, preceded by a PAX extended
+    /// header if the entry needs one. Following parts get a continuation
+    /// header. If the entry name does not fit in its name field, it is
+    /// preceded by a PAX global header with the GNU volume attributes (which
+    /// GNU tar uses to match the continued file) and a PAX extended header
+    /// with the path.
+    ///
+    /// @param entry      the entry
+    /// @param dataOffset the offset of the part in the entry data
+    /// @return the headers
+    static byte[] headers(TarEntry entry, long dataOffset) {
+        var headers = new ByteArrayOutputStream();
+        byte[] header = new byte[TarConstants.HEADER_BLOCK];
+        if (dataOffset == 0) {
+            writeExtendedHeader(entry, TarHeader.LF_PAX_EXTENDED, PaxHeaders.records(entry, null), headers);
+            entry.writeEntryHeader(header);
+        } else {
+            String name = entry.getName();
+            if (!PaxHeaders.fits(name, TarHeader.NAMELEN)) {
+                var volume = new ByteArrayOutputStream();
+                volume.writeBytes(PaxHeaders.record(GNU_VOLUME_FILENAME, name));
+                volume.writeBytes(PaxHeaders.record(GNU_VOLUME_SIZE, Long.toString(entry.getSize() - dataOffset)));
+                volume.writeBytes(PaxHeaders.record(GNU_VOLUME_OFFSET, Long.toString(dataOffset)));
+                writeExtendedHeader(entry, TarHeader.LF_PAX_GLOBAL, volume.toByteArray(), headers);
+                writeExtendedHeader(entry, TarHeader.LF_PAX_EXTENDED, PaxHeaders.record(PaxHeaders.PATH, name), headers);
+            }
+            writeContinuationHeader(entry, dataOffset, header);
+        }
+        headers.writeBytes(header);
+        return headers.toByteArray();
+    }
+
+    /// Writes a PAX header and its records, unless there are no records.
+    ///
+    /// @param entry   the entry the header applies to
+    /// @param type    the type of the PAX header
+    /// @param records the encoded records
+    /// @param headers the stream to write to
+    private static void writeExtendedHeader(TarEntry entry, byte type, byte[] records, ByteArrayOutputStream headers) {
+        if (records.length == 0) {
+            return;
+        }
+        TarEntry extended = PaxHeaders.headerFor(entry, records.length);
+        extended.getHeader().linkFlag = type;
+        byte[] header = new byte[TarConstants.HEADER_BLOCK];
+        extended.writeEntryHeader(header);
+        headers.writeBytes(header);
+        headers.writeBytes(Arrays.copyOf(records, (int) TarUtils.paddedSize(records.length)));
+    }
+
+    /// Writes a GNU multi-volume continuation header.
+    ///
+    /// The header has the entry name, the size of the remaining data, and the
+    /// offset of the data in the file. As the prefix field is used by GNU header
+    /// fields, a name longer than the name field is cut to its first part, like
+    /// GNU tar does; the full name is then in the preceding extended header.
+    ///
+    /// @param entry  the entry being continued
+    /// @param offset the offset of the continued data
+    /// @param buf    the buffer to write the header to
+    private static void writeContinuationHeader(TarEntry entry, long offset, byte[] buf) {
+        String name = entry.getName();
+        if (name.length() > TarHeader.NAMELEN) {
+            name = name.substring(0, TarHeader.NAMELEN);
+        }
+        TarHeader header = TarHeader.createHeader(name, entry.getSize() - offset,
+                entry.getHeader().modTime, false, entry.getHeader().mode);
+        header.linkFlag = TarHeader.LF_GNU_MULTIVOL;
+        header.magic = new StringBuffer(TarHeader.GNU_MAGIC);
+        header.userId = entry.getUserId();
+        header.groupId = entry.getGroupId();
+        header.userName = new StringBuffer(entry.getUserName());
+        header.groupName = new StringBuffer(entry.getGroupName());
+
+        TarEntry continuation = new TarEntry(header);
+        continuation.writeEntryHeader(buf);
+        Octal.writeOctalBytes(offset, buf, TarHeader.GNU_OFFSET_OFFSET, TarHeader.GNU_OFFSETLEN);
+        Arrays.fill(buf, TarHeader.CHKSUM_OFFSET, TarHeader.CHKSUM_OFFSET + TarHeader.CHKSUMLEN, (byte) ' ');
+        Octal.writeCheckSumOctalBytes(continuation.computeCheckSum(buf), buf, TarHeader.CHKSUM_OFFSET, TarHeader.CHKSUMLEN);
+    }
+}
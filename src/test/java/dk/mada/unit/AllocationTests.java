@@ -0,0 +1,56 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+import org.junit.jupiter.api.Test;
+
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarOutputStream;
+
+/**
+ * Allocation regression tests of the archive write path.
+ */
+class AllocationTests {
+    private static final int WARMUP_ENTRIES = 50_000;
+    private static final int MEASURED_ENTRIES = 100_000;
+    /// Allowance for incidental allocations during the measurement, far
+    /// below what a single allocation per entry would add up to.
+    private static final long MAX_ALLOCATED_BYTES = 16 * 1024;
+
+    /// Writing entries should not allocate once the stream is set up.
+    @Test
+    void writingEntriesDoesNotAllocate() throws IOException {
+        var threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        var allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+        byte[] data = new byte[700];
+        TarEntry entry = new TarEntry(TarHeader.createHeader("some/dir/file.txt", data.length, 1_700_000_000L, false, 0644));
+        try (var tos = new TarOutputStream(OutputStream.nullOutputStream())) {
+            writeEntries(tos, entry, data, WARMUP_ENTRIES);
+
+            long threadId = Thread.currentThread().threadId();
+            long before = allocationBean.getThreadAllocatedBytes(threadId);
+            writeEntries(tos, entry, data, MEASURED_ENTRIES);
+            long after = allocationBean.getThreadAllocatedBytes(threadId);
+
+            assertThat(after - before)
+                .isLessThan(MAX_ALLOCATED_BYTES);
+        }
+    }
+
+    private static void writeEntries(TarOutputStream tos, TarEntry entry, byte[] data, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            tos.putNextEntry(entry);
+            tos.write(data);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarFile;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarIndex;
+import dk.mada.mjtar.TarInputStream;
+import dk.mada.mjtar.TarOutputStream;
+
+/**
+ * Tests of appending to archive files.
+ */
+class AppendTests {
+    /// Blocking factor padding used by GNU tar.
+    private static final int GNU_RECORD_SIZE = 10240;
+
+    @TempDir Path dir;
+
+    /// Appending finds the end of archive, even with padding after it.
+    @Test
+    void appendsToPaddedArchive() throws IOException {
+        Path archive = dir.resolve("archive.tar");
+        try (var tos = new TarOutputStream(archive)) {
+            add(tos, "first", "one");
+        }
+        padToRecordSize(archive);
+
+        try (var tos = new TarOutputStream(archive, true)) {
+            add(tos, "second", "two");
+        }
+
+        assertThat(readNames(archive)).containsExactly("first", "second");
+        assertThat(Files.size(archive)).isEqualTo(4L * 512 + 1024);
+    }
+
+    /// Appending can use an existing index instead of scanning the archive.
+    @Test
+    void appendsUsingIndex() throws IOException {
+        Path archive = dir.resolve("archive.tar");
+        try (var tos = new TarOutputStream(archive)) {
+            add(tos, "first", "one");
+        }
+        padToRecordSize(archive);
+
+        TarIndex index;
+        try (var tf = new TarFile(archive)) {
+            index = tf.getIndex();
+        }
+        try (var tos = new TarOutputStream(archive, index)) {
+            add(tos, "second", "two");
+        }
+
+        assertThat(readNames(archive)).containsExactly("first", "second");
+    }
+
+    /// Appending to an empty file creates a new archive.
+    @Test
+    void appendsToEmptyFile() throws IOException {
+        Path archive = Files.createFile(dir.resolve("archive.tar"));
+
+        try (var tos = new TarOutputStream(archive, true)) {
+            add(tos, "first", "one");
+        }
+
+        assertThat(readNames(archive)).containsExactly("first");
+    }
+
+    /// Appending to a short file that is not an archive fails, leaving the file unchanged.
+    @Test
+    void appendToShortFileFails() throws IOException {
+        Path file = Files.writeString(dir.resolve("notes.txt"), "not an archive");
+
+        assertThatThrownBy(() -> new TarOutputStream(file, true))
+            .isInstanceOf(IOException.class);
+
+        assertThat(Files.readString(file)).isEqualTo("not an archive");
+    }
+
+    /// Appending to a file that is not an archive fails, leaving the file unchanged.
+    @Test
+    void appendToGarbageFileFails() throws IOException {
+        Path file = dir.resolve("garbage.bin");
+        byte[] garbage = "0123456789 not a tar header ".repeat(200).getBytes();
+        Files.write(file, garbage);
+
+        assertThatThrownBy(() -> new TarOutputStream(file, true))
+            .isInstanceOf(IOException.class);
+
+        assertThat(Files.readAllBytes(file)).isEqualTo(garbage);
+    }
+
+    /// Appending to an archive with a corrupt entry header fails.
+    @Test
+    void appendToCorruptArchiveFails() throws IOException {
+        Path archive = dir.resolve("archive.tar");
+        try (var tos = new TarOutputStream(archive)) {
+            add(tos, "first", "one");
+            add(tos, "second", "two");
+        }
+        byte[] data = Files.readAllBytes(archive);
+        // Corrupt the name of the second entry
+        data[2 * 512 + 1] ^= 0x20;
+        Files.write(archive, data);
+
+        assertThatThrownBy(() -> new TarOutputStream(archive, true))
+            .isInstanceOf(IOException.class);
+
+        assertThat(Files.readAllBytes(archive)).isEqualTo(data);
+    }
+
+    /// Writing without append replaces a larger file completely.
+    @Test
+    void overwriteTruncatesFile() throws IOException {
+        Path archive = dir.resolve("archive.tar");
+        Files.write(archive, new byte[GNU_RECORD_SIZE * 2]);
+
+        try (var tos = new TarOutputStream(archive, false)) {
+            add(tos, "first", "one");
+        }
+
+        assertThat(Files.size(archive)).isEqualTo(2L * 512 + 1024);
+    }
+
+    private static void padToRecordSize(Path archive) throws IOException {
+        long size = Files.size(archive);
+        int padding = (int) (GNU_RECORD_SIZE - size % GNU_RECORD_SIZE);
+        Files.write(archive, new byte[padding], StandardOpenOption.APPEND);
+    }
+
+    private static void add(TarOutputStream tos, String name, String content) throws IOException {
+        tos.putNextEntry(new TarEntry(TarHeader.createHeader(name, content.length(), 1_700_000_000L, false, 0644)));
+        tos.write(content.getBytes());
+    }
+
+    private static List<String> readNames(Path archive) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (var tis = new TarInputStream(Files.newInputStream(archive))) {
+            TarEntry entry;
+            while ((entry = tis.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,109 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dk.mada.mjtar.CheckpointPolicy;
+import dk.mada.mjtar.TarCheckpoint;
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarInputStream;
+import dk.mada.mjtar.TarOutputStream;
+
+/**
+ * Tests of checkpointed archive writing.
+ */
+class CheckpointTests {
+    private static final int ENTRIES = 10;
+
+    @TempDir Path dir;
+
+    /// Checkpoints are taken at the configured interval, and removed when the archive is complete.
+    @Test
+    void checkpointsAtInterval() throws IOException {
+        Path archive = dir.resolve("archive.tar");
+
+        TarOutputStream.CheckpointStats stats;
+        try (var tos = new TarOutputStream(archive, CheckpointPolicy.everyEntries(3))) {
+            for (int i = 0; i < ENTRIES; i++) {
+                add(tos, i);
+            }
+            stats = tos.getCheckpointStats();
+            assertThat(tos.getCheckpoint()).isNotNull();
+            assertThat(TarCheckpoint.load(archive)).isEqualTo(tos.getCheckpoint());
+        }
+
+        // entry 9 is completed by close, so 3 checkpoints before that
+        assertThat(stats.checkpoints()).isEqualTo(3L);
+        assertThat(TarCheckpoint.file(archive)).doesNotExist();
+        assertThat(readNames(archive)).hasSize(ENTRIES);
+    }
+
+    /// An interrupted archive can be resumed from its last checkpoint.
+    @Test
+    void resumesFromCheckpoint() throws IOException {
+        Path archive = dir.resolve("archive.tar");
+        Path crashed = dir.resolve("crashed.tar");
+
+        try (var tos = new TarOutputStream(archive, CheckpointPolicy.everyEntries(2))) {
+            for (int i = 0; i < 6; i++) {
+                add(tos, i);
+            }
+            // Simulate a crash while entry 6 is being written, by copying the current state
+            byte[] data = entryData(6);
+            tos.putNextEntry(new TarEntry(TarHeader.createHeader("entry-6", data.length, 1_700_000_000L, false, 0644)));
+            tos.write(data, 0, 100);
+            tos.flush();
+            Files.copy(archive, crashed);
+            Files.copy(TarCheckpoint.file(archive), TarCheckpoint.file(crashed));
+            tos.write(data, 100, data.length - 100);
+        }
+
+        try (var tos = TarOutputStream.resume(crashed, CheckpointPolicy.everyEntries(2))) {
+            TarCheckpoint checkpoint = tos.getCheckpoint();
+            assertThat(checkpoint).isNotNull();
+            assertThat(checkpoint.entries()).isEqualTo(6L);
+            assertThat(checkpoint.lastEntryName()).isEqualTo("entry-5");
+            assertThat(checkpoint.token()).isEqualTo("walk-5");
+
+            for (int i = Integer.parseInt(checkpoint.token().substring(5)) + 1; i < ENTRIES; i++) {
+                add(tos, i);
+            }
+        }
+
+        List<String> names = readNames(crashed);
+        assertThat(names).hasSize(ENTRIES);
+        assertThat(names.get(ENTRIES - 1)).isEqualTo("entry-" + (ENTRIES - 1));
+        assertThat(TarCheckpoint.file(crashed)).doesNotExist();
+    }
+
+    private static void add(TarOutputStream tos, int i) throws IOException {
+        byte[] data = entryData(i);
+        tos.putNextEntry(new TarEntry(TarHeader.createHeader("entry-" + i, data.length, 1_700_000_000L, false, 0644)), "walk-" + i);
+        tos.write(data);
+    }
+
+    private static byte[] entryData(int i) {
+        return new byte[300 + i * 700];
+    }
+
+    private static List<String> readNames(Path archive) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (var tis = new TarInputStream(Files.newInputStream(archive))) {
+            TarEntry entry;
+            while ((entry = tis.getNextEntry()) != null) {
+                assertThat(tis.readAllBytes()).hasSize((int) entry.getSize());
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,130 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dk.mada.mjtar.DigestAlgorithm;
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarFile;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarIndexEntry;
+import dk.mada.mjtar.TarInputStream;
+import dk.mada.mjtar.TarOutputStream;
+
+/**
+ * Tests of in-place deletion of archive entries.
+ */
+class CompactionTests {
+    @TempDir Path dir;
+
+    private final Map<String, byte[]> contents = new LinkedHashMap<>();
+
+    /// Deleted entries are removed, and the remaining entries are intact.
+    @Test
+    void deletesEntries() throws IOException {
+        Path archive = createArchive(20);
+        long sizeBefore = Files.size(archive);
+
+        int deleted = TarFile.delete(archive, List.of("entry-3", "entry-4", "entry-11", "entry-19", "missing"));
+
+        assertThat(deleted).isEqualTo(4);
+        assertThat(Files.size(archive)).isLessThan(sizeBefore);
+        assertThat(journal(archive)).doesNotExist();
+        contents.keySet().removeAll(List.of("entry-3", "entry-4", "entry-11", "entry-19"));
+        assertContents(archive);
+    }
+
+    /// Entries are deleted together with their extended headers.
+    @Test
+    void deletesEntriesWithDigests() throws IOException {
+        Path archive = createArchive(6, DigestAlgorithm.SHA_256);
+
+        assertThat(TarFile.delete(archive, List.of("entry-0", "entry-3"))).isEqualTo(2);
+
+        contents.keySet().removeAll(List.of("entry-0", "entry-3"));
+        assertContents(archive);
+        List<String> names = new ArrayList<>();
+        try (var tis = new TarInputStream(Files.newInputStream(archive))) {
+            tis.setVerifyDigests(true);
+            TarEntry entry;
+            while ((entry = tis.getNextEntry()) != null) {
+                names.add(entry.getName());
+                assertThat(entry.getPaxAttributes()).containsKey(DigestAlgorithm.SHA_256.paxKey());
+                assertThat(tis.readAllBytes()).isEqualTo(contents.get(entry.getName()));
+            }
+        }
+        assertThat(names).isEqualTo(List.copyOf(contents.keySet()));
+    }
+
+    /// Deleting nothing leaves the archive untouched.
+    @Test
+    void deletingUnknownNamesDoesNothing() throws IOException {
+        Path archive = createArchive(5);
+        byte[] before = Files.readAllBytes(archive);
+
+        assertThat(TarFile.delete(archive, List.of("missing"))).isZero();
+
+        assertThat(Files.readAllBytes(archive)).isEqualTo(before);
+    }
+
+    /// A journal that was not completely written is discarded, as the archive was never modified.
+    @Test
+    void incompleteJournalIsDiscarded() throws IOException {
+        Path archive = createArchive(5);
+        Files.write(journal(archive), new byte[] {0x6d, 0x6a});
+
+        assertThat(TarFile.resumeCompaction(archive)).isTrue();
+
+        assertThat(journal(archive)).doesNotExist();
+        assertContents(archive);
+        assertThat(TarFile.resumeCompaction(archive)).isFalse();
+    }
+
+    private Path journal(Path archive) {
+        return archive.resolveSibling(archive.getFileName() + ".compact-journal");
+    }
+
+    private void assertContents(Path archive) throws IOException {
+        try (var tf = new TarFile(archive)) {
+            assertThat(tf.getEntries().stream().map(TarIndexEntry::name).toList())
+                .isEqualTo(List.copyOf(contents.keySet()));
+            for (TarIndexEntry e : tf.getEntries()) {
+                try (var in = tf.getInputStream(e)) {
+                    assertThat(in.readAllBytes()).isEqualTo(contents.get(e.name()));
+                }
+            }
+        }
+    }
+
+    private Path createArchive(int entries) throws IOException {
+        return createArchive(entries, null);
+    }
+
+    private Path createArchive(int entries, DigestAlgorithm digest) throws IOException {
+        Random rnd = new Random(42);
+        Path archive = dir.resolve("archive.tar");
+        try (var tos = new TarOutputStream(archive, false)) {
+            tos.setDigest(digest);
+            for (int i = 0; i < entries; i++) {
+                String name = "entry-" + i;
+                byte[] data = new byte[rnd.nextInt(5000)];
+                rnd.nextBytes(data);
+                contents.put(name, data);
+                tos.putNextEntry(new TarEntry(TarHeader.createHeader(name, data.length, 1_700_000_000L, false, 0644)));
+                tos.write(data);
+            }
+        }
+        return archive;
+    }
+}
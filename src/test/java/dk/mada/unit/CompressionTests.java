@@ -0,0 +1,126 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dk.mada.mjtar.CompressedArchives;
+import dk.mada.mjtar.CompressionOptions;
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarInputStream;
+import dk.mada.mjtar.TarOutputStream;
+
+/**
+ * Tests of compressed archive reading and writing.
+ */
+class CompressionTests {
+    @TempDir Path dir;
+
+    /// Gzip compressed archives are detected and decompressed.
+    @Test
+    void readsGzippedArchive() throws IOException {
+        Map<String, byte[]> contents = readAll(CompressedArchives.newInputStream(Path.of("src/test/resources/tartest.tar.gz")));
+
+        assertThat(contents)
+            .containsKey("tartest/one");
+        assertThat(new String(contents.get("tartest/one"))).isEqualTo("HPeX2kD5kSTc7pzCDX");
+    }
+
+    /// Uncompressed archives are passed through.
+    @Test
+    void readsUncompressedArchive() throws IOException {
+        Map<String, byte[]> contents = readAll(CompressedArchives.newInputStream(Path.of("src/test/resources/tartest.tar")));
+
+        assertThat(new String(contents.get("tartest/six"))).isEqualTo("jrPYpzLfWB5vZTRsSKqFvVj");
+    }
+
+    /// Written archives can be read by the JDK and by the library, with small buffers and various settings.
+    @Test
+    void writtenArchivesRoundTrip() throws IOException {
+        var options = CompressionOptions.DEFAULT
+            .withBufferSize(1024)
+            .withLevel(Deflater.BEST_SPEED)
+            .withStrategy(Deflater.FILTERED);
+        Map<String, byte[]> written = new LinkedHashMap<>();
+        Path archive = dir.resolve("out.tar.gz");
+        var rnd = new Random(3);
+        try (TarOutputStream tos = CompressedArchives.newGzipOutputStream(archive, options)) {
+            for (int i = 0; i < 20; i++) {
+                byte[] data = new byte[rnd.nextInt(30_000)];
+                // Half random, half compressible
+                rnd.nextBytes(data);
+                for (int j = data.length / 2; j < data.length; j++) {
+                    data[j] = (byte) (j % 7);
+                }
+                String name = "dir/file-" + i;
+                written.put(name, data);
+                tos.putNextEntry(new TarEntry(TarHeader.createHeader(name, data.length, 1_700_000_000L, false, 0644)));
+                tos.write(data);
+            }
+        }
+
+        assertEqualContents(readAll(new TarInputStream(new GZIPInputStream(Files.newInputStream(archive)))), written);
+        assertEqualContents(readAll(CompressedArchives.newInputStream(archive, options)), written);
+    }
+
+    /// The channel is closed if opening the archive fails with an unchecked exception.
+    @Test
+    void closesChannelOnUncheckedFailure() {
+        var channel = new ReadableByteChannel() {
+            private boolean open = true;
+
+            @Override
+            public int read(ByteBuffer dst) {
+                throw new IllegalStateException("broken source");
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() {
+                open = false;
+            }
+        };
+
+        assertThatThrownBy(() -> CompressedArchives.newInputStream(channel, CompressionOptions.DEFAULT))
+            .isInstanceOf(IllegalStateException.class);
+
+        assertThat(channel.isOpen()).isFalse();
+    }
+
+    private static void assertEqualContents(Map<String, byte[]> actual, Map<String, byte[]> expected) {
+        assertThat(actual.keySet()).containsExactly(expected.keySet().toArray());
+        for (var e : expected.entrySet()) {
+            assertThat(actual.get(e.getKey())).isEqualTo(e.getValue());
+        }
+    }
+
+    private static Map<String, byte[]> readAll(TarInputStream tis) throws IOException {
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        try (InputStream is = tis) {
+            TarEntry entry;
+            while ((entry = tis.getNextEntry()) != null) {
+                result.put(entry.getName(), tis.readAllBytes());
+            }
+        }
+        return result;
+    }
+}
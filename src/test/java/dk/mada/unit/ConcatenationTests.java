@@ -0,0 +1,104 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dk.mada.mjtar.TarConcatenator;
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarFile;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarIndex;
+import dk.mada.mjtar.TarIndexEntry;
+import dk.mada.mjtar.TarInputStream;
+import dk.mada.mjtar.TarOutputStream;
+
+/**
+ * Tests of archive concatenation.
+ */
+class ConcatenationTests {
+    @TempDir Path dir;
+
+    /// Concatenated archives hold all entries, and the merged index matches the result.
+    @Test
+    void concatenatesArchives() throws IOException {
+        Path first = createArchive("first.tar", "a", "b");
+        Path second = createArchive("second.tar", "c");
+        // Trailing padding, as added by GNU tar, must not end up in the middle of the result
+        Files.write(second, new byte[4096], StandardOpenOption.APPEND);
+        Path target = dir.resolve("target.tar");
+
+        TarIndex index = TarConcatenator.concatenate(target, List.of(first, second));
+
+        Map<String, String> contents = readContents(target);
+        assertThat(contents.keySet()).containsExactly("a", "b", "c");
+        assertThat(contents.get("c")).isEqualTo("content of c");
+        try (var tf = new TarFile(target)) {
+            assertThat(index.entries()).isEqualTo(tf.getEntries());
+            assertThat(index.endOfArchive()).isEqualTo(tf.getIndex().endOfArchive());
+        }
+    }
+
+    /// Archives can be appended to an existing archive.
+    @Test
+    void appendsArchives() throws IOException {
+        Path target = createArchive("target.tar", "a");
+        Path source = createArchive("source.tar", "b", "c");
+
+        TarIndex index = TarConcatenator.append(target, List.of(source));
+
+        assertThat(index.entries().stream().map(TarIndexEntry::name).toList()).containsExactly("a", "b", "c");
+        assertThat(readContents(target).keySet()).containsExactly("a", "b", "c");
+        assertThat(Files.size(target)).isEqualTo(index.endOfArchive() + 1024);
+    }
+
+    /// A failed append leaves the target with its original entries.
+    @Test
+    void failedAppendRestoresTarget() throws IOException {
+        Path target = createArchive("target.tar", "a");
+        byte[] original = Files.readAllBytes(target);
+        Path source = createArchive("source.tar", "b");
+        Path truncated = createArchive("truncated.tar", "c");
+        byte[] truncatedData = Files.readAllBytes(truncated);
+        Files.write(truncated, Arrays.copyOf(truncatedData, 600));
+
+        assertThatThrownBy(() -> TarConcatenator.append(target, List.of(source, truncated)))
+            .isInstanceOf(IOException.class);
+
+        assertThat(Files.readAllBytes(target)).isEqualTo(original);
+    }
+
+    private Path createArchive(String fileName, String... names) throws IOException {
+        Path archive = dir.resolve(fileName);
+        try (var tos = new TarOutputStream(archive)) {
+            for (String name : names) {
+                byte[] data = ("content of " + name).getBytes();
+                tos.putNextEntry(new TarEntry(TarHeader.createHeader(name, data.length, 1_700_000_000L, false, 0644)));
+                tos.write(data);
+            }
+        }
+        return archive;
+    }
+
+    private static Map<String, String> readContents(Path archive) throws IOException {
+        Map<String, String> contents = new LinkedHashMap<>();
+        try (var tis = new TarInputStream(Files.newInputStream(archive))) {
+            TarEntry entry;
+            while ((entry = tis.getNextEntry()) != null) {
+                contents.put(entry.getName(), new String(tis.readAllBytes()));
+            }
+        }
+        return contents;
+    }
+}
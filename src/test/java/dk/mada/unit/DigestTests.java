@@ -0,0 +1,247 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dk.mada.mjtar.DigestAlgorithm;
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarInputStream;
+import dk.mada.mjtar.TarOutputStream;
+import dk.mada.mjtar.TarVerifier;
+import dk.mada.mjtar.TarVerifier.Mismatch;
+
+/**
+ * Tests of entry content digests.
+ */
+class DigestTests {
+    /// Large enough to be hashed on the helper thread.
+    private static final int LARGE_SIZE = 3 * 1024 * 1024 + 17;
+
+    @TempDir Path dir;
+
+    /// Digests are stored in PAX headers, and verified when reading.
+    @Test
+    void storesAndVerifiesDigests() throws IOException, NoSuchAlgorithmException {
+        Path archive = dir.resolve("archive.tar");
+        byte[] small = data(700);
+        byte[] large = data(LARGE_SIZE);
+        try (var tos = new TarOutputStream(archive, false)) {
+            tos.setDigest(DigestAlgorithm.SHA_256);
+            add(tos, "small.txt", small);
+            tos.putNextEntry(new TarEntry(TarHeader.createHeader("dir", 0, 1_700_000_000L, true, 0755)));
+            add(tos, "large.bin", large);
+        }
+
+        try (var tis = new TarInputStream(Files.newInputStream(archive))) {
+            tis.setVerifyDigests(true);
+
+            TarEntry entry = tis.getNextEntry();
+            assertThat(entry.getName()).isEqualTo("small.txt");
+            assertThat(entry.getPaxAttributes().get(DigestAlgorithm.SHA_256.paxKey())).isEqualTo(sha256(small));
+            assertThat(tis.readAllBytes()).isEqualTo(small);
+
+            entry = tis.getNextEntry();
+            assertThat(entry.getName()).isEqualTo("dir/");
+            assertThat(entry.getPaxAttributes()).isEmpty();
+
+            entry = tis.getNextEntry();
+            assertThat(entry.getPaxAttributes().get(DigestAlgorithm.SHA_256.paxKey())).isEqualTo(sha256(large));
+            assertThat(tis.readAllBytes()).isEqualTo(large);
+
+            assertThat(tis.getNextEntry()).isNull();
+        }
+    }
+
+    /// Corrupted entry data is reported when the entry is read.
+    @Test
+    void detectsCorruptedData() throws IOException {
+        Path archive = writeCorrupted(DigestAlgorithm.CRC32C);
+
+        try (var tis = new TarInputStream(Files.newInputStream(archive))) {
+            tis.setVerifyDigests(true);
+            tis.getNextEntry();
+
+            assertThatThrownBy(tis::readAllBytes)
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Digest mismatch for entry first");
+        }
+    }
+
+    /// Corrupted entry data is also reported when the entry is skipped.
+    @Test
+    void detectsCorruptedSkippedData() throws IOException {
+        Path archive = writeCorrupted(DigestAlgorithm.SHA_256);
+
+        try (var tis = new TarInputStream(Files.newInputStream(archive))) {
+            tis.setVerifyDigests(true);
+            tis.getNextEntry();
+
+            assertThatThrownBy(tis::getNextEntry)
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Digest mismatch for entry first");
+        }
+    }
+
+    /// Without verification, digest headers are consumed but not checked.
+    @Test
+    void ignoresDigestsUnlessVerifying() throws IOException {
+        Path archive = writeCorrupted(DigestAlgorithm.SHA_256);
+
+        try (var tis = new TarInputStream(Files.newInputStream(archive))) {
+            assertThat(tis.getNextEntry().getName()).isEqualTo("first");
+            assertThat(tis.readAllBytes()).hasSize(LARGE_SIZE);
+            assertThat(tis.getNextEntry().getName()).isEqualTo("second");
+        }
+    }
+
+    /// Digests need a file to patch.
+    @Test
+    void digestsNeedArchiveFile() throws IOException {
+        try (var tos = new TarOutputStream(new ByteArrayOutputStream())) {
+            assertThatThrownBy(() -> tos.setDigest(DigestAlgorithm.CRC32C))
+                .isInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    /// Digests of many entries are all written, also with the plain file constructor.
+    @Test
+    void storesDigestsOfManyEntries() throws IOException, NoSuchAlgorithmException {
+        Path archive = dir.resolve("archive.tar");
+        try (var tos = new TarOutputStream(archive)) {
+            tos.setDigest(DigestAlgorithm.SHA_256);
+            for (int i = 0; i < 150; i++) {
+                add(tos, "file" + i, data(i));
+            }
+        }
+
+        try (var tis = new TarInputStream(Files.newInputStream(archive))) {
+            tis.setVerifyDigests(true);
+            for (int i = 0; i < 150; i++) {
+                TarEntry entry = tis.getNextEntry();
+                assertThat(entry.getPaxAttributes().get(DigestAlgorithm.SHA_256.paxKey())).isEqualTo(sha256(data(i)));
+                assertThat(tis.readAllBytes()).isEqualTo(data(i));
+            }
+            assertThat(tis.getNextEntry()).isNull();
+        }
+    }
+
+    /// Malformed extended header records are IO errors, reported by recovery mode and the verifier.
+    @Test
+    void rejectsMalformedRecords() throws IOException {
+        for (String records : List.of("0 a=b\n", "3 a=b\n", "99999999999999999999 a=b\n", "6 a=b\nx")) {
+            Path archive = dir.resolve("malformed.tar");
+            try (var tos = new TarOutputStream(archive, false)) {
+                TarHeader pax = TarHeader.createHeader("PaxHeaders/a.txt", records.length(), 1_700_000_000L, false, 0644);
+                pax.linkFlag = TarHeader.LF_PAX_EXTENDED;
+                tos.putNextEntry(new TarEntry(pax));
+                tos.write(records.getBytes(StandardCharsets.US_ASCII));
+                add(tos, "a.txt", data(10));
+            }
+
+            try (var tis = new TarInputStream(Files.newInputStream(archive))) {
+                assertThatThrownBy(tis::getNextEntry)
+                    .as(records)
+                    .isInstanceOf(IOException.class)
+                    .hasMessageContaining("Invalid PAX record");
+            }
+
+            List<String> lost = new ArrayList<>();
+            try (var tis = new TarInputStream(Files.newInputStream(archive))) {
+                tis.setRecoveryListener((offset, length, reason) -> lost.add(reason));
+                assertThat(tis.getNextEntry().getName()).as(records).isEqualTo("a.txt");
+            }
+            assertThat(lost).as(records).hasSize(1);
+
+            List<Mismatch> mismatches = new ArrayList<>();
+            TarVerifier.Summary summary = new TarVerifier().verify(archive, 1, mismatches::add);
+            assertThat(summary.isOk()).as(records).isFalse();
+            assertThat(mismatches.getFirst().problem()).isEqualTo(TarVerifier.Problem.HEADER);
+        }
+    }
+
+    private Path writeCorrupted(DigestAlgorithm algorithm) throws IOException {
+        Path archive = dir.resolve("archive.tar");
+        try (var tos = new TarOutputStream(archive, false)) {
+            tos.setDigest(algorithm);
+            add(tos, "first", data(LARGE_SIZE));
+            add(tos, "second", data(10));
+        }
+        // Flip a byte in the data of the first entry (after its PAX header and header)
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            long offset = 3 * 512 + 100_000;
+            channel.read(b, offset);
+            b.put(0, (byte) (b.get(0) ^ 1));
+            channel.write(b.rewind(), offset);
+        }
+        return archive;
+    }
+
+    /// Names that do not fit in the ustar fields are stored in PAX records, also when copying entries.
+    @Test
+    void storesLongNamesInExtendedHeaders() throws IOException {
+        String longName = "d/" + "n".repeat(150) + ".txt";
+        String unicodeName = "blåbærgrød.txt";
+        byte[] data = data(300);
+        Path archive = dir.resolve("archive.tar");
+        try (var tos = new TarOutputStream(archive, false)) {
+            tos.setDigest(DigestAlgorithm.CRC32C);
+            add(tos, longName, data);
+            add(tos, unicodeName, data);
+        }
+
+        var copy = new ByteArrayOutputStream();
+        try (var tis = new TarInputStream(Files.newInputStream(archive));
+                var tos = new TarOutputStream(copy)) {
+            tis.setVerifyDigests(true);
+            TarEntry entry;
+            while ((entry = tis.getNextEntry()) != null) {
+                tos.putNextEntry(entry);
+                tis.transferTo(tos);
+            }
+        }
+
+        try (var tis = new TarInputStream(new ByteArrayInputStream(copy.toByteArray()))) {
+            TarEntry entry = tis.getNextEntry();
+            assertThat(entry.getName()).isEqualTo(longName);
+            assertThat(tis.readAllBytes()).isEqualTo(data);
+            assertThat(tis.getNextEntry().getName()).isEqualTo(unicodeName);
+            assertThat(tis.getNextEntry()).isNull();
+        }
+    }
+
+    private static void add(TarOutputStream tos, String name, byte[] data) throws IOException {
+        tos.putNextEntry(new TarEntry(TarHeader.createHeader(name, data.length, 1_700_000_000L, false, 0644)));
+        tos.write(data);
+    }
+
+    private static byte[] data(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static String sha256(byte[] data) throws NoSuchAlgorithmException {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+}
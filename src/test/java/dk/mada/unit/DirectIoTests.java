@@ -0,0 +1,78 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dk.mada.mjtar.DirectArchives;
+import dk.mada.mjtar.DirectInputStream;
+import dk.mada.mjtar.DirectOutputStream;
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarInputStream;
+
+/**
+ * Tests of page cache bypassing IO.
+ *
+ * These pass whether or not the file system supports direct IO.
+ */
+class DirectIoTests {
+    @TempDir Path dir;
+
+    /// Data with a size that is not aligned is written and read back exactly.
+    @Test
+    void unalignedDataRoundTrips() throws IOException {
+        byte[] data = new byte[3 * 4096 + 123];
+        new Random(1).nextBytes(data);
+        Path file = dir.resolve("data.bin");
+
+        try (var out = new DirectOutputStream(file, 4096)) {
+            out.write(data, 0, 1000);
+            out.write(data[1000]);
+            out.write(data, 1001, data.length - 1001);
+        }
+
+        assertThat(Files.readAllBytes(file)).isEqualTo(data);
+        try (var in = new DirectInputStream(file, 4096)) {
+            assertThat(in.skip(5000)).isEqualTo(5000L);
+            assertThat(in.read()).isEqualTo(data[5000] & 0xff);
+            byte[] rest = in.readAllBytes();
+            assertThat(rest).hasSize(data.length - 5001);
+            assertThat(in.skip(10)).isZero();
+        }
+    }
+
+    /// Archives can be written and read.
+    @Test
+    void archivesRoundTrip() throws IOException {
+        Path archive = dir.resolve("archive.tar");
+        byte[] data = new byte[100_000];
+        new Random(2).nextBytes(data);
+
+        try (var tos = DirectArchives.newOutputStream(archive)) {
+            for (int i = 0; i < 5; i++) {
+                tos.putNextEntry(new TarEntry(TarHeader.createHeader("entry-" + i, data.length, 1_700_000_000L, false, 0644)));
+                tos.write(data);
+            }
+        }
+
+        int entries = 0;
+        try (TarInputStream tis = DirectArchives.newInputStream(archive)) {
+            TarEntry entry;
+            while ((entry = tis.getNextEntry()) != null) {
+                // Skip every other entry to exercise skipping
+                if (entries++ % 2 == 0) {
+                    assertThat(tis.readAllBytes()).isEqualTo(data);
+                }
+                assertThat(entry.getSize()).isEqualTo(data.length);
+            }
+        }
+        assertThat(entries).isEqualTo(5);
+    }
+}
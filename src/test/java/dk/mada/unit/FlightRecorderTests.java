@@ -0,0 +1,107 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dk.mada.mjtar.CompressedArchives;
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarFile;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarInputStream;
+import dk.mada.mjtar.TarOutputStream;
+
+/**
+ * Tests of the flight recorder events.
+ */
+class FlightRecorderTests {
+    private static final String PREFIX = "dk.mada.mjtar.";
+
+    @TempDir Path dir;
+
+    /// The events are registered, but disabled unless enabled in a recording.
+    @Test
+    void eventsAreDisabledByDefault() throws IOException {
+        writeArchive(dir.resolve("archive.tar"));
+
+        List<EventType> types = FlightRecorder.getFlightRecorder().getEventTypes().stream()
+                .filter(t -> t.getName().startsWith(PREFIX))
+                .toList();
+        assertThat(types).isNotEmpty();
+        assertThat(types.stream().filter(EventType::isEnabled).toList()).isEmpty();
+    }
+
+    /// Enabled events are recorded with entry details.
+    @Test
+    void recordsEnabledEvents() throws IOException {
+        Path archive = dir.resolve("archive.tar");
+        Path recordingFile = dir.resolve("recording.jfr");
+        try (var recording = new Recording()) {
+            for (String name : List.of("EntryWrite", "EntryRead", "HeaderParse", "Skip", "Pad", "IndexBuild", "CompressionBlock")) {
+                recording.enable(PREFIX + name).withoutThreshold();
+            }
+            recording.start();
+
+            writeArchive(archive);
+            try (var tis = new TarInputStream(Files.newInputStream(archive))) {
+                while (tis.getNextEntry() != null) {
+                    // skip all data
+                }
+            }
+            try (var tf = new TarFile(archive)) {
+                assertThat(tf.getIndex().size()).isEqualTo(2);
+            }
+            try (var tos = CompressedArchives.newGzipOutputStream(dir.resolve("archive.tgz"))) {
+                tos.putNextEntry(new TarEntry(TarHeader.createHeader("compressed", 0, 1_700_000_000L, false, 0644)));
+            }
+
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile).stream()
+                .filter(e -> e.getEventType().getName().startsWith(PREFIX))
+                .toList();
+        assertThat(names(events, "EntryWrite")).isEqualTo(List.of("first", "second", "compressed"));
+        assertThat(names(events, "EntryRead")).isEqualTo(List.of("first", "second"));
+        assertThat(names(events, "HeaderParse")).isEqualTo(List.of("first", "second"));
+        assertThat(names(events, "Skip")).isEqualTo(List.of("first", "second"));
+        assertThat(ofType(events, "Pad")).hasSize(2);
+        assertThat(ofType(events, "IndexBuild").getFirst().getLong("entries")).isEqualTo(2);
+        assertThat(ofType(events, "EntryWrite").getFirst().getLong("size")).isEqualTo(700);
+        assertThat(ofType(events, "CompressionBlock").getFirst().getString("operation")).isEqualTo("deflate");
+    }
+
+    private static void writeArchive(Path archive) throws IOException {
+        try (var tos = new TarOutputStream(archive)) {
+            for (String name : List.of("first", "second")) {
+                tos.putNextEntry(new TarEntry(TarHeader.createHeader(name, 700, 1_700_000_000L, false, 0644)));
+                tos.write(new byte[700]);
+            }
+        }
+    }
+
+    private static List<RecordedEvent> ofType(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(e -> e.getEventType().getName().equals(PREFIX + name))
+                .toList();
+    }
+
+    private static List<String> names(List<RecordedEvent> events, String name) {
+        return ofType(events, name).stream()
+                .map(e -> e.getString("name"))
+                .toList();
+    }
+}
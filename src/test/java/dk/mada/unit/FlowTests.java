@@ -0,0 +1,200 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+import dk.mada.mjtar.TarChunk;
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarInputStream;
+import dk.mada.mjtar.TarOutputStream;
+import dk.mada.mjtar.TarPublisher;
+import dk.mada.mjtar.TarSubscriber;
+
+/**
+ * Tests of the reactive publisher and subscriber.
+ */
+class FlowTests {
+    private static final int CHUNK_SIZE = 8 * 1024;
+    private static final byte[] LARGE = data(300_000);
+    private static final byte[] SMALL = data(100);
+
+    /// An archive copied from publisher to subscriber keeps all entries and data.
+    @Test
+    void copiesArchive() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        var copy = new ByteArrayOutputStream();
+        var subscriber = new TarSubscriber(new TarOutputStream(copy));
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            new TarPublisher(new ByteArrayInputStream(archive()), executor, CHUNK_SIZE).subscribe(subscriber);
+
+            assertThat(subscriber.result().get(10, TimeUnit.SECONDS)).isEqualTo(4L);
+        }
+
+        try (var tis = new TarInputStream(new ByteArrayInputStream(copy.toByteArray()))) {
+            assertThat(tis.getNextEntry().getName()).isEqualTo("large.bin");
+            assertThat(tis.readAllBytes()).isEqualTo(LARGE);
+            assertThat(tis.getNextEntry().getName()).isEqualTo("dir/");
+            assertThat(tis.getNextEntry().getName()).isEqualTo("empty");
+            assertThat(tis.readAllBytes().length).isZero();
+            assertThat(tis.getNextEntry().getName()).isEqualTo("small.txt");
+            assertThat(tis.readAllBytes()).isEqualTo(SMALL);
+            assertThat(tis.getNextEntry()).isNull();
+        }
+    }
+
+    /// Chunks are only read as they are requested, and cancelling closes the archive stream.
+    @Test
+    void honorsDemand() throws IOException {
+        var in = new CloseTrackingInputStream(archive());
+        var subscriber = new RecordingSubscriber();
+        new TarPublisher(in, Runnable::run, CHUNK_SIZE).subscribe(subscriber);
+
+        assertThat(subscriber.chunks).isEmpty();
+        subscriber.subscription.request(1);
+        assertThat(subscriber.chunks).hasSize(1);
+        subscriber.subscription.request(2);
+        assertThat(subscriber.chunks).hasSize(3);
+
+        TarChunk first = subscriber.chunks.get(0);
+        TarChunk second = subscriber.chunks.get(1);
+        assertThat(first.isFirst()).isTrue();
+        assertThat(first.last()).isFalse();
+        assertThat(first.data().remaining()).isEqualTo(CHUNK_SIZE);
+        assertThat(second.offset()).isEqualTo(CHUNK_SIZE);
+        assertThat(second.data().array()).isEqualTo(Arrays.copyOfRange(LARGE, CHUNK_SIZE, 2 * CHUNK_SIZE));
+        assertThat(in.closed).isFalse();
+
+        subscriber.subscription.cancel();
+        assertThat(in.closed).isTrue();
+        assertThat(subscriber.completed).isFalse();
+    }
+
+    /// All entries, including those without data, are published, and then completion.
+    @Test
+    void publishesAllChunks() throws IOException {
+        var subscriber = new RecordingSubscriber();
+        new TarPublisher(new ByteArrayInputStream(archive()), Runnable::run, CHUNK_SIZE).subscribe(subscriber);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        List<TarChunk> chunks = subscriber.chunks;
+        int largeChunks = (LARGE.length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        assertThat(chunks).hasSize(largeChunks + 3);
+        assertThat(chunks.get(largeChunks - 1).last()).isTrue();
+        TarChunk dir = chunks.get(largeChunks);
+        assertThat(dir.entry().getName()).isEqualTo("dir/");
+        assertThat(dir.isFirst() && dir.last()).isTrue();
+        assertThat(dir.data().remaining()).isZero();
+        assertThat(subscriber.completed).isTrue();
+    }
+
+    /// A truncated archive is reported as an error.
+    @Test
+    void reportsTruncatedArchive() throws IOException {
+        byte[] archive = archive();
+        var subscriber = new RecordingSubscriber();
+        new TarPublisher(new ByteArrayInputStream(Arrays.copyOf(archive, 100_000)), Runnable::run, CHUNK_SIZE)
+                .subscribe(subscriber);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        assertThat(subscriber.error).isInstanceOf(EOFException.class);
+        assertThat(subscriber.completed).isFalse();
+    }
+
+    /// The archive stream can only be published once.
+    @Test
+    void rejectsSecondSubscriber() throws IOException {
+        var publisher = new TarPublisher(new ByteArrayInputStream(archive()), Runnable::run);
+        var first = new RecordingSubscriber();
+        var second = new RecordingSubscriber();
+
+        publisher.subscribe(first);
+        publisher.subscribe(second);
+
+        assertThat(first.error).isNull();
+        assertThat(second.error).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static byte[] archive() throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var tos = new TarOutputStream(out)) {
+            add(tos, "large.bin", LARGE);
+            tos.putNextEntry(new TarEntry(TarHeader.createHeader("dir", 0, 1_700_000_000L, true, 0755)));
+            add(tos, "empty", new byte[0]);
+            add(tos, "small.txt", SMALL);
+        }
+        return out.toByteArray();
+    }
+
+    private static void add(TarOutputStream tos, String name, byte[] data) throws IOException {
+        tos.putNextEntry(new TarEntry(TarHeader.createHeader(name, data.length, 1_700_000_000L, false, 0644)));
+        tos.write(data);
+    }
+
+    private static byte[] data(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /// Records the signals received, without requesting any chunks.
+    private static final class RecordingSubscriber implements Flow.Subscriber<TarChunk> {
+        private final List<TarChunk> chunks = new ArrayList<>();
+        private Flow.Subscription subscription;
+        private Throwable error;
+        private boolean completed;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(TarChunk item) {
+            chunks.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    /// Tracks if the stream has been closed.
+    private static final class CloseTrackingInputStream extends FilterInputStream {
+        private boolean closed;
+
+        CloseTrackingInputStream(byte[] data) {
+            super(new ByteArrayInputStream(data));
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+}
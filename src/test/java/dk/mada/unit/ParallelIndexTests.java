@@ -0,0 +1,139 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dk.mada.mjtar.DigestAlgorithm;
+import dk.mada.mjtar.Octal;
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarIndex;
+import dk.mada.mjtar.TarOutputStream;
+
+/**
+ * Tests of parallel index building.
+ */
+class ParallelIndexTests {
+    @TempDir Path dir;
+
+    /// The parallel scan finds the same entries as the serial scan, ignoring headers in entry data.
+    @Test
+    void matchesSerialScan() throws IOException {
+        Path archive = dir.resolve("archive.tar");
+        byte[] nested = nestedArchive();
+        Random random = new Random(1);
+        try (var tos = new TarOutputStream(archive, false)) {
+            for (int i = 0; i < 400; i++) {
+                add(tos, "file-" + i, random.nextInt(i % 50 == 0 ? 400_000 : 3_000));
+                if (i % 100 == 0) {
+                    add(tos, "nested-" + i + ".tar", nested);
+                }
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(archive)) {
+            TarIndex serial = TarIndex.scan(channel);
+            TarIndex parallel = TarIndex.scanParallel(channel, 4);
+
+            assertThat(parallel.entries()).isEqualTo(serial.entries());
+            assertThat(parallel.endOfArchive()).isEqualTo(serial.endOfArchive());
+            assertThat(parallel.find("nested.txt")).isNull();
+            assertThat(channel.size()).isGreaterThan(2L * 1024 * 1024);
+        }
+    }
+
+    /// Extended headers are merged into their entries, as with the serial scan.
+    @Test
+    void mergesExtendedHeaders() throws IOException {
+        Path archive = dir.resolve("archive.tar");
+        try (var tos = new TarOutputStream(archive, false)) {
+            tos.setDigest(DigestAlgorithm.CRC32C);
+            for (int i = 0; i < 50; i++) {
+                add(tos, "file-" + i, 100 * i);
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(archive)) {
+            TarIndex parallel = TarIndex.scanParallel(channel, 4);
+
+            assertThat(parallel.entries()).isEqualTo(TarIndex.scan(channel).entries());
+            assertThat(parallel.size()).isEqualTo(50);
+            assertThat(parallel.entries().getFirst().dataOffset()).isEqualTo(3 * 512L);
+        }
+    }
+
+    /// Headers without ustar magic are found by reading them while chaining.
+    @Test
+    void readsHeadersWithoutMagic() throws IOException {
+        Path archive = dir.resolve("archive.tar");
+        try (var tos = new TarOutputStream(archive, false)) {
+            add(tos, "first", 10);
+            add(tos, "second", 700);
+            add(tos, "third", 0);
+        }
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long offset = TarIndex.scan(channel).find("second").headerOffset();
+            byte[] header = new byte[512];
+            channel.read(ByteBuffer.wrap(header), offset);
+            Arrays.fill(header, TarHeader.MAGIC_OFFSET, TarHeader.MAGIC_OFFSET + TarHeader.USTAR_MAGICLEN, (byte) 0);
+            Arrays.fill(header, TarHeader.CHKSUM_OFFSET, TarHeader.CHKSUM_OFFSET + TarHeader.CHKSUMLEN, (byte) ' ');
+            long checksum = new TarEntry(header).computeCheckSum(header);
+            Octal.writeCheckSumOctalBytes(checksum, header, TarHeader.CHKSUM_OFFSET, TarHeader.CHKSUMLEN);
+            channel.write(ByteBuffer.wrap(header), offset);
+
+            TarIndex parallel = TarIndex.scanParallel(channel, 2);
+
+            assertThat(parallel.entries()).isEqualTo(TarIndex.scan(channel).entries());
+            assertThat(parallel.size()).isEqualTo(3);
+        }
+    }
+
+    /// A truncated archive fails, as with the serial scan.
+    @Test
+    void failsOnTruncatedArchive() throws IOException {
+        Path archive = dir.resolve("archive.tar");
+        try (var tos = new TarOutputStream(archive, false)) {
+            add(tos, "first", 10);
+            add(tos, "second", 100_000);
+        }
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.truncate(50_000);
+
+            assertThatThrownBy(() -> TarIndex.scanParallel(channel, 2))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Truncated archive");
+        }
+    }
+
+    /// Creates an archive to store as entry data, whose headers must not be indexed.
+    private static byte[] nestedArchive() throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var tos = new TarOutputStream(out)) {
+            add(tos, "nested.txt", new byte[1000]);
+        }
+        return out.toByteArray();
+    }
+
+    private static void add(TarOutputStream tos, String name, int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        add(tos, name, data);
+    }
+
+    private static void add(TarOutputStream tos, String name, byte[] data) throws IOException {
+        tos.putNextEntry(new TarEntry(TarHeader.createHeader(name, data.length, 1_700_000_000L, false, 0644)));
+        tos.write(data);
+    }
+}
@@ -0,0 +1,120 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarInputStream;
+import dk.mada.mjtar.TarOutputStream;
+import dk.mada.mjtar.TarProgress;
+import dk.mada.mjtar.TarProgressListener;
+
+/**
+ * Tests of progress listeners.
+ */
+class ProgressTests {
+    @TempDir Path dir;
+
+    /// Writing reports entry events and all archive bytes.
+    @Test
+    void reportsWriteProgress() throws IOException {
+        Path archive = dir.resolve("archive.tar");
+        var events = new EventRecorder();
+        var progress = new TarProgress();
+        try (var tos = new TarOutputStream(archive)) {
+            tos.setProgressListener(events);
+            add(tos, "first", 700);
+            add(tos, "second", 10);
+            tos.setProgressListener(progress);
+        }
+
+        assertThat(events.events).isEqualTo(List.of("start first", "finish first", "start second"));
+        assertThat(events.bytes).isEqualTo(4L * 512 + 10);
+
+        var snapshot = progress.snapshot();
+        assertThat(snapshot.entries()).isEqualTo(1);
+        assertThat(snapshot.bytes()).isEqualTo(Files.size(archive) - events.bytes);
+        assertThat(snapshot.currentEntry()).isNull();
+    }
+
+    /// Reading reports entry events and all archive bytes, including skipped data.
+    @Test
+    void reportsReadProgress() throws IOException {
+        Path archive = dir.resolve("archive.tar");
+        try (var tos = new TarOutputStream(archive)) {
+            add(tos, "first", 700);
+            add(tos, "second", 10);
+        }
+
+        var progress = new TarProgress(Files.size(archive));
+        var events = new EventRecorder();
+        try (var tis = new TarInputStream(Files.newInputStream(archive))) {
+            tis.setProgressListener(events);
+            tis.getNextEntry();
+            tis.setProgressListener(progress);
+            tis.getNextEntry();
+            tis.readAllBytes();
+            assertThat(tis.getNextEntry()).isNull();
+        }
+
+        assertThat(events.events).isEqualTo(List.of("start first"));
+        assertThat(events.bytes).isEqualTo(512L);
+
+        var snapshot = progress.snapshot();
+        assertThat(snapshot.entries()).isEqualTo(2);
+        assertThat(snapshot.currentEntry()).isEqualTo("second");
+        assertThat(snapshot.bytes() + events.bytes).isEqualTo(Files.size(archive) - 512);
+    }
+
+    /// Snapshots provide throughput and an estimate of the remaining time.
+    @Test
+    void estimatesRemainingTime() {
+        var progress = new TarProgress(4000);
+        progress.bytesTransferred(1000);
+
+        var snapshot = progress.sample();
+        assertThat(snapshot.fraction()).isEqualTo(0.25);
+        assertThat(snapshot.bytesPerSecond()).isPositive();
+        assertThat(snapshot.eta()).isNotNull();
+
+        var idle = progress.sample();
+        assertThat(idle.bytesPerSecond()).isZero();
+        assertThat(idle.eta()).isNull();
+        assertThat(new TarProgress().snapshot().eta()).isNull();
+    }
+
+    private static void add(TarOutputStream tos, String name, int size) throws IOException {
+        tos.putNextEntry(new TarEntry(TarHeader.createHeader(name, size, 1_700_000_000L, false, 0644)));
+        tos.write(new byte[size]);
+    }
+
+    /// Listener recording the events received.
+    private static final class EventRecorder implements TarProgressListener {
+        private final List<String> events = new ArrayList<>();
+        private long bytes;
+
+        @Override
+        public void entryStarted(TarEntry entry) {
+            events.add("start " + entry.getName());
+        }
+
+        @Override
+        public void entryFinished(TarEntry entry) {
+            events.add("finish " + entry.getName());
+        }
+
+        @Override
+        public void bytesTransferred(long count) {
+            bytes += count;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import dk.mada.mjtar.RateLimiter;
+import dk.mada.mjtar.ThrottledInputStream;
+import dk.mada.mjtar.ThrottledOutputStream;
+
+/**
+ * Tests of IO throttling.
+ */
+class RateLimiterTests {
+    private static final int MIB = 1024 * 1024;
+
+    /// Writes are limited to the byte rate, after the initial burst.
+    @Test
+    void limitsByteRate() throws IOException {
+        var limiter = new RateLimiter(MIB, 0);
+        var out = new ThrottledOutputStream(new ByteArrayOutputStream(), limiter);
+        byte[] chunk = new byte[64 * 1024];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 8; i++) {
+            out.write(chunk);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // 512 KiB at 1 MiB/s, less at most the burst of 100ms
+        assertThat(elapsed).isGreaterThan(Duration.ofMillis(350).toNanos());
+        assertThat(limiter.getStats().bytes()).isEqualTo(8L * chunk.length);
+        assertThat(limiter.getStats().throttledNanos()).isPositive();
+    }
+
+    /// Limits can be removed while in use.
+    @Test
+    void limitsCanBeChanged() throws IOException {
+        var limiter = new RateLimiter(1, 1);
+        limiter.setLimits(0, 0);
+        var in = new ThrottledInputStream(new ByteArrayInputStream(new byte[MIB]), limiter);
+
+        assertThat(in.readAllBytes()).hasSize(MIB);
+        assertThat(limiter.getStats().throttledNanos()).isZero();
+    }
+
+    /// IO pauses while the latency probe reports degraded latency.
+    @Test
+    void yieldsToDegradedProbe() throws IOException {
+        var limiter = new RateLimiter(0, 0);
+        AtomicInteger samples = new AtomicInteger();
+        limiter.setPriorityMode(() -> samples.incrementAndGet() <= 3 ? 50_000_000L : 1_000_000L,
+                Duration.ofMillis(10), Duration.ofMillis(20));
+        var out = new ThrottledOutputStream(new ByteArrayOutputStream(), limiter);
+
+        out.write(new byte[100]);
+
+        assertThat(samples.get()).isEqualTo(4);
+        assertThat(limiter.getStats().yieldedNanos()).isGreaterThanOrEqualTo(Duration.ofMillis(60).toNanos());
+    }
+}
@@ -0,0 +1,103 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+
+import dk.mada.mjtar.ReadAheadInputStream;
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarInputStream;
+
+/**
+ * Tests of the read-ahead stream.
+ */
+class ReadAheadTests {
+    /// Data must pass through unchanged, also when spanning many buffers.
+    @Test
+    void dataPassesThroughUnchanged() throws IOException {
+        byte[] data = new byte[1_000_003];
+        new Random(7).nextBytes(data);
+
+        try (var ras = new ReadAheadInputStream(new ByteArrayInputStream(data), 4096, 3)) {
+            assertThat(ras.readAllBytes()).isEqualTo(data);
+
+            ReadAheadInputStream.Stats stats = ras.getStats();
+            assertThat(stats.bytesProduced()).isEqualTo(data.length);
+            assertThat(stats.bufferCount()).isEqualTo(3);
+        }
+    }
+
+    /// A tar input stream can read a gzipped archive via read-ahead.
+    @Test
+    void canReadGzippedArchive() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (var tis = new TarInputStream(new ReadAheadInputStream(
+                new GZIPInputStream(Files.newInputStream(Path.of("src/test/resources/tartest.tar.gz")))))) {
+            TarEntry entry;
+            while ((entry = tis.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+        }
+        assertThat(names)
+            .contains("tartest/one", "tartest/six");
+    }
+
+    /// Failures in the source are reported to the reader.
+    @Test
+    void sourceFailuresArePropagated() {
+        InputStream failing = new InputStream() {
+            private int count;
+
+            @Override
+            public int read() throws IOException {
+                if (count++ > 10_000) {
+                    throw new IOException("disk on fire");
+                }
+                return 1;
+            }
+        };
+
+        assertThatThrownBy(() -> {
+            try (var ras = new ReadAheadInputStream(failing, 1024, 2)) {
+                ras.readAllBytes();
+            }
+        })
+            .isInstanceOf(IOException.class)
+            .hasMessageContaining("Read-ahead from source failed");
+    }
+
+    /// Unchecked exceptions from the source are rethrown to the reader, instead of leaving it waiting.
+    @Test
+    void sourceRuntimeExceptionsArePropagated() {
+        InputStream failing = new InputStream() {
+            private int count;
+
+            @Override
+            public int read() {
+                if (count++ > 10_000) {
+                    throw new IllegalStateException("codec bug");
+                }
+                return 1;
+            }
+        };
+
+        assertThatThrownBy(() -> {
+            try (var ras = new ReadAheadInputStream(failing, 1024, 2)) {
+                ras.readAllBytes();
+            }
+        })
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("codec bug");
+    }
+}
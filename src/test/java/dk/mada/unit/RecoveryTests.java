@@ -0,0 +1,137 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarIndex;
+import dk.mada.mjtar.TarInputStream;
+import dk.mada.mjtar.TarOutputStream;
+
+/**
+ * Tests of reading damaged archives in recovery mode.
+ */
+class RecoveryTests {
+    @TempDir Path dir;
+    private byte[] archive;
+    private TarIndex index;
+
+    /// A lost range.
+    ///
+    /// @param offset the offset of the range
+    /// @param length the length of the range
+    /// @param reason why the range was lost
+    private record Lost(long offset, long length, String reason) {
+    }
+
+    @BeforeEach
+    void createArchive() throws IOException {
+        Path file = dir.resolve("archive.tar");
+        try (var tos = new TarOutputStream(file, false)) {
+            add(tos, "a.txt", 1000);
+            add(tos, "b.txt", 600);
+            add(tos, "c.txt", 5000);
+            add(tos, "d.txt", 10);
+        }
+        archive = Files.readAllBytes(file);
+        try (FileChannel channel = FileChannel.open(file)) {
+            index = TarIndex.scan(channel);
+        }
+    }
+
+    /// An intact archive reads without lost ranges, also in recovery mode.
+    @Test
+    void intactArchiveLosesNothing() throws IOException {
+        List<Lost> lost = new ArrayList<>();
+
+        assertThat(readNames(archive, lost)).containsExactly("a.txt", "b.txt", "c.txt", "d.txt");
+        assertThat(lost).isEmpty();
+    }
+
+    /// Reading continues with the next valid header after a damaged header.
+    @Test
+    void resynchronizesAfterDamagedHeader() throws IOException {
+        long offset = index.find("b.txt").headerOffset();
+        archive[(int) offset + 3] = 'X';
+        List<Lost> lost = new ArrayList<>();
+
+        assertThat(readNames(archive, lost)).containsExactly("a.txt", "c.txt", "d.txt");
+        assertThat(lost).containsExactly(new Lost(offset, 512 + 1024, "Invalid header checksum or magic"));
+    }
+
+    /// A damaged region spanning several entries is reported as one range.
+    @Test
+    void skipsDamagedRegion() throws IOException {
+        long start = index.find("b.txt").headerOffset();
+        long end = index.find("d.txt").headerOffset();
+        byte[] garbage = new byte[(int) (end - start - 700)];
+        new Random(1).nextBytes(garbage);
+        System.arraycopy(garbage, 0, archive, (int) start, garbage.length);
+        List<Lost> lost = new ArrayList<>();
+
+        assertThat(readNames(archive, lost)).containsExactly("a.txt", "d.txt");
+        assertThat(lost).containsExactly(new Lost(start, end - start, "Invalid header checksum or magic"));
+    }
+
+    /// Zeroed headers do not end the archive.
+    @Test
+    void skipsZeroedHeader() throws IOException {
+        long offset = index.find("a.txt").headerOffset();
+        Arrays.fill(archive, (int) offset, (int) offset + 512, (byte) 0);
+        List<Lost> lost = new ArrayList<>();
+
+        assertThat(readNames(archive, lost)).containsExactly("b.txt", "c.txt", "d.txt");
+        assertThat(lost).containsExactly(new Lost(offset, 512 + 1024, "Zero blocks before end of archive"));
+    }
+
+    /// An archive truncated in entry data is reported, instead of failing.
+    @Test
+    void reportsTruncatedEntry() throws IOException {
+        long dataOffset = index.find("c.txt").dataOffset();
+        byte[] truncated = Arrays.copyOf(archive, (int) dataOffset + 2000);
+        List<Lost> lost = new ArrayList<>();
+
+        assertThat(readNames(truncated, lost)).containsExactly("a.txt", "b.txt", "c.txt");
+        assertThat(lost).containsExactly(new Lost(dataOffset + 2000, 3000, "Entry c.txt truncated at end of stream"));
+
+        assertThatThrownBy(() -> readNames(truncated, null))
+            .isInstanceOf(IOException.class)
+            .hasMessageContaining("Possible tar file corruption");
+    }
+
+    private static List<String> readNames(byte[] data, List<Lost> lost) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (var tis = new TarInputStream(new ByteArrayInputStream(data))) {
+            if (lost != null) {
+                tis.setRecoveryListener((offset, length, reason) -> lost.add(new Lost(offset, length, reason)));
+            }
+            TarEntry entry;
+            while ((entry = tis.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+
+    private static void add(TarOutputStream tos, String name, int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        tos.putNextEntry(new TarEntry(TarHeader.createHeader(name, size, 1_700_000_000L, false, 0644)));
+        tos.write(data);
+    }
+}
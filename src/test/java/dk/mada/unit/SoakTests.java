@@ -0,0 +1,138 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarInputStream;
+import dk.mada.mjtar.TarOutputStream;
+import dk.mada.mjtar.TarProgress;
+import dk.mada.unit.SyntheticArchive.Shape;
+import dk.mada.unit.SyntheticArchive.SizeBucket;
+
+/**
+ * Round trip tests of synthetic archives.
+ *
+ * The soak test is tagged, and only run by the soakTest task. It is sized
+ * with system properties:
+ *
+ * - soak.entries: the number of entries (default 1,000,000)
+ * - soak.minMBps: the minimum throughput in MiB/s (default 50)
+ * - soak.maxHeapGrowthMB: the maximum retained heap growth in MiB (default 32)
+ */
+class SoakTests {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final double MIB = 1024.0 * 1024.0;
+    private static final List<SizeBucket> SMALL_SIZES = List.of(
+            new SizeBucket(0.9, 0, 2048),
+            new SizeBucket(0.1, 2048, 256 * 1024));
+
+    /// The same shape always generates the same archive.
+    @Test
+    void generatorIsDeterministic() throws IOException {
+        Shape shape = Shape.typical(2_000).withSizes(SMALL_SIZES);
+
+        byte[] first = new SyntheticArchive(shape).readAllBytes();
+        byte[] second = new SyntheticArchive(shape).readAllBytes();
+        byte[] otherSeed = new SyntheticArchive(shape.withSeed(7)).readAllBytes();
+
+        assertThat(first).isEqualTo(second);
+        assertThat(Arrays.equals(first, otherSeed)).isFalse();
+        assertThat(first.length % 512).isZero();
+    }
+
+    /// A small archive with all entry kinds round trips through the reader and writer.
+    @Test
+    void smallArchiveRoundTrips() throws IOException {
+        Shape shape = new Shape(3_000, SMALL_SIZES, 0.2, 0.002, 0.1, 1);
+
+        Result result = roundTrip(shape);
+
+        assertThat(result.entries()).isEqualTo(3_000);
+    }
+
+    /// A large archive round trips with bounded memory and sufficient throughput.
+    @Test
+    @Tag("soak")
+    void largeArchiveRoundTrips() throws IOException {
+        long entries = Long.getLong("soak.entries", 1_000_000);
+        long minMBps = Long.getLong("soak.minMBps", 50);
+        long maxHeapGrowthMB = Long.getLong("soak.maxHeapGrowthMB", 32);
+
+        long heapBefore = usedHeapAfterGc();
+        Result result = roundTrip(Shape.typical(entries));
+        long heapGrowth = usedHeapAfterGc() - heapBefore;
+
+        double mbps = result.bytes() / MIB / (result.nanos() / 1e9);
+        String summary = String.format("%d entries, %.1f MiB in %.1f s, %.1f MiB/s, heap growth %.1f MiB",
+                result.entries(), result.bytes() / MIB, result.nanos() / 1e9, mbps, heapGrowth / MIB);
+        assertThat(result.entries()).as(summary).isEqualTo(entries);
+        assertThat(mbps).as(summary).isGreaterThan(minMBps);
+        assertThat(heapGrowth).as(summary).isLessThan(maxHeapGrowthMB * 1024 * 1024);
+    }
+
+    /// Result of a round trip.
+    ///
+    /// @param entries the number of entries read
+    /// @param bytes   the number of archive bytes read
+    /// @param nanos   the time taken
+    private record Result(long entries, long bytes, long nanos) {
+    }
+
+    /// Reads a synthetic archive, verifying all entries, and writes them to a new archive.
+    ///
+    /// @param shape the archive shape
+    /// @return the result
+    /// @throws IOException if there is an IO error
+    private static Result roundTrip(Shape shape) throws IOException {
+        var archive = new SyntheticArchive(shape);
+        var written = new TarProgress();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        byte[] expected = new byte[BUFFER_SIZE];
+        long start = System.nanoTime();
+        long count = 0;
+        try (var tis = new TarInputStream(archive); var tos = new TarOutputStream(OutputStream.nullOutputStream())) {
+            tos.setProgressListener(written);
+            TarEntry entry;
+            while ((entry = tis.getNextEntry()) != null) {
+                SyntheticArchive.Entry spec = archive.entry(count++);
+                TarHeader header = entry.getHeader();
+                assertThat(entry.getName()).isEqualTo(spec.name());
+                assertThat(entry.getSize()).isEqualTo(spec.size());
+                assertThat(header.linkFlag).isEqualTo(spec.linkFlag());
+                assertThat(header.linkName.toString()).isEqualTo(spec.linkName());
+
+                tos.putNextEntry(entry);
+                long offset = 0;
+                int read;
+                while ((read = tis.read(buffer)) > 0) {
+                    archive.fillData(spec, offset, expected, 0, read);
+                    if (Arrays.mismatch(buffer, 0, read, expected, 0, read) != -1) {
+                        throw new AssertionError("Data mismatch in " + spec.name() + " near offset " + offset);
+                    }
+                    tos.write(buffer, 0, read);
+                    offset += read;
+                }
+                assertThat(offset).isEqualTo(spec.size());
+            }
+        }
+        long nanos = System.nanoTime() - start;
+
+        assertThat(written.snapshot().bytes()).isEqualTo(archive.bytesGenerated());
+        return new Result(count, archive.bytesGenerated(), nanos);
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
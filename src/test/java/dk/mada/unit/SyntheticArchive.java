@@ -0,0 +1,234 @@
+package dk.mada.unit;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import dk.mada.mjtar.TarConstants;
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarHeader;
+
+/**
+ * Deterministic generator of synthetic archives.
+ *
+ * The archive is generated while it is read, so archives of any size can be
+ * produced without storing them. Each entry is derived from the seed and the
+ * entry index alone, so readers can verify entries (including their data)
+ * with {@link #entry(long)} and {@link #fillData(Entry, long, byte[], int, int)}.
+ */
+final class SyntheticArchive extends InputStream {
+    private static final long MOD_TIME = 1_700_000_000L;
+    private static final int PATTERN_SIZE = 64 * 1024;
+    /// Sparse entries hold data in one of every four regions of this size, and zeros in the rest.
+    private static final int SPARSE_REGION = 1024 * 1024;
+
+    private final Shape shape;
+    private final byte[] pattern = new byte[PATTERN_SIZE];
+    private final byte[] header = new byte[TarConstants.HEADER_BLOCK];
+    private long nextIndex;
+    private Entry current;
+    private Segment segment = Segment.HEADER;
+    /// Position in the current segment.
+    private long position;
+    private long bytesGenerated;
+
+    /// The parts of the archive, in order.
+    private enum Segment {
+        HEADER, DATA, PAD, END, DONE
+    }
+
+    /// An entry size range, with its weight in the size histogram.
+    ///
+    /// @param weight  the relative weight of the bucket
+    /// @param minSize the smallest size, inclusive
+    /// @param maxSize the largest size, exclusive
+    record SizeBucket(double weight, long minSize, long maxSize) {
+    }
+
+    /// The shape of a synthetic archive.
+    ///
+    /// @param entries   the number of entries
+    /// @param sizes     the size histogram of file entries
+    /// @param longNames the fraction of entries with names longer than the ustar name field
+    /// @param sparse    the fraction of file entries with large zero regions
+    /// @param links     the fraction of entries which are symbolic or hard links
+    /// @param seed      the random seed
+    record Shape(long entries, List<SizeBucket> sizes, double longNames, double sparse, double links, long seed) {
+        /// Mostly small files, some medium and a few large files.
+        static final List<SizeBucket> TYPICAL_SIZES = List.of(
+                new SizeBucket(0.90, 0, 4 * 1024),
+                new SizeBucket(0.0999, 4 * 1024, 64 * 1024),
+                new SizeBucket(0.0001, 1024 * 1024, 64 * 1024 * 1024));
+
+        /// Creates a typical shape.
+        ///
+        /// @param entries the number of entries
+        /// @return the shape
+        static Shape typical(long entries) {
+            return new Shape(entries, TYPICAL_SIZES, 0.05, 0.001, 0.02, 42);
+        }
+
+        Shape withSizes(List<SizeBucket> newSizes) {
+            return new Shape(entries, newSizes, longNames, sparse, links, seed);
+        }
+
+        Shape withSeed(long newSeed) {
+            return new Shape(entries, sizes, longNames, sparse, links, newSeed);
+        }
+    }
+
+    /// A generated entry.
+    ///
+    /// @param index    the entry index
+    /// @param name     the entry name
+    /// @param size     the size of the entry data
+    /// @param linkFlag the type of the entry
+    /// @param linkName the link target, empty if not a link
+    /// @param sparse   true if the data has large zero regions
+    record Entry(long index, String name, long size, byte linkFlag, String linkName, boolean sparse) {
+    }
+
+    SyntheticArchive(Shape shape) {
+        this.shape = shape;
+        new SplittableRandom(shape.seed()).nextBytes(pattern);
+        this.current = nextEntry();
+        if (shape.entries() == 0) {
+            segment = Segment.END;
+        }
+    }
+
+    /// Returns an entry of the archive.
+    ///
+    /// @param index the entry index
+    /// @return the entry
+    Entry entry(long index) {
+        SplittableRandom random = new SplittableRandom(shape.seed() * 31 + index);
+        String dir = "dir-" + (index / 1000) + "/sub-" + (index % 7) + "/";
+        if (random.nextDouble() < shape.longNames()) {
+            dir = dir + "long-directory-name-".repeat(1 + random.nextInt(6)) + index + "/";
+        }
+        String name = dir + "file-" + index + ".dat";
+
+        if (index > 0 && random.nextDouble() < shape.links()) {
+            byte flag = random.nextBoolean() ? TarHeader.LF_SYMLINK : TarHeader.LF_LINK;
+            return new Entry(index, name, 0, flag, "dir-0/sub-0/file-0.dat", false);
+        }
+        boolean sparse = random.nextDouble() < shape.sparse();
+        long size = sparse ? 4L * SPARSE_REGION + random.nextInt(SPARSE_REGION) : size(random);
+        return new Entry(index, name, size, TarHeader.LF_NORMAL, "", sparse);
+    }
+
+    /// Fills a buffer with entry data.
+    ///
+    /// @param entry  the entry
+    /// @param offset the offset in the entry data
+    /// @param buf    the buffer to fill
+    /// @param off    the start offset in the buffer
+    /// @param len    the number of bytes to fill
+    void fillData(Entry entry, long offset, byte[] buf, int off, int len) {
+        int done = 0;
+        while (done < len) {
+            long pos = offset + done;
+            int patternPos = (int) ((pos + entry.index() * 7919) % PATTERN_SIZE);
+            int count = Math.min(len - done, PATTERN_SIZE - patternPos);
+            if (entry.sparse()) {
+                int regionLeft = (int) (SPARSE_REGION - pos % SPARSE_REGION);
+                count = Math.min(count, regionLeft);
+                if ((pos / SPARSE_REGION) % 4 != 0) {
+                    Arrays.fill(buf, off + done, off + done + count, (byte) 0);
+                    done += count;
+                    continue;
+                }
+            }
+            System.arraycopy(pattern, patternPos, buf, off + done, count);
+            done += count;
+        }
+    }
+
+    /// Returns the number of archive bytes generated so far.
+    ///
+    /// @return the number of bytes generated
+    long bytesGenerated() {
+        return bytesGenerated;
+    }
+
+    @Override
+    public int read() {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int done = 0;
+        while (done < len && segment != Segment.DONE) {
+            long left = segmentSize() - position;
+            if (left == 0) {
+                nextSegment();
+                continue;
+            }
+            int count = (int) Math.min(len - done, left);
+            switch (segment) {
+                case HEADER -> System.arraycopy(header, (int) position, b, off + done, count);
+                case DATA -> fillData(current, position, b, off + done, count);
+                default -> Arrays.fill(b, off + done, off + done + count, (byte) 0);
+            }
+            position += count;
+            done += count;
+        }
+        bytesGenerated += done;
+        return done == 0 ? -1 : done;
+    }
+
+    private long segmentSize() {
+        return switch (segment) {
+            case HEADER -> TarConstants.HEADER_BLOCK;
+            case DATA -> current.size();
+            case PAD -> (TarConstants.DATA_BLOCK - current.size() % TarConstants.DATA_BLOCK) % TarConstants.DATA_BLOCK;
+            case END -> TarConstants.EOF_BLOCK;
+            case DONE -> 0;
+        };
+    }
+
+    private void nextSegment() {
+        position = 0;
+        segment = switch (segment) {
+            case HEADER -> Segment.DATA;
+            case DATA -> Segment.PAD;
+            case PAD -> {
+                if (nextIndex < shape.entries()) {
+                    current = nextEntry();
+                    yield Segment.HEADER;
+                }
+                yield Segment.END;
+            }
+            case END, DONE -> Segment.DONE;
+        };
+    }
+
+    private Entry nextEntry() {
+        Entry entry = entry(nextIndex++);
+        TarHeader h = TarHeader.createHeader(entry.name(), entry.size(), MOD_TIME, false, 0644);
+        h.linkFlag = entry.linkFlag();
+        h.linkName = new StringBuffer(entry.linkName());
+        h.userName = new StringBuffer("soak");
+        new TarEntry(h).writeEntryHeader(header);
+        return entry;
+    }
+
+    private long size(SplittableRandom random) {
+        double total = shape.sizes().stream().mapToDouble(SizeBucket::weight).sum();
+        double pick = random.nextDouble() * total;
+        for (SizeBucket bucket : shape.sizes()) {
+            pick -= bucket.weight();
+            if (pick < 0) {
+                return random.nextLong(bucket.minSize(), bucket.maxSize());
+            }
+        }
+        return 0;
+    }
+}
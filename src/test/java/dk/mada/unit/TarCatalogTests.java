@@ -0,0 +1,119 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dk.mada.mjtar.DigestAlgorithm;
+import dk.mada.mjtar.TarCatalog;
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarOutputStream;
+
+/**
+ * Tests of the off-heap archive catalog.
+ */
+class TarCatalogTests {
+    private static final String LONG_DIR = "a-directory-name-long-enough-to-force-use-of-the-ustar-prefix-field/"
+            + "and-another-level-to-make-sure-it-gets-split";
+
+    @TempDir Path dir;
+
+    /// Entries can be found by exact name, including names split into ustar prefix and name.
+    @Test
+    void findsEntriesByName() throws IOException {
+        Path archive = createArchive(List.of("b/2", "a/1", LONG_DIR + "/file.txt", "c", "a/2"));
+
+        try (TarCatalog catalog = TarCatalog.build(archive)) {
+            assertThat(catalog.size()).isEqualTo(5);
+
+            int rec = catalog.find(LONG_DIR + "/file.txt");
+            assertThat(rec).isEqualTo(2);
+            assertThat(catalog.name(rec)).isEqualTo(LONG_DIR + "/file.txt");
+            assertThat(catalog.size(rec)).isEqualTo(3L);
+            assertThat(catalog.mode(rec)).isEqualTo(0644);
+            assertThat(catalog.modTime(rec)).isEqualTo(1_700_000_000L);
+            assertThat(catalog.headerOffset(catalog.find("b/2"))).isEqualTo(0L);
+            assertThat(catalog.find("a")).isEqualTo(-1);
+            assertThat(catalog.find("missing")).isEqualTo(-1);
+        }
+    }
+
+    /// Extended header paths name their entries, and the data offsets skip the extended headers.
+    @Test
+    void usesExtendedHeaderPaths() throws IOException {
+        Path archive = dir.resolve("archive.tar");
+        try (var tos = new TarOutputStream(archive, false)) {
+            tos.setDigest(DigestAlgorithm.CRC32C);
+            for (String name : List.of("a/1", "b/2")) {
+                tos.putNextEntry(new TarEntry(TarHeader.createHeader(name, 3, 1_700_000_000L, false, 0644)));
+                tos.write(new byte[] { 1, 2, 3 });
+            }
+        }
+
+        try (TarCatalog catalog = TarCatalog.build(archive)) {
+            assertThat(catalog.size()).isEqualTo(2);
+            int rec = catalog.find("b/2");
+            assertThat(rec).isEqualTo(1);
+            assertThat(catalog.headerOffset(rec)).isEqualTo(4 * 512L);
+            assertThat(catalog.dataOffset(rec)).isEqualTo(7 * 512L);
+        }
+    }
+
+    /// Prefix queries return the matching entries in name order.
+    @Test
+    void listsEntriesByPrefix() throws IOException {
+        Path archive = createArchive(List.of("b/2", "a/1", "ab", "a/3/x", "c", "a/2", "a"));
+
+        try (TarCatalog catalog = TarCatalog.build(archive)) {
+            assertThat(names(catalog, "a/")).containsExactly("a/1", "a/2", "a/3/x");
+            assertThat(names(catalog, "a")).containsExactly("a", "a/1", "a/2", "a/3/x", "ab");
+            assertThat(names(catalog, "")).containsExactly("a", "a/1", "a/2", "a/3/x", "ab", "b/2", "c");
+            assertThat(names(catalog, "d")).isEmpty();
+        }
+    }
+
+    /// Catalogs hold many entries in little memory.
+    @Test
+    void usesLittleMemoryPerEntry() {
+        int entries = 100_000;
+        long nameBytes = 0;
+        try (var builder = new TarCatalog.Builder()) {
+            for (int i = 0; i < entries; i++) {
+                String name = "dir-" + (i % 100) + "/file-" + i;
+                nameBytes += name.length();
+                builder.add(name, i * 1024L, 100, 0644, 1_700_000_000L);
+            }
+            try (TarCatalog catalog = builder.build(entries * 1024L)) {
+                assertThat(catalog.memoryUsage()).isLessThanOrEqualTo(nameBytes + 68L * entries);
+                assertThat(catalog.find("dir-7/file-12307")).isEqualTo(12307);
+                assertThat(catalog.withPrefix("dir-42/").count()).isEqualTo(1000L);
+                assertThat(catalog.name(catalog.recordInNameOrder(0))).isEqualTo("dir-0/file-0");
+            }
+        }
+    }
+
+    private static List<String> names(TarCatalog catalog, String prefix) {
+        return catalog.withPrefix(prefix)
+            .mapToObj(catalog::name)
+            .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    private Path createArchive(List<String> names) throws IOException {
+        Path archive = dir.resolve("archive.tar");
+        try (var tos = new TarOutputStream(archive)) {
+            for (String name : names) {
+                tos.putNextEntry(new TarEntry(TarHeader.createHeader(name, 3, 1_700_000_000L, false, 0644)));
+                tos.write(new byte[] { 1, 2, 3 });
+            }
+        }
+        return archive;
+    }
+}
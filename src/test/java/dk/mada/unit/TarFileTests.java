@@ -0,0 +1,163 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dk.mada.mjtar.DigestAlgorithm;
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarFile;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarIndexEntry;
+import dk.mada.mjtar.TarOutputStream;
+
+/**
+ * Tests of random access to archive files.
+ */
+class TarFileTests {
+    private static final int ENTRIES = 50;
+
+    @TempDir Path dir;
+
+    private final List<byte[]> contents = new ArrayList<>();
+
+    /// The index contains all entries with their locations.
+    @Test
+    void indexesEntries() throws IOException {
+        Path archive = createArchive();
+
+        try (var tf = new TarFile(archive)) {
+            assertThat(tf.getEntries()).hasSize(ENTRIES);
+            TarIndexEntry first = tf.getEntries().get(0);
+            assertThat(first.headerOffset()).isEqualTo(0L);
+            assertThat(first.dataOffset()).isEqualTo(512L);
+
+            TarIndexEntry found = tf.find("entry-7");
+            assertThat(found).isNotNull();
+            assertThat(found.size()).isEqualTo(contents.get(7).length);
+            assertThat(tf.getEntry(found).getName()).isEqualTo("entry-7");
+            assertThat(tf.getIndex().endOfArchive()).isEqualTo(archive.toFile().length() - 1024L);
+        }
+    }
+
+    /// Extended headers are merged into their entries, which then start at the extended header.
+    @Test
+    void indexesEntriesWithDigests() throws IOException {
+        Path archive = dir.resolve("digests.tar");
+        byte[] data = new byte[1000];
+        new Random(1).nextBytes(data);
+        try (var tos = new TarOutputStream(archive, false)) {
+            tos.setDigest(DigestAlgorithm.SHA_256);
+            for (String name : List.of("a.txt", "b.txt")) {
+                tos.putNextEntry(new TarEntry(TarHeader.createHeader(name, data.length, 1_700_000_000L, false, 0644)));
+                tos.write(data);
+            }
+        }
+
+        try (var tf = new TarFile(archive)) {
+            assertThat(tf.getEntries().stream().map(TarIndexEntry::name).toList()).containsExactly("a.txt", "b.txt");
+            TarIndexEntry b = tf.find("b.txt");
+            assertThat(b.headerOffset()).isEqualTo(tf.find("a.txt").endOffset());
+            assertThat(b.dataOffset()).isEqualTo(b.headerOffset() + 3 * 512L);
+
+            TarEntry entry = tf.getEntry(b);
+            assertThat(entry.getName()).isEqualTo("b.txt");
+            assertThat(entry.getPaxAttributes()).containsKey(DigestAlgorithm.SHA_256.paxKey());
+            try (InputStream is = tf.getInputStream(b)) {
+                assertThat(is.readAllBytes()).isEqualTo(data);
+            }
+        }
+    }
+
+    /// Many threads can read entries at the same time.
+    @Test
+    void entriesCanBeReadConcurrently() throws IOException, InterruptedException, ExecutionException {
+        Path archive = createArchive();
+
+        try (var tf = new TarFile(archive, 4);
+                var executor = Executors.newFixedThreadPool(8)) {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int round = 0; round < 20; round++) {
+                for (int i = 0; i < ENTRIES; i++) {
+                    int ix = i;
+                    results.add(executor.submit(() -> {
+                        TarIndexEntry e = tf.find("entry-" + ix);
+                        TarEntry header = tf.getEntry(e);
+                        try (InputStream is = tf.getInputStream(e)) {
+                            return header.getName().equals("entry-" + ix)
+                                    && Arrays.equals(is.readAllBytes(), contents.get(ix));
+                        }
+                    }));
+                }
+            }
+            for (Future<Boolean> f : results) {
+                assertThat(f.get()).isTrue();
+            }
+        }
+    }
+
+    /// Entry channels map positions onto the entry data.
+    @Test
+    void entryChannelSupportsRandomAccess() throws IOException {
+        Path archive = createArchive();
+
+        try (var tf = new TarFile(archive)) {
+            TarIndexEntry e = tf.find("entry-3");
+            byte[] expected = contents.get(3);
+            try (SeekableByteChannel ch = tf.openChannel(e)) {
+                assertThat(ch.size()).isEqualTo(expected.length);
+
+                // Read a footer-like tail first, then something from the middle
+                ByteBuffer tail = ByteBuffer.allocate(10_000);
+                ch.position(expected.length - 100L);
+                assertThat(ch.read(tail)).isEqualTo(100);
+                assertThat(Arrays.copyOf(tail.array(), 100))
+                    .isEqualTo(Arrays.copyOfRange(expected, expected.length - 100, expected.length));
+                assertThat(ch.read(tail)).isEqualTo(-1);
+
+                ByteBuffer middle = ByteBuffer.allocate(50);
+                ch.position(expected.length / 2L);
+                ch.read(middle);
+                assertThat(middle.array()).isEqualTo(Arrays.copyOfRange(expected, expected.length / 2, expected.length / 2 + 50));
+                assertThat(ch.position()).isEqualTo(expected.length / 2L + 50);
+
+                ch.position(expected.length + 1000L);
+                assertThat(ch.read(middle.clear())).isEqualTo(-1);
+
+                assertThatThrownBy(() -> ch.write(ByteBuffer.allocate(1)))
+                    .isInstanceOf(NonWritableChannelException.class);
+            }
+        }
+    }
+
+    private Path createArchive() throws IOException {
+        var rnd = new Random(5);
+        Path archive = dir.resolve("archive.tar");
+        try (var tos = new TarOutputStream(archive)) {
+            for (int i = 0; i < ENTRIES; i++) {
+                byte[] data = new byte[200 + rnd.nextInt(5000)];
+                rnd.nextBytes(data);
+                contents.add(data);
+                tos.putNextEntry(new TarEntry(TarHeader.createHeader("entry-" + i, data.length, 1_700_000_000L, false, 0644)));
+                tos.write(data);
+            }
+        }
+        return archive;
+    }
+}
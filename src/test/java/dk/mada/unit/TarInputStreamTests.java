@@ -0,0 +1,106 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarInputStream;
+import dk.mada.mjtar.TarOutputStream;
+
+/**
+ * Tests of reading archives with different read patterns.
+ */
+class TarInputStreamTests {
+    private static final int[] ENTRY_SIZES = { 0, 1, 511, 512, 513, 8191, 8192, 20_000, 100_000 };
+
+    private final List<byte[]> contents = new ArrayList<>();
+
+    /// Single byte reads must stay within the entry boundaries.
+    @Test
+    void singleByteReadsReturnEntryContents() throws IOException {
+        byte[] archive = createArchive();
+
+        try (var tis = new TarInputStream(new ByteArrayInputStream(archive))) {
+            for (byte[] expected : contents) {
+                assertThat(tis.getNextEntry()).isNotNull();
+                var read = new ByteArrayOutputStream();
+                int b;
+                while ((b = tis.read()) != -1) {
+                    read.write(b);
+                }
+                assertThat(read.toByteArray()).isEqualTo(expected);
+            }
+            assertThat(tis.getNextEntry()).isNull();
+            assertThat(tis.getCurrentOffset()).isEqualTo(archive.length - 512L);
+        }
+    }
+
+    /// Mixed small and large reads must return the same data as the written content.
+    @Test
+    void mixedReadSizesReturnEntryContents() throws IOException {
+        byte[] archive = createArchive();
+        var rnd = new Random(42);
+
+        try (var tis = new TarInputStream(new ByteArrayInputStream(archive))) {
+            for (byte[] expected : contents) {
+                assertThat(tis.getNextEntry()).isNotNull();
+                var read = new ByteArrayOutputStream();
+                byte[] buf = new byte[40_000];
+                int count;
+                while ((count = tis.read(buf, 0, 1 + rnd.nextInt(rnd.nextBoolean() ? 100 : buf.length))) != -1) {
+                    read.write(buf, 0, count);
+                    if (rnd.nextInt(10) == 0) {
+                        int b = tis.read();
+                        if (b != -1) {
+                            read.write(b);
+                        }
+                    }
+                }
+                assertThat(read.toByteArray()).isEqualTo(expected);
+            }
+            assertThat(tis.getNextEntry()).isNull();
+        }
+    }
+
+    /// Partially read entries must be skipped past, leaving the next header intact.
+    @Test
+    void partiallyReadEntriesAreSkipped() throws IOException {
+        byte[] archive = createArchive();
+
+        try (var tis = new TarInputStream(new ByteArrayInputStream(archive))) {
+            for (byte[] expected : contents) {
+                TarEntry entry = tis.getNextEntry();
+                assertThat(entry).isNotNull();
+                assertThat(entry.getSize()).isEqualTo(expected.length);
+                if (expected.length > 0) {
+                    assertThat(tis.read()).isEqualTo(expected[0] & 0xff);
+                }
+            }
+            assertThat(tis.getNextEntry()).isNull();
+        }
+    }
+
+    private byte[] createArchive() throws IOException {
+        var rnd = new Random(1);
+        var bos = new ByteArrayOutputStream();
+        try (var tos = new TarOutputStream(bos)) {
+            for (int size : ENTRY_SIZES) {
+                byte[] data = new byte[size];
+                rnd.nextBytes(data);
+                contents.add(data);
+                tos.putNextEntry(new TarEntry(TarHeader.createHeader("file-" + size, size, 1_700_000_000L, false, 0644)));
+                tos.write(data);
+            }
+        }
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,63 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarPathIndex;
+
+/**
+ * Tests of the path index.
+ */
+class TarPathIndexTests {
+    private static final String LONG_DIR = "var/lib/db/a-directory-name-long-enough-to-force-use-of-the-ustar-prefix-field"
+            + "/and-another-level-to-make-sure";
+
+    private final TarPathIndex<TarEntry> index = TarPathIndex.ofEntries(List.of(
+            dir("var/"),
+            dir("var/lib/"),
+            file("var/lib/db/data.1"),
+            file("var/lib/db/data.2"),
+            file(LONG_DIR + "/file"),
+            file("var/lib/dbx"),
+            file("etc/hosts")));
+
+    /// Subtree queries return the directory and everything below it.
+    @Test
+    void listsSubtrees() {
+        assertThat(names(index.subtree("var/lib/db")))
+            .containsExactly(LONG_DIR + "/file", "var/lib/db/data.1", "var/lib/db/data.2");
+        assertThat(names(index.subtree("var/lib/")))
+            .containsExactly("var/lib/", LONG_DIR + "/file", "var/lib/db/data.1", "var/lib/db/data.2", "var/lib/dbx");
+        assertThat(index.subtree("usr")).isEmpty();
+        assertThat(index.subtree("")).hasSize(7);
+    }
+
+    /// Child listings include implicit directories.
+    @Test
+    void listsChildren() {
+        assertThat(index.children("")).containsExactly("etc", "var");
+        assertThat(index.children("var/lib")).containsExactly("db", "dbx");
+        assertThat(index.children("var/lib/db/")).containsExactly("a-directory-name-long-enough-to-force-use-of-the-ustar-prefix-field",
+                "data.1", "data.2");
+        assertThat(index.contains("var/lib/db")).isTrue();
+        assertThat(index.get("var/lib/db")).isNull();
+        assertThat(index.get("etc/hosts").getName()).isEqualTo("etc/hosts");
+    }
+
+    private static List<String> names(List<TarEntry> entries) {
+        return entries.stream().map(TarEntry::getName).toList();
+    }
+
+    private static TarEntry dir(String name) {
+        return new TarEntry(TarHeader.createHeader(name, 0, 0, true, 0755));
+    }
+
+    private static TarEntry file(String name) {
+        return new TarEntry(TarHeader.createHeader(name, 0, 0, false, 0644));
+    }
+}
@@ -0,0 +1,165 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dk.mada.mjtar.DigestAlgorithm;
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarEntryTransform;
+import dk.mada.mjtar.TarHeader;
+import dk.mada.mjtar.TarInputStream;
+import dk.mada.mjtar.TarOutputStream;
+import dk.mada.mjtar.TarTransformer;
+
+/**
+ * Tests of archive transformation.
+ */
+class TarTransformerTests {
+    private static final String LONG_NAME = "a-directory-name-long-enough-to-force-use-of-the-ustar-prefix-field/"
+            + "and-another-level-to-make-sure-it-gets-split/file";
+
+    @TempDir Path dir;
+
+    private final TarTransformer transformer = new TarTransformer(
+            TarEntryTransform.stripComponents(1),
+            TarEntryTransform.filter(e -> !e.getName().endsWith(".tmp")),
+            TarEntryTransform.rename(n -> "new/" + n),
+            TarEntryTransform.owner(1000, 100, "backup", "users"));
+
+    /// File to file transformation copies data and rewrites headers.
+    @Test
+    void transformsArchiveFiles() throws IOException {
+        Path source = createArchive();
+        Path target = dir.resolve("target.tar");
+
+        long written = transformer.transform(source, target);
+
+        assertThat(written).isEqualTo(3L);
+        assertTransformed(target);
+    }
+
+    /// Stream to stream transformation gives the same result.
+    @Test
+    void transformsArchiveStreams() throws IOException {
+        Path source = createArchive();
+        Path target = dir.resolve("target.tar");
+
+        try (var in = new TarInputStream(Files.newInputStream(source));
+                var out = new TarOutputStream(target)) {
+            assertThat(transformer.transform(in, out)).isEqualTo(3L);
+        }
+
+        assertTransformed(target);
+    }
+
+    /// Stored digests are kept with their entries, by both transformation variants.
+    @Test
+    void keepsStoredDigests() throws IOException {
+        Path source = dir.resolve("source.tar");
+        try (var tos = new TarOutputStream(source)) {
+            tos.setDigest(DigestAlgorithm.CRC32C);
+            add(tos, "top/one", "first");
+            add(tos, "top/scratch.tmp", "temporary");
+            add(tos, "top/" + LONG_NAME, "long name");
+        }
+        Path fileTarget = dir.resolve("file-target.tar");
+        Path streamTarget = dir.resolve("stream-target.tar");
+
+        transformer.transform(source, fileTarget);
+        try (var in = new TarInputStream(Files.newInputStream(source));
+                var out = new TarOutputStream(streamTarget)) {
+            transformer.transform(in, out);
+        }
+
+        Map<String, String> sourceDigests = digests(source);
+        assertThat(sourceDigests.get("top/one")).isNotNull();
+        assertThat(sourceDigests.get("top/" + LONG_NAME)).isNotNull();
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("new/one", sourceDigests.get("top/one"));
+        expected.put("new/" + LONG_NAME, sourceDigests.get("top/" + LONG_NAME));
+        assertThat(digests(fileTarget)).isEqualTo(expected);
+        assertThat(digests(streamTarget)).isEqualTo(expected);
+    }
+
+    private static Map<String, String> digests(Path archive) throws IOException {
+        Map<String, String> digests = new LinkedHashMap<>();
+        try (var tis = new TarInputStream(Files.newInputStream(archive))) {
+            tis.setVerifyDigests(true);
+            TarEntry entry;
+            while ((entry = tis.getNextEntry()) != null) {
+                digests.put(entry.getName(), entry.getPaxAttributes().get(DigestAlgorithm.CRC32C.paxKey()));
+                tis.readAllBytes();
+            }
+        }
+        return digests;
+    }
+
+    /// Transforms cannot change entry sizes.
+    @Test
+    void sizeChangesAreRejected() throws IOException {
+        Path source = createArchive();
+        var resizing = new TarTransformer(e -> {
+            e.setSize(e.getSize() + 1);
+            return e;
+        });
+
+        assertThatThrownBy(() -> resizing.transform(source, dir.resolve("target.tar")))
+            .isInstanceOf(IllegalStateException.class);
+    }
+
+    /// Transforming an archive into itself is rejected, leaving the archive unchanged.
+    @Test
+    void transformIntoSourceIsRejected() throws IOException {
+        Path source = createArchive();
+        byte[] original = Files.readAllBytes(source);
+
+        assertThatThrownBy(() -> transformer.transform(source, source))
+            .isInstanceOf(IOException.class);
+
+        assertThat(Files.readAllBytes(source)).isEqualTo(original);
+    }
+
+    private void assertTransformed(Path target) throws IOException {
+        Map<String, String> contents = new LinkedHashMap<>();
+        try (var tis = new TarInputStream(Files.newInputStream(target))) {
+            TarEntry entry;
+            while ((entry = tis.getNextEntry()) != null) {
+                assertThat(entry.getUserName()).isEqualTo("backup");
+                assertThat(entry.getGroupId()).isEqualTo(100);
+                contents.put(entry.getName(), new String(tis.readAllBytes()));
+            }
+        }
+        assertThat(contents)
+            .containsEntry("new/one", "first")
+            .containsEntry("new/sub/two", "second entry")
+            .containsEntry("new/" + LONG_NAME, "long name");
+        assertThat(contents.keySet()).hasSize(3);
+    }
+
+    private Path createArchive() throws IOException {
+        Path archive = dir.resolve("source.tar");
+        try (var tos = new TarOutputStream(archive)) {
+            add(tos, "top/", "");
+            add(tos, "top/one", "first");
+            add(tos, "top/sub/two", "second entry");
+            add(tos, "top/scratch.tmp", "temporary");
+            add(tos, "top/" + LONG_NAME, "long name");
+        }
+        return archive;
+    }
+
+    private static void add(TarOutputStream tos, String name, String content) throws IOException {
+        boolean isDir = name.endsWith("/");
+        tos.putNextEntry(new TarEntry(TarHeader.createHeader(name, content.length(), 1_700_000_000L, isDir, 0644)));
+        tos.write(content.getBytes());
+    }
+}
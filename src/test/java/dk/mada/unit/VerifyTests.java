@@ -0,0 +1,202 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dk.mada.mjtar.DigestAlgorithm;
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarIndex;
+import dk.mada.mjtar.TarIndexEntry;
+import dk.mada.mjtar.TarOutputStream;
+import dk.mada.mjtar.TarVerifier;
+import dk.mada.mjtar.TarVerifier.Mismatch;
+import dk.mada.mjtar.TarVerifier.Problem;
+import dk.mada.mjtar.TarVerifier.Summary;
+
+/**
+ * Tests of archive verification.
+ */
+class VerifyTests {
+    @TempDir Path dir;
+    private Path src;
+    private Path archive;
+
+    @BeforeEach
+    void createArchive() throws IOException {
+        src = dir.resolve("src");
+        Files.createDirectories(src.resolve("sub"));
+        Files.write(src.resolve("small.txt"), data(700));
+        Files.write(src.resolve("sub/large.bin"), data(3 * 1024 * 1024 + 5));
+        Files.write(src.resolve("sub/empty"), new byte[0]);
+
+        archive = dir.resolve("archive.tar");
+        try (var tos = new TarOutputStream(archive, false)) {
+            tos.setDigest(DigestAlgorithm.SHA_256);
+            for (String name : List.of("small.txt", "sub", "sub/large.bin", "sub/empty")) {
+                Path file = src.resolve(name);
+                tos.putNextEntry(new TarEntry(file, name));
+                if (Files.isRegularFile(file)) {
+                    tos.write(Files.readAllBytes(file));
+                }
+            }
+        }
+    }
+
+    /// An intact archive verifies against its source files, as file and as stream.
+    @Test
+    void intactArchiveVerifies() throws IOException {
+        List<Mismatch> mismatches = new ArrayList<>();
+        TarVerifier verifier = new TarVerifier(src);
+
+        Summary fromFile = verifier.verify(archive, 3, mismatches::add);
+        Summary fromStream = verifier.verify(Files.newInputStream(archive), mismatches::add);
+
+        assertThat(mismatches).isEmpty();
+        assertThat(fromFile.isOk()).isTrue();
+        assertThat(fromFile.entries()).isEqualTo(4);
+        assertThat(fromStream.entries()).isEqualTo(4);
+    }
+
+    /// Corrupted data, headers and padding are reported.
+    @Test
+    void reportsCorruption() throws IOException {
+        TarIndexEntry small = entry("small.txt");
+        TarIndexEntry large = entry("sub/large.bin");
+        flipByte(large.dataOffset() + 1_000_000);
+        // The entry header follows the extended header with the digest
+        flipByte(small.dataOffset() - 512 + 300);
+        flipByte(small.dataOffset() + small.size() + 10);
+
+        List<Mismatch> mismatches = new ArrayList<>();
+        Summary summary = new TarVerifier().verify(archive, mismatches::add);
+
+        assertThat(summary.mismatches()).isEqualTo(3);
+        assertThat(problems(mismatches)).contains(
+                "small.txt HEADER", "small.txt PADDING", "sub/large.bin DIGEST");
+    }
+
+    /// Stream verification reports data corruption, and continues with the following entries.
+    @Test
+    void streamReportsCorruption() throws IOException {
+        flipByte(entry("small.txt").dataOffset() + 17);
+        flipByte(entry("sub/large.bin").dataOffset() + 2_000_000);
+
+        List<Mismatch> mismatches = new ArrayList<>();
+        Summary summary = new TarVerifier().verify(Files.newInputStream(archive), mismatches::add);
+
+        assertThat(summary.entries()).isEqualTo(4);
+        assertThat(problems(mismatches)).containsExactlyInAnyOrder("small.txt DIGEST", "sub/large.bin DIGEST");
+    }
+
+    /// Unchecked exceptions from entry checks fail the verification.
+    @Test
+    void entryCheckFailuresAreReported() throws IOException {
+        flipByte(entry("sub/large.bin").dataOffset() + 1_000_000);
+
+        assertThatThrownBy(() -> new TarVerifier().verify(archive, 2, m -> {
+            throw new IllegalStateException("reporter failed");
+        }))
+            .isInstanceOf(IOException.class)
+            .hasMessageContaining("sub/large.bin")
+            .hasCauseInstanceOf(IllegalStateException.class);
+    }
+
+    /// Differences from the filesystem are reported.
+    @Test
+    void reportsFilesystemDifferences() throws IOException {
+        byte[] changed = Files.readAllBytes(src.resolve("sub/large.bin"));
+        changed[1234] ^= 1;
+        FileTime modTime = Files.getLastModifiedTime(src.resolve("sub/large.bin"));
+        Files.write(src.resolve("sub/large.bin"), changed);
+        Files.setLastModifiedTime(src.resolve("sub/large.bin"), modTime);
+        Files.write(src.resolve("small.txt"), data(10));
+        Files.delete(src.resolve("sub/empty"));
+
+        List<Mismatch> mismatches = new ArrayList<>();
+        new TarVerifier(src).verify(archive, mismatches::add);
+
+        assertThat(problems(mismatches)).contains("sub/large.bin CONTENT", "small.txt SIZE", "sub/empty MISSING");
+        assertThat(mismatches.stream().filter(m -> m.problem() == Problem.CONTENT).findFirst().orElseThrow().detail())
+                .contains("offset 1234");
+    }
+
+    /// A truncated archive is reported.
+    @Test
+    void reportsTruncation() throws IOException {
+        long cut = entry("sub/large.bin").dataOffset() + 100_000;
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.WRITE)) {
+            channel.truncate(cut);
+        }
+
+        List<Mismatch> fromFile = new ArrayList<>();
+        List<Mismatch> fromStream = new ArrayList<>();
+        new TarVerifier().verify(archive, fromFile::add);
+        new TarVerifier().verify(Files.newInputStream(archive), fromStream::add);
+
+        assertThat(problems(fromFile)).containsExactly("sub/large.bin TRUNCATED");
+        assertThat(problems(fromStream)).containsExactly("sub/large.bin TRUNCATED");
+    }
+
+    /// An archive cut off after a complete entry is reported as truncated, as file and as stream.
+    @Test
+    void reportsMissingEndMarker() throws IOException {
+        TarIndexEntry last = entry("sub/empty");
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.WRITE)) {
+            channel.truncate(last.dataOffset() + last.size());
+        }
+
+        List<Mismatch> fromFile = new ArrayList<>();
+        List<Mismatch> fromStream = new ArrayList<>();
+        Summary fromStreamSummary = new TarVerifier().verify(Files.newInputStream(archive), fromStream::add);
+        new TarVerifier().verify(archive, fromFile::add);
+
+        assertThat(fromStreamSummary.isOk()).isFalse();
+        assertThat(problems(fromFile)).containsExactly(" TRUNCATED");
+        assertThat(problems(fromStream)).containsExactly(" TRUNCATED");
+    }
+
+    private TarIndexEntry entry(String name) throws IOException {
+        try (FileChannel channel = FileChannel.open(archive)) {
+            TarIndexEntry entry = TarIndex.scan(channel).find(name);
+            assertThat(entry).isNotNull();
+            return entry;
+        }
+    }
+
+    private void flipByte(long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, offset);
+            b.put(0, (byte) (b.get(0) ^ 1));
+            channel.write(b.rewind(), offset);
+        }
+    }
+
+    private static List<String> problems(List<Mismatch> mismatches) {
+        return mismatches.stream()
+                .map(m -> m.name() + " " + m.problem())
+                .collect(Collectors.toList());
+    }
+
+    private static byte[] data(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+}
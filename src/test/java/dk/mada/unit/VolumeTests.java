@@ -0,0 +1,153 @@
+package dk.mada.unit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dk.mada.mjtar.TarEntry;
+import dk.mada.mjtar.TarInputStream;
+import dk.mada.mjtar.TarVolumeManifest;
+import dk.mada.mjtar.TarVolumeOutputStream;
+import dk.mada.mjtar.TarVolumeWriter;
+
+/**
+ * Tests of multi-volume archives.
+ */
+class VolumeTests {
+    private static final long VOLUME_SIZE = 8 * 1024;
+
+    @TempDir Path dir;
+
+    private final Map<String, byte[]> contents = new LinkedHashMap<>();
+
+    /// Volumes respect the size limit, and entries can be read through the manifest.
+    @Test
+    void splitsEntriesAcrossVolumes() throws IOException {
+        TarVolumeManifest manifest = writeVolumes();
+
+        assertThat(manifest.volumes().size()).isGreaterThan(3);
+        for (Path volume : manifest.volumes()) {
+            assertThat(Files.size(volume)).isLessThanOrEqualTo(VOLUME_SIZE);
+        }
+
+        TarVolumeManifest loaded = TarVolumeManifest.load(dir.resolve("out").resolve("backup.manifest"));
+        assertThat(loaded.entries()).isEqualTo(manifest.entries());
+        for (var e : contents.entrySet()) {
+            TarVolumeManifest.Entry entry = loaded.find(e.getKey());
+            assertThat(entry).isNotNull();
+            assertThat(loaded.getEntry(entry).getName()).isEqualTo(e.getKey());
+            try (var in = loaded.getInputStream(entry)) {
+                assertThat(in.readAllBytes()).isEqualTo(e.getValue());
+            }
+        }
+    }
+
+    /// Volumes can be reassembled into a single archive.
+    @Test
+    void reassemblesVolumes() throws IOException {
+        TarVolumeManifest manifest = writeVolumes();
+        Path archive = dir.resolve("reassembled.tar");
+
+        manifest.reassemble(archive);
+
+        Map<String, byte[]> read = new LinkedHashMap<>();
+        try (var tis = new TarInputStream(Files.newInputStream(archive))) {
+            TarEntry entry;
+            while ((entry = tis.getNextEntry()) != null) {
+                read.put(entry.getName(), tis.readAllBytes());
+            }
+        }
+        assertThat(read.keySet()).isEqualTo(contents.keySet());
+        for (var e : contents.entrySet()) {
+            assertThat(read.get(e.getKey())).isEqualTo(e.getValue());
+        }
+    }
+
+    /// Names too long for the header fields are kept in entry and continuation headers.
+    @Test
+    void keepsLongNames() throws IOException {
+        String longName = "dir/" + "n".repeat(120) + "/" + "f".repeat(120);
+        byte[] data = new byte[20_000];
+        new Random(3).nextBytes(data);
+        Path in = Files.createDirectories(dir.resolve("in"));
+        Path out = Files.createDirectories(dir.resolve("out"));
+        var writer = new TarVolumeWriter(out, "backup", VOLUME_SIZE);
+        writer.add(Files.write(in.resolve("long"), data), longName);
+
+        TarVolumeManifest manifest = writer.write(2);
+
+        assertThat(manifest.volumes().size()).isGreaterThan(2);
+        TarVolumeManifest.Entry entry = manifest.find(longName);
+        assertThat(entry).isNotNull();
+        assertThat(manifest.getEntry(entry).getName()).isEqualTo(longName);
+        try (var tis = new TarInputStream(Files.newInputStream(manifest.volumes().get(1)))) {
+            assertThat(tis.getNextEntry().getName()).isEqualTo(longName);
+        }
+        Path archive = dir.resolve("reassembled.tar");
+        manifest.reassemble(archive);
+        try (var tis = new TarInputStream(Files.newInputStream(archive))) {
+            assertThat(tis.getNextEntry().getName()).isEqualTo(longName);
+            assertThat(tis.readAllBytes()).isEqualTo(data);
+            assertThat(tis.getNextEntry()).isNull();
+        }
+    }
+
+    /// Streamed volumes roll over as they are written, giving the same volumes as the file based writer.
+    @Test
+    void streamsVolumes() throws IOException {
+        TarVolumeManifest written = writeVolumes();
+        Path streamed = Files.createDirectories(dir.resolve("streamed"));
+        List<Path> completed = new ArrayList<>();
+
+        TarVolumeManifest manifest;
+        try (var out = new TarVolumeOutputStream(streamed, "backup", VOLUME_SIZE)) {
+            out.setVolumeListener(completed::add);
+            for (var e : contents.entrySet()) {
+                out.putNextEntry(new TarEntry(dir.resolve("in").resolve(e.getKey()), e.getKey()));
+                byte[] data = e.getValue();
+                // Write in odd sized pieces, crossing volume boundaries
+                for (int i = 0; i < data.length; i += 1000) {
+                    out.write(data, i, Math.min(1000, data.length - i));
+                }
+            }
+            out.close();
+            manifest = out.getManifest();
+        }
+
+        assertThat(completed).isEqualTo(manifest.volumes());
+        assertThat(manifest.entries()).isEqualTo(written.entries());
+        assertThat(manifest.volumes()).hasSize(written.volumes().size());
+        for (int v = 0; v < written.volumes().size(); v++) {
+            assertThat(Files.readAllBytes(manifest.volumes().get(v))).isEqualTo(Files.readAllBytes(written.volumes().get(v)));
+        }
+        TarVolumeManifest loaded = TarVolumeManifest.load(streamed.resolve("backup.manifest"));
+        assertThat(loaded.entries()).isEqualTo(written.entries());
+    }
+
+    private TarVolumeManifest writeVolumes() throws IOException {
+        Random rnd = new Random(7);
+        Path in = Files.createDirectories(dir.resolve("in"));
+        Path out = Files.createDirectories(dir.resolve("out"));
+        var writer = new TarVolumeWriter(out, "backup", VOLUME_SIZE);
+        // Small entries, an entry needing its own volume, and entries spanning several volumes
+        int[] sizes = {100, 3000, 0, 7000, 20_000, 512, 1500, 30_000, 2};
+        for (int i = 0; i < sizes.length; i++) {
+            byte[] data = new byte[sizes[i]];
+            rnd.nextBytes(data);
+            String name = "file-" + i;
+            contents.put(name, data);
+            writer.add(Files.write(in.resolve(name), data), name);
+        }
+        return writer.write(3);
+    }
+}